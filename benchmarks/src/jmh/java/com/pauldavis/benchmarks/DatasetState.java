@@ -0,0 +1,70 @@
+package com.pauldavis.benchmarks;
+
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.DistanceKernels;
+import com.pauldavis.data.io.Dataset;
+import com.pauldavis.data.io.DatasetLoader;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * One bundled data set, loaded and normalized once per trial. K of 0 means the cluster count from the file header.
+ * The distance kernel is switched before anything runs, the precision and storage set how the values are stored.
+ * Storage is auto by default, sparse only for data with few enough non-zero values, as -storage=auto. Sparse storage
+ * keeps double values whatever the precision.
+ *
+ * The defaults are a small slice, the build's -Pjmh.full and -Pjmh.<parameter> flags widen it
+ */
+@State(Scope.Benchmark)
+public class DatasetState {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    @Param({"landsat", "optdigits"})
+    public String dataset;
+
+    @Param({"0"})
+    public int k;
+
+    @Param({"scalar", "vector"})
+    public String kernel;
+
+    @Param({"double"})
+    public String precision;
+
+    @Param({"auto"})
+    public String storage;
+
+    // Source file, under the directory given by -Dsource.sets
+    public String fileName;
+    // Normalized points and their true labels
+    public DataMatrix data;
+    public double[] labels;
+    // Cluster count actually used
+    public int numClusters;
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        DistanceKernels.select(kernel);
+        fileName = Paths.get(System.getProperty("source.sets", "source_sets"), dataset + ".txt").toString();
+        double sparseDensity = storage.equals("sparse") ? 1 : storage.equals("auto") ? DatasetLoader.AUTO_DENSITY : 0;
+        Dataset loaded = DatasetLoader.load(fileName, precision.equals("float"), sparseDensity);
+        loaded.normalize();
+        data = loaded.getData();
+        labels = loaded.getLabels();
+        numClusters = k == 0 ? loaded.getNumClusters() : k;
+    }
+}
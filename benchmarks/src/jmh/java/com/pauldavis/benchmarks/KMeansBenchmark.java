@@ -0,0 +1,98 @@
+package com.pauldavis.benchmarks;
+
+import com.pauldavis.ClusteringRun;
+import com.pauldavis.Options;
+import com.pauldavis.data.RunResult;
+import com.pauldavis.data.database.RandomCentroidClusteredDatabase;
+import com.pauldavis.data.metrics.ClusterStatistics;
+import com.pauldavis.data.metrics.ExternalValidation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.SplittableRandom;
+
+/**
+ * The steps of a K-Means run on one data set and K. Every database starts from the same seed so runs are comparable
+ * across commits
+ */
+@State(Scope.Thread)
+public class KMeansBenchmark {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Seed for every random choice
+    private static final long SEED = 42;
+
+    // Database after initialization, reused by the single step benchmarks
+    private RandomCentroidClusteredDatabase database;
+    // Settings for a full run
+    private Options options;
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Setup(Level.Trial)
+    public void initialize(DatasetState state) {
+        database = new RandomCentroidClusteredDatabase(state.data, state.numClusters, 1, new SplittableRandom(SEED));
+        options = Options.parse(new String[]{state.fileName, "100", "0.001", "1"});
+    }
+
+    /**
+     * One assignment pass, every point to its closest centroid
+     */
+    @Benchmark
+    public RandomCentroidClusteredDatabase assignment() {
+        database.rebuildClusters();
+        return database;
+    }
+
+    /**
+     * One centroid update, every centroid to the mean of its points
+     */
+    @Benchmark
+    public RandomCentroidClusteredDatabase centroidUpdate() {
+        database.balanceCentroids();
+        return database;
+    }
+
+    /**
+     * Sum of squared errors, one errorFromCentroid per point
+     */
+    @Benchmark
+    public double sumSquaredError() {
+        return database.calculateSumSquaredErrorInternal();
+    }
+
+    /**
+     * Cluster statistics and every measure derived from them
+     */
+    @Benchmark
+    public double internalIndices() {
+        ClusterStatistics statistics = database.calculateStatistics();
+        return statistics.getExternalSSE() + statistics.getCalinskiHarabasz() + statistics.getDaviesBouldin();
+    }
+
+    /**
+     * Jaccard, Rand and adjusted Rand against the true labels
+     */
+    @Benchmark
+    public ExternalValidation validation(DatasetState state) {
+        return new ExternalValidation(state.labels, database.getMembership().getAssignments(), state.numClusters);
+    }
+
+    /**
+     * A whole run from initialization to convergence, validation included
+     */
+    @Benchmark
+    public RunResult fullRun(DatasetState state) {
+        return new ClusteringRun(options, state.data, state.labels, null, null, null, state.numClusters, 1,
+                new SplittableRandom(SEED)).call();
+    }
+}
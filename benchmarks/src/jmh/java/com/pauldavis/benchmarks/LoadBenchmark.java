@@ -0,0 +1,80 @@
+package com.pauldavis.benchmarks;
+
+import com.pauldavis.data.io.Dataset;
+import com.pauldavis.data.io.DatasetCache;
+import com.pauldavis.data.io.DatasetLoader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Loading a data set from text and from its binary cache. The source is copied to a temporary directory so the cache
+ * never lands in source_sets
+ */
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    @Param({"iris_bezdek", "ecoli", "yeast", "landsat", "optdigits", "letter_recognition", "mfeat-fou"})
+    public String dataset;
+
+    // Temporary copy of the source and its directory
+    private Path directory;
+    private String fileName;
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Setup(Level.Trial)
+    public void copySource() throws IOException {
+        directory = Files.createTempDirectory("load-benchmark");
+        Path source = Paths.get(System.getProperty("source.sets", "source_sets"), dataset + ".txt");
+        Path copy = directory.resolve(source.getFileName());
+        Files.copy(source, copy, StandardCopyOption.REPLACE_EXISTING);
+        fileName = copy.toString();
+
+        Dataset loaded = DatasetLoader.load(fileName);
+        loaded.normalize();
+        DatasetCache.save(fileName, loaded);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteCopy() throws IOException {
+        Files.deleteIfExists(DatasetCache.cachePath(Paths.get(fileName)));
+        Files.deleteIfExists(Paths.get(fileName));
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Parse and normalize the text file
+     */
+    @Benchmark
+    public Dataset loadText() throws IOException {
+        Dataset loaded = DatasetLoader.load(fileName);
+        loaded.normalize();
+        return loaded;
+    }
+
+    /**
+     * Map the binary cache
+     */
+    @Benchmark
+    public Dataset loadCache() throws IOException {
+        return DatasetCache.load(fileName);
+    }
+}
@@ -0,0 +1,87 @@
+package com.pauldavis.benchmarks;
+
+import com.pauldavis.data.database.OnlineClusteredDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+
+/**
+ * Online clustering throughput, the data set's rows streamed in order over and over. Scores are points per second
+ */
+@State(Scope.Thread)
+public class OnlineBenchmark {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Points per batch
+    private static final int BATCH_SIZE = 1024;
+
+    @Param({"1", "0.999"})
+    public double decay;
+
+    @Param({"0", "4096"})
+    public int window;
+
+    // Rows of the data set and the batches cut from them
+    private double[][] points;
+    private double[][][] batches;
+    // Next row or batch to add
+    private int next;
+    // Database being fed
+    private OnlineClusteredDatabase database;
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Setup(Level.Trial)
+    public void initialize(DatasetState state) {
+        points = new double[state.data.getRows()][];
+        for (int row = 0; row < points.length; row++)
+            points[row] = state.data.getRow(row);
+        batches = new double[(points.length + BATCH_SIZE - 1) / BATCH_SIZE][][];
+        for (int b = 0; b < batches.length; b++)
+            batches[b] = Arrays.copyOfRange(points, b * BATCH_SIZE, Math.min(points.length, (b + 1) * BATCH_SIZE));
+        // Start from every row seen once, so clusters are settled
+        database = new OnlineClusteredDatabase(state.numClusters, state.data.getColumns(), decay, window, 1);
+        database.addAll(points);
+    }
+
+    /**
+     * One point at a time
+     */
+    @Benchmark
+    public int add() {
+        int cluster = database.add(points[next]);
+        next = next + 1 == points.length ? 0 : next + 1;
+        return cluster;
+    }
+
+    /**
+     * A batch assigned against fixed centroids, then folded in. Short last batches slightly overstate the score
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int[] addAll() {
+        int[] clusters = database.addAll(batches[next % batches.length]);
+        next = next + 1 >= batches.length ? 0 : next + 1;
+        return clusters;
+    }
+
+    /**
+     * SSE of everything counted so far
+     */
+    @Benchmark
+    public double sumSquaredError() {
+        return database.getSumSquaredError();
+    }
+}
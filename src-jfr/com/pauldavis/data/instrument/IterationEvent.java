@@ -0,0 +1,46 @@
+package com.pauldavis.data.instrument;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * One K-Means iteration, its duration is the whole iteration
+ */
+@Name("com.pauldavis.Iteration")
+@Label("K-Means Iteration")
+@Category("K-Means")
+class IterationEvent extends Event {
+
+    @Label("Run")
+    int run;
+
+    @Label("Iteration")
+    int iteration;
+
+    @Label("Update")
+    @Description("Moving centroids")
+    @Timespan
+    long update;
+
+    @Label("Assign")
+    @Description("Assigning points, including the SSE when the engine folds it in")
+    @Timespan
+    long assign;
+
+    @Label("SSE")
+    @Timespan
+    long sse;
+
+    @Label("Distance Evaluations")
+    long distanceEvaluations;
+
+    @Label("Moved")
+    int moved;
+
+    @Label("Sum Squared Error")
+    double sumSquaredError;
+}
@@ -0,0 +1,63 @@
+package com.pauldavis.data.instrument;
+
+/**
+ * Emits JFR events for phases and iterations. Events only cost anything while a recording is running, for example
+ * with -XX:StartFlightRecording. A run stays on one thread, so the open event of each thread is kept until it finishes
+ */
+public class JfrMetricsListener implements MetricsListener {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Event started on each thread and not yet finished
+    private final ThreadLocal<PhaseEvent> phase = new ThreadLocal<>();
+    private final ThreadLocal<IterationEvent> iteration = new ThreadLocal<>();
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    public void phaseStarted(int run, Phase started) {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        phase.set(event);
+    }
+
+    @Override
+    public void phaseFinished(int run, Phase finished, long nanos) {
+        PhaseEvent event = phase.get();
+        phase.remove();
+        if (event == null || !event.shouldCommit())
+            return;
+        event.run = run;
+        event.phase = finished.getKey();
+        event.commit();
+    }
+
+    @Override
+    public void iterationStarted(int run, int started) {
+        IterationEvent event = new IterationEvent();
+        event.begin();
+        iteration.set(event);
+    }
+
+    @Override
+    public void iterationFinished(int run, IterationMetrics metrics) {
+        IterationEvent event = iteration.get();
+        iteration.remove();
+        if (event == null || !event.shouldCommit())
+            return;
+        event.run = run;
+        event.iteration = metrics.getIteration();
+        event.update = metrics.getNanos(Phase.UPDATE);
+        event.assign = metrics.getNanos(Phase.ASSIGN);
+        event.sse = metrics.getNanos(Phase.SSE);
+        event.distanceEvaluations = metrics.getDistanceEvaluations();
+        event.moved = metrics.getMoved();
+        event.sumSquaredError = metrics.getSumSquaredError();
+        event.commit();
+    }
+}
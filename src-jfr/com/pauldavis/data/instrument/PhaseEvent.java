@@ -0,0 +1,21 @@
+package com.pauldavis.data.instrument;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One run level phase: load, normalize, init or validation
+ */
+@Name("com.pauldavis.Phase")
+@Label("K-Means Phase")
+@Category("K-Means")
+class PhaseEvent extends Event {
+
+    @Label("Run")
+    int run;
+
+    @Label("Phase")
+    String phase;
+}
@@ -0,0 +1,202 @@
+package com.pauldavis.data;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernel on the Java Vector API. Each lane keeps its own running sum with fused multiply-add, the lanes are added
+ * once at the end and the attributes past the last full vector are done one at a time. Single precision rows are
+ * loaded at half width and widened, so every sum is still kept in double
+ */
+public class VectorDistanceKernel implements DistanceKernel {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Widest vector the CPU supports
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // Floats filling the same number of lanes
+    private static final VectorSpecies<Float> FLOAT_SPECIES =
+            VectorSpecies.of(float.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    public double distanceSquared(double[] values, int offset, double[] point, int length) {
+        int i = 0;
+        double distance = 0;
+        int bound = SPECIES.loopBound(length);
+        if (bound > 0) {
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (; i < bound; i += SPECIES.length()) {
+                DoubleVector difference = DoubleVector.fromArray(SPECIES, point, i).sub(load(values, offset + i));
+                sum = difference.fma(difference, sum);
+            }
+            distance = sum.reduceLanes(VectorOperators.ADD);
+        }
+
+        // Tail
+        for (; i < length; i++) {
+            double difference = point[i] - values[offset + i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    @Override
+    public double distanceSquared(float[] values, int offset, double[] point, int length) {
+        int i = 0;
+        double distance = 0;
+        int bound = SPECIES.loopBound(length);
+        if (bound > 0) {
+            DoubleVector sum = DoubleVector.zero(SPECIES);
+            for (; i < bound; i += SPECIES.length()) {
+                DoubleVector difference = DoubleVector.fromArray(SPECIES, point, i).sub(load(values, offset + i));
+                sum = difference.fma(difference, sum);
+            }
+            distance = sum.reduceLanes(VectorOperators.ADD);
+        }
+
+        // Tail
+        for (; i < length; i++) {
+            double difference = point[i] - values[offset + i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    /**
+     * Works centroids two at a time so each slice of the row is loaded once for both. Every distance is summed in the
+     * same order as distanceSquared, so both give identical values
+     */
+    @Override
+    public int closest(double[] values, int offset, double[][] centroids, int length, double[] distances) {
+        int bound = SPECIES.loopBound(length);
+        int c = 0;
+        for (; c + 1 < centroids.length; c += 2) {
+            double[] first = centroids[c];
+            double[] second = centroids[c + 1];
+            int i = 0;
+            double firstDistance = 0;
+            double secondDistance = 0;
+            if (bound > 0) {
+                DoubleVector firstSum = DoubleVector.zero(SPECIES);
+                DoubleVector secondSum = DoubleVector.zero(SPECIES);
+                for (; i < bound; i += SPECIES.length()) {
+                    DoubleVector row = load(values, offset + i);
+                    DoubleVector firstDifference = DoubleVector.fromArray(SPECIES, first, i).sub(row);
+                    DoubleVector secondDifference = DoubleVector.fromArray(SPECIES, second, i).sub(row);
+                    firstSum = firstDifference.fma(firstDifference, firstSum);
+                    secondSum = secondDifference.fma(secondDifference, secondSum);
+                }
+                firstDistance = firstSum.reduceLanes(VectorOperators.ADD);
+                secondDistance = secondSum.reduceLanes(VectorOperators.ADD);
+            }
+
+            // Tail
+            for (; i < length; i++) {
+                double firstDifference = first[i] - values[offset + i];
+                double secondDifference = second[i] - values[offset + i];
+                firstDistance += firstDifference * firstDifference;
+                secondDistance += secondDifference * secondDifference;
+            }
+            distances[c] = firstDistance;
+            distances[c + 1] = secondDistance;
+        }
+        if (c < centroids.length)
+            distances[c] = distanceSquared(values, offset, centroids[c], length);
+        return lowest(distances, centroids.length);
+    }
+
+    /**
+     * Same as the double precision version, widening each slice of the row once for both centroids
+     */
+    @Override
+    public int closest(float[] values, int offset, double[][] centroids, int length, double[] distances) {
+        int bound = SPECIES.loopBound(length);
+        int c = 0;
+        for (; c + 1 < centroids.length; c += 2) {
+            double[] first = centroids[c];
+            double[] second = centroids[c + 1];
+            int i = 0;
+            double firstDistance = 0;
+            double secondDistance = 0;
+            if (bound > 0) {
+                DoubleVector firstSum = DoubleVector.zero(SPECIES);
+                DoubleVector secondSum = DoubleVector.zero(SPECIES);
+                for (; i < bound; i += SPECIES.length()) {
+                    DoubleVector row = load(values, offset + i);
+                    DoubleVector firstDifference = DoubleVector.fromArray(SPECIES, first, i).sub(row);
+                    DoubleVector secondDifference = DoubleVector.fromArray(SPECIES, second, i).sub(row);
+                    firstSum = firstDifference.fma(firstDifference, firstSum);
+                    secondSum = secondDifference.fma(secondDifference, secondSum);
+                }
+                firstDistance = firstSum.reduceLanes(VectorOperators.ADD);
+                secondDistance = secondSum.reduceLanes(VectorOperators.ADD);
+            }
+
+            // Tail
+            for (; i < length; i++) {
+                double firstDifference = first[i] - values[offset + i];
+                double secondDifference = second[i] - values[offset + i];
+                firstDistance += firstDifference * firstDifference;
+                secondDistance += secondDifference * secondDifference;
+            }
+            distances[c] = firstDistance;
+            distances[c + 1] = secondDistance;
+        }
+        if (c < centroids.length)
+            distances[c] = distanceSquared(values, offset, centroids[c], length);
+        return lowest(distances, centroids.length);
+    }
+
+    /**
+     * Loads one vector of a double precision row
+     *
+     * @param values Backing array
+     * @param offset First value to load
+     * @return Row slice
+     */
+    private static DoubleVector load(double[] values, int offset) {
+        return DoubleVector.fromArray(SPECIES, values, offset);
+    }
+
+    /**
+     * Loads one vector of a single precision row, widened to double
+     *
+     * @param values Backing array
+     * @param offset First value to load
+     * @return Row slice
+     */
+    private static DoubleVector load(float[] values, int offset) {
+        return (DoubleVector) FloatVector.fromArray(FLOAT_SPECIES, values, offset).castShape(SPECIES, 0);
+    }
+
+    /**
+     * Finds the smallest distance, the lowest index wins ties like the scalar scan
+     *
+     * @param distances Distance to each centroid
+     * @param count     How many are filled
+     * @return Index of the smallest
+     */
+    private static int lowest(double[] distances, int count) {
+        int closest = 0;
+        for (int j = 1; j < count; j++) {
+            if (distances[j] < distances[closest])
+                closest = j;
+        }
+        return closest;
+    }
+
+    @Override
+    public String getName() {
+        return "vector";
+    }
+}
@@ -0,0 +1,312 @@
+package com.pauldavis;
+
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.KdTree;
+import com.pauldavis.data.RunResult;
+import com.pauldavis.data.database.AbstractClusteredDatabase;
+import com.pauldavis.data.database.ChunkedIterationEngine;
+import com.pauldavis.data.database.DistributedIterationEngine;
+import com.pauldavis.data.database.ElkanIterationEngine;
+import com.pauldavis.data.database.KMeansParallelClusteredDatabase;
+import com.pauldavis.data.database.KMeansPlusPlusClusteredDatabase;
+import com.pauldavis.data.database.KdTreeIterationEngine;
+import com.pauldavis.data.database.LloydIterationEngine;
+import com.pauldavis.data.database.MiniBatchIterationEngine;
+import com.pauldavis.data.database.RandomCentroidClusteredDatabase;
+import com.pauldavis.data.database.SplitClusteredDatabase;
+import com.pauldavis.data.distributed.WorkerGroup;
+import com.pauldavis.data.instrument.IterationMetrics;
+import com.pauldavis.data.instrument.MetricsListener;
+import com.pauldavis.data.instrument.MetricsListeners;
+import com.pauldavis.data.instrument.Phase;
+import com.pauldavis.data.instrument.PhaseTimer;
+import com.pauldavis.data.instrument.RunMetrics;
+import com.pauldavis.data.metrics.ClusterStatistics;
+import com.pauldavis.data.metrics.ExternalValidation;
+import com.pauldavis.data.metrics.Silhouette;
+import com.pauldavis.data.metrics.SilhouetteEstimate;
+import com.pauldavis.data.reduce.Reduction;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+
+/**
+ * One K-Means run from initialization to convergence. Runs only read the shared data, labels and tree, so any number
+ * can work at once. Output is collected instead of printed so it can be shown in run order
+ */
+public class ClusteringRun implements Callable<RunResult> {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Settings shared by every run
+    private final Options options;
+    // Normalized points and their true labels
+    private final DataMatrix data;
+    private final double[] labels;
+    // Shared kd-tree, null unless the kdtree engine can use one
+    private final KdTree tree;
+    // Shared workers, null to assign in this process
+    private final WorkerGroup workers;
+    // Original of the reduced data being clustered, null when clustering the original
+    private final Reduction reduction;
+    // How many clusters to find
+    private final int numClusters;
+    // Which run, starting at 1
+    private final int run;
+    // Source of every random choice this run makes
+    private final SplittableRandom random;
+    // Solution with one fewer cluster to warm start from, null to initialize from scratch
+    private final AbstractClusteredDatabase parent;
+    // Database and outcome once the run has finished
+    private AbstractClusteredDatabase database;
+    private RunResult result;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates a run
+     *
+     * @param options     Settings shared by every run
+     * @param data        Normalized points
+     * @param labels      True label of each point
+     * @param tree        Shared kd-tree, may be null
+     * @param workers     Shared workers that assign the fused engine's blocks, may be null
+     * @param reduction   Reduction the data came from, null when it is the original
+     * @param numClusters How many clusters to find
+     * @param run         Which run, starting at 1
+     * @param random      Source of every random choice this run makes
+     */
+    public ClusteringRun(Options options, DataMatrix data, double[] labels, KdTree tree, WorkerGroup workers,
+                         Reduction reduction, int numClusters, int run, SplittableRandom random) {
+        this(options, data, labels, tree, workers, reduction, numClusters, run, random, null);
+    }
+
+    /**
+     * Creates a run that warm starts by splitting the worst cluster of an earlier solution
+     *
+     * @param options     Settings shared by every run
+     * @param data        Normalized points
+     * @param labels      True label of each point
+     * @param tree        Shared kd-tree, may be null
+     * @param workers     Shared workers that assign the fused engine's blocks, may be null
+     * @param reduction   Reduction the data came from, null when it is the original
+     * @param numClusters How many clusters to find, one more than the parent has
+     * @param run         Which run, starting at 1
+     * @param random      Source of every random choice this run makes
+     * @param parent      Finished solution over the same data, null to use the chosen initializer
+     */
+    public ClusteringRun(Options options, DataMatrix data, double[] labels, KdTree tree, WorkerGroup workers,
+                         Reduction reduction, int numClusters, int run, SplittableRandom random,
+                         AbstractClusteredDatabase parent) {
+        if (parent != null && parent.getClusters().size() + 1 != numClusters)
+            throw new IllegalArgumentException("Warm starts add one cluster to the parent");
+        this.options = options;
+        this.data = data;
+        this.labels = labels;
+        this.tree = tree;
+        this.workers = workers;
+        this.reduction = reduction;
+        this.numClusters = numClusters;
+        this.run = run;
+        this.random = random;
+        this.parent = parent;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates the database for the chosen initializer, or split from the parent when there is one
+     *
+     * @return Initialized database
+     */
+    private AbstractClusteredDatabase createDatabase() {
+        if (parent != null)
+            return new SplitClusteredDatabase(parent, options.getThreads(), random);
+        switch (options.getInit()) {
+            case "kmeans++":
+                return new KMeansPlusPlusClusteredDatabase(data, numClusters, options.getThreads(), random);
+            case "kmeans||":
+                return new KMeansParallelClusteredDatabase(data, numClusters, options.getThreads(), random);
+            default:
+                return new RandomCentroidClusteredDatabase(data, numClusters, options.getThreads(), random);
+        }
+    }
+
+    @Override
+    public RunResult call() {
+        StringBuilder output = new StringBuilder();
+        RunMetrics metrics = new RunMetrics(run);
+        MetricsListener listener = MetricsListeners.get();
+
+        // Output formatting
+        output.append("Run: ").append(run).append('\n');
+        output.append("-------------------------------------------\n");
+
+        // Create the database object
+        listener.phaseStarted(run, Phase.INIT);
+        long start = System.nanoTime();
+        String engine = options.getEngine();
+        database = createDatabase();
+        if (engine.equals("lloyd"))
+            database.setEngine(new LloydIterationEngine(database));
+        else if (engine.equals("elkan"))
+            database.setEngine(new ElkanIterationEngine(database));
+        else if (engine.equals("minibatch"))
+            database.setEngine(new MiniBatchIterationEngine(database, options.getBatchSize(), random));
+        else if (engine.equals("chunked"))
+            database.setEngine(new ChunkedIterationEngine(database));
+        else if (engine.equals("kdtree") && tree != null)
+            database.setEngine(new KdTreeIterationEngine(database, tree));
+        else if (workers != null)
+            database.setEngine(new DistributedIterationEngine(database, workers));
+        double initialSSE = database.getInitialSSE();
+
+        // A reduced run reports every SSE in the original space, against the means of each cluster's rows there
+        if (reduction != null)
+            initialSSE = reduction.sumSquaredError(database.getMembership().getAssignments(), numClusters,
+                    options.getThreads());
+        long elapsed = System.nanoTime() - start;
+        metrics.add(Phase.INIT, elapsed);
+        listener.phaseFinished(run, Phase.INIT, elapsed);
+
+        // Used to track when done
+        double lastSSE = Double.POSITIVE_INFINITY;
+        double currentSSE = initialSSE;
+
+        // Loop for given iterations
+        int iteration = 1;
+        PhaseTimer timer = database.getTimer();
+        long loopStart = System.nanoTime();
+        while (iteration <= options.getMaxIterations()) {
+            listener.iterationStarted(run, iteration);
+            long evaluations = database.getEngine().getDistanceEvaluations();
+            timer.restart();
+
+            // Move centroids and reassign points to clusters, SSE comes from the same pass
+            int moved = database.iterate();
+            currentSSE = database.getEngine().getSumSquaredError();
+            IterationMetrics iterationMetrics = new IterationMetrics(iteration, timer,
+                    database.getEngine().getDistanceEvaluations() - evaluations, moved, currentSSE);
+            metrics.addIteration(iterationMetrics);
+            listener.iterationFinished(run, iterationMetrics);
+            if (!options.isQuiet())
+                output.append("Iteration ").append(iteration).append(": SSE = ").append(currentSSE).append('\n');
+            iteration += 1;
+
+            // Check if we should stop
+            if (database.getEngine().hasConverged(moved, lastSSE, options.getConvergenceThreshold()) ||
+                    iteration == options.getMaxIterations() - 1)
+                break;
+
+            // Not done, update SSE for next round
+            lastSSE = currentSSE;
+        }
+
+        long loopNanos = System.nanoTime() - loopStart;
+
+        // Let estimating engines settle on exact membership
+        listener.phaseStarted(run, Phase.ASSIGN);
+        start = System.nanoTime();
+        database.getEngine().finish();
+        currentSSE = database.getEngine().getSumSquaredError();
+
+        // A reduced solution is judged in the original space, where one exact pass may still move rows
+        if (reduction != null) {
+            int[] assignments = database.getMembership().getAssignments();
+            double reducedSSE = currentSSE;
+            currentSSE = reduction.sumSquaredError(assignments, numClusters, options.getThreads());
+            output.append("Original space SSE: ").append(currentSSE)
+                    .append(" (reduced space: ").append(reducedSSE).append(")\n");
+            if (options.isExact()) {
+                long passStart = System.nanoTime();
+                int moved = reduction.exactPass(assignments, numClusters, options.getThreads());
+                database.getMembership().markChanged();
+                double exactSSE = reduction.sumSquaredError(assignments, numClusters, options.getThreads());
+                double passMillis = (System.nanoTime() - passStart) / 1e6;
+                double iterationMillis = loopNanos / 1e6 / Math.max(1, iteration - 1);
+                output.append("Exact pass: SSE = ").append(exactSSE)
+                        .append(" (").append(exactSSE - currentSSE).append("), ").append(moved).append(" moved, ")
+                        .append(String.format("took %.1f ms against %.1f ms per reduced iteration, %.1fx speedup%n",
+                                passMillis, iterationMillis, passMillis / iterationMillis));
+                currentSSE = exactSSE;
+            }
+        }
+        elapsed = System.nanoTime() - start;
+        metrics.add(Phase.ASSIGN, elapsed);
+        listener.phaseFinished(run, Phase.ASSIGN, elapsed);
+
+        // Calculate External Validation
+        listener.phaseStarted(run, Phase.VALIDATION);
+        start = System.nanoTime();
+        ExternalValidation validation = new ExternalValidation(labels, database.getMembership().getAssignments(),
+                numClusters);
+
+        // Real silhouette from pairwise distances, sampled on request, in the original space for a reduced run
+        double silhouette = Double.NaN;
+        if (options.isSilhouette()) {
+            Silhouette original = reduction == null ? null : new Silhouette(reduction.getOriginal(),
+                    database.getMembership().getAssignments(), numClusters, options.getThreads());
+            if (options.getSilhouetteSample() == 0) {
+                silhouette = original == null ? database.calculateSilhouetteWidth() : original.exact();
+                output.append("Silhouette: ").append(silhouette).append('\n');
+            } else {
+                SilhouetteEstimate estimate = original == null ?
+                        database.estimateSilhouetteWidth(options.getSilhouetteSample()) :
+                        original.sample(options.getSilhouetteSample(), database.getRandom());
+                silhouette = estimate.getMean();
+                output.append("Silhouette: ").append(estimate.getMean())
+                        .append(" +/- ").append(estimate.getHalfWidth())
+                        .append(" (95%, sample of ").append(estimate.getSampleSize()).append(")\n");
+            }
+        }
+
+        // Internal indices from the per cluster sums, over the original rows for a reduced run
+        ClusterStatistics statistics = reduction == null ? database.calculateStatistics() :
+                reduction.calculateStatistics(database.getMembership(), numClusters);
+        output.append("Calinski-Harabasz: ").append(statistics.getCalinskiHarabasz())
+                .append(", Davies-Bouldin: ").append(statistics.getDaviesBouldin()).append('\n');
+        elapsed = System.nanoTime() - start;
+        metrics.add(Phase.VALIDATION, elapsed);
+        listener.phaseFinished(run, Phase.VALIDATION, elapsed);
+
+        // How much work the engine skipped compared to checking every centroid, when it counts like for like
+        long evaluations = database.getEngine().getDistanceEvaluations();
+        long avoided = database.getEngine().getDistanceEvaluationsAvoided();
+        metrics.setDistanceEvaluations(evaluations);
+        output.append("Distance evaluations: ").append(evaluations);
+        if (avoided >= 0)
+            output.append(" (").append(avoided).append(" avoided)");
+        output.append("\n\n");
+
+        result = new RunResult(run, initialSSE, currentSSE, iteration, validation.getJaccard(), validation.getRand(),
+                validation.getAdjustedRand(), silhouette, evaluations, output.toString(), metrics);
+        return result;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    /**
+     * @return Database of the finished run, null before it has run
+     */
+    public AbstractClusteredDatabase getDatabase() {
+        return database;
+    }
+
+    /**
+     * @return Outcome of the finished run, null before it has run
+     */
+    public RunResult getResult() {
+        return result;
+    }
+}
@@ -0,0 +1,187 @@
+package com.pauldavis;
+
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.KdTree;
+import com.pauldavis.data.RunResult;
+import com.pauldavis.data.database.AbstractClusteredDatabase;
+import com.pauldavis.data.distributed.WorkerGroup;
+import com.pauldavis.data.metrics.Silhouette;
+import com.pauldavis.data.reduce.Reduction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs K-Means for every K in a range over one loaded and normalized data set. The smallest K starts from the chosen
+ * initializer, after that run r at K + 1 warm starts from run r at K by splitting its worst cluster. Each run's chain
+ * of K values is handed to the executor on its own, so one run can be at K + 1 while another is still at K.
+ *
+ * Every run at every K draws from its own stream split from the master in K then run order, so results never depend on
+ * thread counts. The table shows the run with the lowest ending SSE at each K
+ */
+public class KSweep {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Points sampled for the silhouette column when -silhouette is off
+    private static final int SILHOUETTE_SAMPLE = 1000;
+
+    // Settings shared by every run
+    private final Options options;
+    // Normalized points and their true labels
+    private final DataMatrix data;
+    private final double[] labels;
+    // Shared kd-tree, null unless the kdtree engine can use one
+    private final KdTree tree;
+    // Shared workers, null to assign in this process
+    private final WorkerGroup workers;
+    // Reduction the data came from, null when it is the original
+    private final Reduction reduction;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates a sweep over the K range in the options
+     *
+     * @param options   Settings shared by every run, with a sweep range
+     * @param data      Normalized points
+     * @param labels    True label of each point
+     * @param tree      Shared kd-tree, may be null
+     * @param workers   Shared workers, may be null
+     * @param reduction Reduction the data came from, may be null
+     */
+    public KSweep(Options options, DataMatrix data, double[] labels, KdTree tree, WorkerGroup workers,
+                  Reduction reduction) {
+        if (options.getSweepMax() > data.getRows())
+            throw new IllegalArgumentException("Cannot find " + options.getSweepMax() + " clusters in " +
+                    data.getRows() + " points");
+        this.options = options;
+        this.data = data;
+        this.labels = labels;
+        this.tree = tree;
+        this.workers = workers;
+        this.reduction = reduction;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Runs every K, printing each K's runs in run order as soon as they are all done, then the table
+     *
+     * @param master Stream every run's stream is split from
+     */
+    public void run(SplittableRandom master) {
+        int minK = options.getSweepMin();
+        int levels = options.getSweepMax() - minK + 1;
+        int numRuns = options.getNumRuns();
+
+        // Streams split up front, so they do not depend on which run finishes first
+        SplittableRandom[][] randoms = new SplittableRandom[levels][numRuns];
+        for (int level = 0; level < levels; level++)
+            for (int r = 0; r < numRuns; r++)
+                randoms[level][r] = master.split();
+
+        // One chain of K values per run
+        ExecutorService executor = Executors.newFixedThreadPool(options.getRunThreads());
+        List<List<CompletableFuture<ClusteringRun>>> futures = new ArrayList<>();
+        for (int level = 0; level < levels; level++) {
+            List<CompletableFuture<ClusteringRun>> runs = new ArrayList<>();
+            for (int r = 0; r < numRuns; r++) {
+                int k = minK + level;
+                int run = r + 1;
+                SplittableRandom random = randoms[level][r];
+                if (level == 0)
+                    runs.add(CompletableFuture.supplyAsync(() -> execute(k, run, random, null), executor));
+                else
+                    runs.add(futures.get(level - 1).get(r).thenApplyAsync(
+                            parent -> execute(k, run, random, parent.getDatabase()), executor));
+            }
+            futures.add(runs);
+        }
+
+        // Report each K in order
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%6s %20s %6s %11s %10s %10s %10s%n",
+                "K", "Best SSE", "Run", "Iterations", "Jaccard", "Rand", "Silhouette"));
+        try {
+            for (int level = 0; level < levels; level++) {
+                if (level == 0)
+                    System.out.println("K-Means with " + options.getInitDescription() + " K=" + minK);
+                else
+                    System.out.println("K-Means K=" + (minK + level) + " warm started from K=" + (minK + level - 1));
+                ClusteringRun best = null;
+                for (CompletableFuture<ClusteringRun> future : futures.get(level)) {
+                    ClusteringRun run = future.join();
+                    System.out.print(run.getResult().getOutput());
+                    if (best == null || run.getResult().getEndingSSE() < best.getResult().getEndingSSE())
+                        best = run;
+                }
+
+                RunResult result = best.getResult();
+                table.append(String.format("%6d %20.6f %6d %11d %10.6f %10.6f %10.6f%n",
+                        minK + level, result.getEndingSSE(), result.getRun(), result.getIterations(),
+                        result.getJaccard(), result.getRand(), silhouette(best)));
+
+                // The next K has started from these, nothing else needs them
+                if (level > 0)
+                    futures.set(level - 1, null);
+            }
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Run failed", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+
+        System.out.println("\nSweep results for K=" + minK + ".." + options.getSweepMax());
+        System.out.print(table);
+        System.out.println();
+    }
+
+    /**
+     * Runs one K for one run
+     *
+     * @param k      Clusters to find
+     * @param run    Which run, starting at 1
+     * @param random Stream of this run at this K
+     * @param parent Same run at K - 1, null for the smallest K
+     * @return The finished run
+     */
+    private ClusteringRun execute(int k, int run, SplittableRandom random, AbstractClusteredDatabase parent) {
+        ClusteringRun clusteringRun = new ClusteringRun(options, data, labels, tree, workers, reduction, k, run, random,
+                parent);
+        clusteringRun.call();
+        return clusteringRun;
+    }
+
+    /**
+     * Silhouette of a run, the one it already calculated or else an estimate from a sample, in the original space for
+     * a reduced run like the run's own
+     *
+     * @param run Finished run
+     * @return Mean silhouette width
+     */
+    private double silhouette(ClusteringRun run) {
+        double silhouette = run.getResult().getSilhouette();
+        if (!Double.isNaN(silhouette))
+            return silhouette;
+        AbstractClusteredDatabase database = run.getDatabase();
+        if (reduction == null)
+            return database.estimateSilhouetteWidth(SILHOUETTE_SAMPLE).getMean();
+        return new Silhouette(reduction.getOriginal(), database.getMembership().getAssignments(),
+                database.getClusters().size(), options.getThreads()).sample(SILHOUETTE_SAMPLE, database.getRandom())
+                .getMean();
+    }
+}
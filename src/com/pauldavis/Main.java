@@ -1,13 +1,31 @@
 package com.pauldavis;
 
-import com.pauldavis.data.Point;
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.DistanceKernels;
+import com.pauldavis.data.KdTree;
 import com.pauldavis.data.Results;
-import com.pauldavis.data.database.RandomCentroidClusteredDatabase;
-
-import java.io.File;
-import java.io.FileNotFoundException;
+import com.pauldavis.data.ResultsAggregator;
+import com.pauldavis.data.ResultsExporter;
+import com.pauldavis.data.RunResult;
+import com.pauldavis.data.database.AccumulatingIterationEngine;
+import com.pauldavis.data.distributed.WorkerGroup;
+import com.pauldavis.data.instrument.MetricsExporter;
+import com.pauldavis.data.instrument.MetricsListener;
+import com.pauldavis.data.instrument.MetricsListeners;
+import com.pauldavis.data.instrument.Phase;
+import com.pauldavis.data.instrument.RunMetrics;
+import com.pauldavis.data.io.Dataset;
+import com.pauldavis.data.io.DatasetCache;
+import com.pauldavis.data.io.DatasetLoader;
+import com.pauldavis.data.reduce.Reduction;
+
+import java.io.IOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.System.exit;
 
@@ -27,188 +45,214 @@ public class Main {
      * int     - I: maximum number of iterations, positive
      * int     - T: convergence threshold, non-negative
      * int     - R: number of runs, positive
+     * Optional flags after the required arguments, given as -name=value:
+     * int     - threads: threads used for the assignment step, positive, defaults to 1
+     * int     - runThreads: runs worked at once, positive, defaults to 1
+     * long    - seed: master seed, the same seed and run count give the same results for any thread counts
+     * String  - engine: fused (single pass, default), lloyd (separate balance, rebuild and SSE passes) or elkan
+     *           (triangle inequality bounds) or kdtree (kd-tree filtering, checks every centroid when the data has too
+     *           many dimensions) or minibatch (sampled batches, one full assignment at the end) or chunked (fused,
+     *           streaming blocks of rows through a small buffer, for mapped storage)
+     * int     - batch: rows per mini-batch, positive, defaults to 1024
+     * String  - init: random (uniform rows, default), kmeans++ (squared distance sampling) or kmeans|| (oversampled
+     *           rounds, for large data)
+     * boolean - cache: keep a normalized binary copy next to the file and load from it while it is current, defaults
+     *           to true
+     * String  - kernel: scalar (default) or vector (Java Vector API, start the JVM with
+     *           --add-modules jdk.incubator.vector), SSE agrees with scalar to within rounding
+     * String  - precision: double (default) or float, float halves the memory of the data, sums and SSE stay double
+     * String  - storage: auto (default, sparse rows when at most a quarter of the values are non-zero, dense
+     *           otherwise), heap (always dense), sparse (sparse rows whenever normalizing keeps zeros at zero) or mapped
+     *           (values stay in the cache file and are mapped, for data larger than the heap, needs the cache)
+     * String  - silhouette: off (default), exact (every pair of points) or a sample size (estimate with a 95%
+     *           confidence interval, for large data)
+     * boolean - quiet: leave out the SSE line of every iteration, defaults to false
+     * String  - metrics: file ending in .csv or .json to write phase times, distance evaluations and moves of every
+     *           run and iteration to
+     * String  - results: file ending in .csv or .json to write the validation of every run and the best runs to
+     * String  - sweep: <min>:<max>, run every K in the range instead of the K in the file, each K + 1 warm started from
+     *           the K solution by splitting its worst cluster, ends with a table of the best run per K
+     * boolean - jfr: emit JDK Flight Recorder events for every phase and iteration, needs Java 11+, defaults to false
+     * String  - workers: host:port,host:port,... of running workers (com.pauldavis.Worker), the rows are split between
+     *           them and they do the assignment pass of the fused engine, results match running it here
+     * String  - reduce: off (default), projection (sparse random projection) or pca (top principal components), the
+     *           normalized data is reduced and clustered in fewer dimensions. Iteration lines are in the reduced
+     *           space, each run's initial and ending SSE, silhouette and internal indices are measured in the original
+     *           space against the means of each cluster's rows there
+     * int     - dims: dimensions to reduce to, fewer than the data has
+     * double  - variance: share of the variance to keep instead of a number of dims, in (0, 1], pca only
+     * boolean - exact: finish each reduced run with one assignment pass in the original space and time it against a
+     *           reduced iteration, defaults to false
      *
      * @param args Input
      */
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException, InterruptedException {
         // Check args
-        if (args.length != 4)
+        Options options = null;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
             printUsageAndClose();
-
-        // Load input data
-        File inputFile = new File(args[0]);
-        Scanner scan = new Scanner(inputFile);
-        String[] databaseParams = scan.nextLine().split(" ");
-
-        // First two lines define size and dimensions
-        int numPoints = Integer.parseInt(databaseParams[0]);
-        int dimensions = (Integer.parseInt(databaseParams[1]) - 1);
-        int numClusters = Integer.parseInt(databaseParams[2]);
-        System.out.println("Loading " + numPoints + " points with " + dimensions + " dimensions...\n\n");
-
-        // Read in file
-        double[][] data = new double[numPoints][dimensions];
-        double[] labels = new double[numPoints];
-        int i = 0;
-        while (scan.hasNextLine()) {
-            List<String> line = Arrays.stream(scan.nextLine().split(" ")).filter(x -> !x.isEmpty()).collect(Collectors.toList());
-            for (int j = 0; j < line.size(); j++) {
-                if (j == dimensions)
-                    labels[i] = Double.parseDouble(line.get(j));
-                else
-                    data[i][j] = Double.parseDouble(line.get(j));
-            }
-            i++;
         }
 
-        // Normalize Data
-        // Array to hold min and max, first is which attribute, second is min at 0 max at 1
-        double[] min = new double[dimensions];
-        double[] max = new double[dimensions];
+        // Distance kernel, the vector one needs the incubator module
+        try {
+            DistanceKernels.select(options.getKernel());
+            MetricsListeners.select(options.isJfr());
+        } catch (IllegalStateException e) {
+            System.out.println(e.getMessage());
+            exit(1);
+        }
 
-        // Set min and max to highest/lowest values for easier comparison
-        for (int att = 0; att < dimensions; att++) {
-            min[att] = Double.MAX_VALUE;
-            max[att] = Double.MIN_VALUE;
+        // Load input data, from the binary cache when it is still current
+        RunMetrics setup = new RunMetrics(0);
+        MetricsListener listener = MetricsListeners.get();
+        listener.phaseStarted(0, Phase.LOAD);
+        long start = System.nanoTime();
+        Dataset dataset;
+        boolean cached;
+        try {
+            if (options.isMapped()) {
+                // Values stay in the cache file, written first if needed
+                dataset = DatasetCache.loadMapped(options.getFileName(), options.isSinglePrecision());
+                cached = true;
+            } else {
+                dataset = options.isCache() ? DatasetCache.load(options.getFileName(), options.isSinglePrecision(),
+                        options.getSparseDensity()) : null;
+                cached = dataset != null;
+                // The loader tracks each attribute's range while reading
+                if (!cached)
+                    dataset = DatasetLoader.load(options.getFileName(), options.isSinglePrecision(),
+                            options.getSparseDensity());
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad value in " + options.getFileName() + ": " + e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            // Too large for the chosen storage
+            System.out.println(e.getMessage());
+            exit(1);
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        setup.add(Phase.LOAD, elapsed);
+        listener.phaseFinished(0, Phase.LOAD, elapsed);
+        DataMatrix data = dataset.getData();
+        double[] labels = dataset.getLabels();
+        int numClusters = dataset.getNumClusters();
+        System.out.println("Loading " + data.getRows() + " points with " + data.getColumns() + " dimensions...\n\n");
+        if (data.isSparse())
+            System.out.println("Sparse rows, " + data.getStoredCount() + " of " + (long) data.getRows() *
+                    data.getColumns() + " values stored\n");
+
+        // Normalize Data, then keep it for next time
+        listener.phaseStarted(0, Phase.NORMALIZE);
+        start = System.nanoTime();
+        dataset.normalize();
+        elapsed = System.nanoTime() - start;
+        setup.add(Phase.NORMALIZE, elapsed);
+        listener.phaseFinished(0, Phase.NORMALIZE, elapsed);
+        if (options.isCache() && !cached) {
+            try {
+                DatasetCache.save(options.getFileName(), dataset, options.getSparseDensity());
+            } catch (IOException e) {
+                System.err.println("Could not write cache: " + e.getMessage());
+            }
         }
 
-        // Find min and max
-        for (int entry = 0; entry < numPoints; entry++) {
-            for (int attribute = 0; attribute < dimensions; attribute++) {
-                // Current Value checking
-                double attributeValue = data[entry][attribute];
+        // Every random choice, the reduction's and each run's, comes from the master seed
+        long seed = options.isSeeded() ? options.getSeed() : System.nanoTime();
+        SplittableRandom master = new SplittableRandom(seed);
+
+        // Cluster in fewer dimensions, the original stays to measure each run against
+        Reduction reduction = null;
+        if (options.isReduced()) {
+            listener.phaseStarted(0, Phase.REDUCE);
+            start = System.nanoTime();
+            try {
+                reduction = Reduction.create(options.getReduce(), data, options.getDimensions(),
+                        options.getVariance(), master.split(), options.getThreads());
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                exit(1);
+            }
+            elapsed = System.nanoTime() - start;
+            setup.add(Phase.REDUCE, elapsed);
+            listener.phaseFinished(0, Phase.REDUCE, elapsed);
+            data = reduction.getReduced();
+            System.out.println("Reduced to " + data.getColumns() + " dimensions with " + reduction.getMethod() +
+                    (Double.isNaN(reduction.getRetainedVariance()) ? "" : ", keeping " +
+                            reduction.getRetainedVariance() + " of the variance") +
+                    ", in " + elapsed / 1000000 + " ms\n");
+        }
 
-                // Min
-                if (attributeValue < min[attribute])
-                    min[attribute] = attributeValue;
+        // Tree is shared by every run
+        KdTree tree = null;
+        if (options.getEngine().equals("kdtree")) {
+            tree = KdTree.buildIfUseful(data);
+            if (tree == null)
+                System.out.println("Too many dimensions for a kd-tree, checking every centroid instead");
+        }
 
-                // Max
-                if (attributeValue > max[attribute])
-                    max[attribute] = attributeValue;
+        // Workers are shared by every run, each holds its shard for the whole job
+        WorkerGroup workers = null;
+        if (options.getWorkers() != null) {
+            try {
+                workers = new WorkerGroup(options.getWorkers(), data, options.getKernel(),
+                        AccumulatingIterationEngine.BLOCK_SIZE);
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                exit(1);
             }
+            System.out.println("Assigning on " + workers.getWorkerCount() + " workers");
         }
 
-        // Apply Normalization
-        for (int entry = 0; entry < numPoints; entry++) {
-            for (int attribute = 0; attribute < dimensions; attribute++) {
-                double tempMin = min[attribute];
-                double tempMax = max[attribute];
-                // Normalize
-                data[entry][attribute] =
-                        ((data[entry][attribute] - tempMin) /
-                                (tempMax - tempMin == 0 ? 1 : tempMax - tempMin)); // Catch divide by zero
+        // A sweep reports per K instead
+        if (options.isSweep()) {
+            System.out.println("Seed: " + seed);
+            try {
+                new KSweep(options, data, labels, tree, workers, reduction).run(master);
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                exit(1);
             }
+            if (workers != null)
+                workers.close();
+            return;
         }
 
-        // Read the rest of the input arguments
-        // K-Means Parameters
-        int maxIterations = Integer.parseInt(args[1]);
-        double convergenceThreshold = Double.parseDouble(args[2]);
-        int numRuns = Integer.parseInt(args[3]);
-
-        System.out.println("K-Means with random partitions K=" + numClusters);
-
-        // Setup Results
-        String random_partitions = "RANDOM_PARTITIONS";
-        Results.getResults().put(random_partitions, new HashMap<>());
-        Results.getResults().get(random_partitions).put(Results.BEST_INITIAL_SSE_RUN, -1.0);
-        Results.getResults().get(random_partitions).put(Results.BEST_INITIAL_SSE, Double.MAX_VALUE);
-        Results.getResults().get(random_partitions).put(Results.BEST_ENDING_SSE_RUN, -1.0);
-        Results.getResults().get(random_partitions).put(Results.BEST_ENDING_SSE, Double.MAX_VALUE);
-        Results.getResults().get(random_partitions).put(Results.BEST_RUN_RUN, -1.0);
-        Results.getResults().get(random_partitions).put(Results.BEST_RUN_COUNT, Double.MAX_VALUE);
-        Results.getResults().get(random_partitions).put(Results.BEST_JACCARD, 0.0);
-        Results.getResults().get(random_partitions).put(Results.BEST_RAND, 0.0);
-
-        // Loop for number of runs
-        for (int z = 0; z < numRuns; z++) {
-            // Output formatting
-            System.out.println("Run: " + (z + 1));
-            System.out.println("-------------------------------------------");
-
-            // Create the database object
-            RandomCentroidClusteredDatabase randomCentroidClusteredDatabase = new RandomCentroidClusteredDatabase(data, numClusters);
-            double initialSSE = randomCentroidClusteredDatabase.getInitialSSE();
-            if (initialSSE < Results.getResults().get(random_partitions).get(Results.BEST_INITIAL_SSE)) {
-                Results.getResults().get(random_partitions).put(Results.BEST_INITIAL_SSE, initialSSE);
-                Results.getResults().get(random_partitions).put(Results.BEST_INITIAL_SSE_RUN, (z + 1.0));
-            }
-            // Used to track when done
-            double lastSSE = Double.POSITIVE_INFINITY;
-
-            // Loop for given iterations
-            int iteration = 1;
-            while (iteration <= maxIterations) {
-                // Move centroids and reassign points to clusters
-                randomCentroidClusteredDatabase.balanceCentroids();
-                randomCentroidClusteredDatabase.rebuildClusters();
-
-                // Get current SSE
-                double currentSSE = randomCentroidClusteredDatabase.calculateSumSquaredErrorInternal();
-                System.out.println("Iteration " + iteration + ": SSE = " + currentSSE);
-                iteration += 1;
-
-                // Check if we should stop
-                if (((lastSSE - currentSSE) / lastSSE) < convergenceThreshold || iteration == maxIterations - 1) {
-                    // Find if this was best run
-                    if (currentSSE < Results.getResults().get(random_partitions).get(Results.BEST_ENDING_SSE)) {
-                        Results.getResults().get(random_partitions).put(Results.BEST_ENDING_SSE, currentSSE);
-                        Results.getResults().get(random_partitions).put(Results.BEST_ENDING_SSE_RUN, (z + 1.0));
-                    }
-
-                    // Check if shortest Run
-                    if (iteration < Results.getResults().get(random_partitions).get(Results.BEST_RUN_COUNT)) {
-                        Results.getResults().get(random_partitions).put(Results.BEST_RUN_COUNT, (double) iteration);
-                        Results.getResults().get(random_partitions).put(Results.BEST_RUN_RUN, (z + 1.0));
-                    }
-
-                    // Calculate External Validation
-                    double truePositives = 0;
-                    double falseNegatives = 0;
-                    double falsePositives = 0;
-                    double trueNegatives = 0;
-                    double[] generatedLabels = randomCentroidClusteredDatabase.generateIndexClusterLabelTable(data.length);
-
-                    for(int pointI = 0; pointI < data.length; pointI++) {
-                        for(int pointJ = 0; pointJ < data.length; pointJ++) {
-                            if(pointI == pointJ) continue;
-
-                            // Test TP and FN
-                            if(labels[pointI] == labels[pointJ]) {
-                                // TP
-                                if(generatedLabels[pointI] == generatedLabels[pointJ])
-                                    truePositives++;
-                                else
-                                    falseNegatives++;
-                            }
-                            else {
-                                // FP
-                                if(generatedLabels[pointI] == generatedLabels[pointJ])
-                                    falsePositives++;
-                                else
-                                    trueNegatives++;
-                            }
-                        }
-                    }
-
-                    double Jaccard = ((truePositives) / (truePositives + falseNegatives + falsePositives));
-                    double rand = ((truePositives + trueNegatives) / (trueNegatives + truePositives + falseNegatives + falsePositives));
-
-                    if (Jaccard > Results.getResults().get(random_partitions).get(Results.BEST_JACCARD)) {
-                        Results.getResults().get(random_partitions).put(Results.BEST_JACCARD, Jaccard);
-                    }
-
-                    if (Jaccard > Results.getResults().get(random_partitions).get(Results.BEST_RAND)) {
-                        Results.getResults().get(random_partitions).put(Results.BEST_RAND, rand);
-                    }
-
-                    System.out.println();
-
-                    // Leave iteration
-                    break;
-                } else // Done, update SSE for next round
-                    lastSSE = currentSSE;
+        System.out.println("K-Means with " + options.getInitDescription() + " K=" + numClusters);
+
+        // Every run gets its own stream split from the master in run order, so results never depend on threads
+        System.out.println("Seed: " + seed);
+        ResultsAggregator aggregator = new ResultsAggregator();
+        List<Callable<RunResult>> runs = new ArrayList<>();
+        for (int z = 0; z < options.getNumRuns(); z++) {
+            ClusteringRun run = new ClusteringRun(options, data, labels, tree, workers, reduction, numClusters, z + 1,
+                    master.split());
+            runs.add(() -> aggregator.add(run.call()));
+        }
+
+        // Work runs at once, they only read the shared data and each merges into the results as it finishes
+        ExecutorService executor = Executors.newFixedThreadPool(options.getRunThreads());
+        List<Future<RunResult>> futures = executor.invokeAll(runs);
+        executor.shutdown();
+        if (workers != null)
+            workers.close();
+
+        // Print in run order
+        List<RunResult> runResults = new ArrayList<>();
+        List<RunMetrics> runMetrics = new ArrayList<>();
+        for (Future<RunResult> future : futures) {
+            RunResult result;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Run failed", e.getCause());
             }
+            System.out.print(result.getOutput());
+            runResults.add(result);
+            runMetrics.add(result.getMetrics());
         }
 
 
@@ -217,17 +261,24 @@ public class Main {
          ***************************************************************************************************************/
 
         // Print best runs partitions
-        System.out.println("\nRandom Partition results for K=" + numClusters);
-        System.out.println("Best Initial SSE: " + Results.getResults().get(random_partitions).get(Results.BEST_INITIAL_SSE) +
-                " on run: " + Results.getResults().get(random_partitions).get(Results.BEST_INITIAL_SSE_RUN));
-        System.out.println("Best Ending SSE: " + Results.getResults().get(random_partitions).get(Results.BEST_ENDING_SSE) +
-                " on run: " + Results.getResults().get(random_partitions).get(Results.BEST_ENDING_SSE_RUN));
-        System.out.println("Lowest iteration count: " + Results.getResults().get(random_partitions).get(Results.BEST_RUN_COUNT) +
-                " on run: " + Results.getResults().get(random_partitions).get(Results.BEST_RUN_RUN));
-        System.out.println("Best Jaccard: " + Results.getResults().get(random_partitions).get(Results.BEST_JACCARD));
-        System.out.println("Best Rand: " + Results.getResults().get(random_partitions).get(Results.BEST_RAND));
+        Results results = aggregator.getResults();
+        System.out.println("\nResults for K=" + numClusters + " with " + options.getInitDescription());
+        System.out.println("Best Initial SSE: " + results.getInitialSSE().getValue() +
+                " on run: " + results.getInitialSSE().getRun());
+        System.out.println("Best Ending SSE: " + results.getEndingSSE().getValue() +
+                " on run: " + results.getEndingSSE().getRun());
+        System.out.println("Lowest iteration count: " + (int) results.getIterations().getValue() +
+                " on run: " + results.getIterations().getRun());
+        System.out.println("Best Jaccard: " + results.getJaccard().getValue());
+        System.out.println("Best Rand: " + results.getRand().getValue());
+        System.out.println("Best Adjusted Rand: " + results.getAdjustedRand().getValue());
         System.out.println();
         System.out.println();
+
+        if (options.getResultsFile() != null)
+            ResultsExporter.write(options.getResultsFile(), numClusters, runResults, results);
+        if (options.getMetricsFile() != null)
+            MetricsExporter.write(options.getMetricsFile(), setup, runMetrics);
     }
 
     /**
@@ -236,7 +287,16 @@ public class Main {
     private static void printUsageAndClose() {
         System.out.println("Usage:");
         System.out.println("program.java <string:fileName> " +
-                "<int(positive):maxIterations> <double(non-negative):convergenceThreshold> <int(positive):maxRuns>");
+                "<int(positive):maxIterations> <double(non-negative):convergenceThreshold> <int(positive):maxRuns> " +
+                "[-threads=<int(positive)>] [-runThreads=<int(positive)>] [-seed=<long>] " +
+                "[-engine=<fused|lloyd|elkan|kdtree|minibatch|chunked>] [-batch=<int(positive)>] " +
+                "[-init=<random|kmeans++|kmeans||>] [-cache=<true|false>] " +
+                "[-kernel=<scalar|vector>] [-precision=<double|float>] [-storage=<auto|heap|sparse|mapped>] " +
+                "[-silhouette=<off|exact|int(>=2)>] [-quiet=<true|false>] [-metrics=<file.csv|file.json>] " +
+                "[-results=<file.csv|file.json>] " +
+                "[-jfr=<true|false>] [-sweep=<int(positive)>:<int(positive)>] [-workers=<host:port,...>] " +
+                "[-reduce=<off|projection|pca>] [-dims=<int(positive)>] [-variance=<double(0-1)>] " +
+                "[-exact=<true|false>]");
         exit(1);
     }
 }
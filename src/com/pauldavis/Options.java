@@ -0,0 +1,430 @@
+package com.pauldavis;
+
+import com.pauldavis.data.io.DatasetLoader;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parsed command line, the four required arguments followed by optional -name=value flags
+ */
+public class Options {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Required arguments
+    private String fileName;
+    private int maxIterations;
+    private double convergenceThreshold;
+    private int numRuns;
+
+    // Optional flags
+    private int threads = 1;
+    private int runThreads = 1;
+    private String engine = "fused";
+    private String init = "random";
+    private int batchSize = 1024;
+    private boolean cache = true;
+    private String kernel = "scalar";
+    private String precision = "double";
+    private String storage = "auto";
+    private boolean silhouette;
+    private int silhouetteSample;
+    private boolean quiet;
+    private String metricsFile;
+    private String resultsFile;
+    private List<InetSocketAddress> workers;
+    private String reduce = "off";
+    private int dimensions;
+    private double variance;
+    private boolean exact;
+    private boolean jfr;
+    private int sweepMin;
+    private int sweepMax;
+    private long seed;
+    private boolean seeded;
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Parses the command line
+     *
+     * @param args Input
+     * @return Parsed options
+     * @throws IllegalArgumentException When anything is missing or out of range
+     */
+    public static Options parse(String[] args) {
+        if (args.length < 4)
+            throw new IllegalArgumentException("Missing required arguments");
+
+        Options options = new Options();
+        options.fileName = args[0];
+        options.maxIterations = Integer.parseInt(args[1]);
+        options.convergenceThreshold = Double.parseDouble(args[2]);
+        options.numRuns = Integer.parseInt(args[3]);
+
+        for (int i = 4; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (!args[i].startsWith("-") || split < 0)
+                throw new IllegalArgumentException("Flags are given as -name=value: " + args[i]);
+
+            String name = args[i].substring(1, split);
+            String value = args[i].substring(split + 1);
+            switch (name) {
+                case "threads":
+                    options.threads = Integer.parseInt(value);
+                    break;
+                case "runThreads":
+                    options.runThreads = Integer.parseInt(value);
+                    break;
+                case "engine":
+                    options.engine = value;
+                    break;
+                case "init":
+                    options.init = value;
+                    break;
+                case "batch":
+                    options.batchSize = Integer.parseInt(value);
+                    break;
+                case "cache":
+                    options.cache = parseBoolean(name, value);
+                    break;
+                case "kernel":
+                    options.kernel = value;
+                    break;
+                case "precision":
+                    options.precision = value;
+                    break;
+                case "storage":
+                    options.storage = value;
+                    break;
+                case "silhouette":
+                    options.silhouette = !value.equals("off");
+                    options.silhouetteSample = 0;
+                    if (options.silhouette && !value.equals("exact")) {
+                        options.silhouetteSample = Integer.parseInt(value);
+                        if (options.silhouetteSample < 2)
+                            throw new IllegalArgumentException("silhouette is off, exact or a sample of at least 2");
+                    }
+                    break;
+                case "quiet":
+                    options.quiet = parseBoolean(name, value);
+                    break;
+                case "metrics":
+                    if (!(value.endsWith(".csv") || value.endsWith(".json")))
+                        throw new IllegalArgumentException("metrics file must end in .csv or .json: " + value);
+                    options.metricsFile = value;
+                    break;
+                case "workers":
+                    options.workers = parseWorkers(value);
+                    break;
+                case "reduce":
+                    options.reduce = value;
+                    break;
+                case "dims":
+                    options.dimensions = Integer.parseInt(value);
+                    if (options.dimensions < 1)
+                        throw new IllegalArgumentException("dims must be positive: " + value);
+                    break;
+                case "variance":
+                    options.variance = Double.parseDouble(value);
+                    if (!(options.variance > 0 && options.variance <= 1))
+                        throw new IllegalArgumentException("variance is a share in (0, 1]: " + value);
+                    break;
+                case "exact":
+                    options.exact = parseBoolean(name, value);
+                    break;
+                case "results":
+                    if (!(value.endsWith(".csv") || value.endsWith(".json")))
+                        throw new IllegalArgumentException("results file must end in .csv or .json: " + value);
+                    options.resultsFile = value;
+                    break;
+                case "jfr":
+                    options.jfr = parseBoolean(name, value);
+                    break;
+                case "sweep":
+                    int colon = value.indexOf(':');
+                    if (colon < 0)
+                        throw new IllegalArgumentException("sweep is given as <min>:<max>: " + value);
+                    options.sweepMin = Integer.parseInt(value.substring(0, colon));
+                    options.sweepMax = Integer.parseInt(value.substring(colon + 1));
+                    if (options.sweepMin < 1 || options.sweepMax < options.sweepMin)
+                        throw new IllegalArgumentException("sweep needs 1 <= min <= max: " + value);
+                    break;
+                case "seed":
+                    options.seed = Long.parseLong(value);
+                    options.seeded = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown flag: " + name);
+            }
+        }
+
+        if (options.maxIterations < 1 || options.convergenceThreshold < 0 || options.numRuns < 1 ||
+                options.threads < 1 || options.runThreads < 1 || options.batchSize < 1)
+            throw new IllegalArgumentException("Value out of range");
+        if (!(options.engine.equals("fused") || options.engine.equals("lloyd") || options.engine.equals("elkan") ||
+                options.engine.equals("kdtree") || options.engine.equals("minibatch") ||
+                options.engine.equals("chunked")))
+            throw new IllegalArgumentException("Unknown engine: " + options.engine);
+        if (!(options.init.equals("random") || options.init.equals("kmeans++") || options.init.equals("kmeans||")))
+            throw new IllegalArgumentException("Unknown initializer: " + options.init);
+        if (!(options.kernel.equals("scalar") || options.kernel.equals("vector")))
+            throw new IllegalArgumentException("Unknown kernel: " + options.kernel);
+        if (!(options.precision.equals("double") || options.precision.equals("float")))
+            throw new IllegalArgumentException("Unknown precision: " + options.precision);
+        if (!(options.storage.equals("auto") || options.storage.equals("heap") || options.storage.equals("sparse") ||
+                options.storage.equals("mapped")))
+            throw new IllegalArgumentException("Unknown storage: " + options.storage);
+        if (options.isMapped() && !options.cache)
+            throw new IllegalArgumentException("Mapped storage keeps the data in the cache, it needs -cache=true");
+        if (options.isSweep() && options.metricsFile != null)
+            throw new IllegalArgumentException("Metrics are written for one K, not for a sweep");
+        if (options.isSweep() && options.resultsFile != null)
+            throw new IllegalArgumentException("Results are written for one K, not for a sweep");
+        if (options.workers != null && !options.engine.equals("fused"))
+            throw new IllegalArgumentException("Workers run the fused engine, not " + options.engine);
+        if (!(options.reduce.equals("off") || options.reduce.equals("projection") || options.reduce.equals("pca")))
+            throw new IllegalArgumentException("Unknown reduction: " + options.reduce);
+        if (!options.isReduced() && (options.dimensions > 0 || options.variance > 0 || options.exact))
+            throw new IllegalArgumentException("dims, variance and exact go with -reduce=projection or -reduce=pca");
+        if (options.isReduced() && (options.dimensions > 0) == (options.variance > 0))
+            throw new IllegalArgumentException("Reduction needs either -dims or -variance");
+        if (options.reduce.equals("projection") && options.variance > 0)
+            throw new IllegalArgumentException("A random projection keeps a number of dims, not a share of variance");
+        return options;
+    }
+
+    /**
+     * Parses a list of workers
+     *
+     * @param value Comma separated host:port pairs
+     * @return Address of each worker, not yet resolved
+     * @throws IllegalArgumentException When a pair is malformed
+     */
+    private static List<InetSocketAddress> parseWorkers(String value) {
+        List<InetSocketAddress> workers = new ArrayList<>();
+        for (String worker : value.split(",")) {
+            int colon = worker.lastIndexOf(':');
+            if (colon <= 0 || colon == worker.length() - 1)
+                throw new IllegalArgumentException("workers are given as host:port,host:port: " + value);
+            int port = Integer.parseInt(worker.substring(colon + 1));
+            if (port < 1 || port > 65535)
+                throw new IllegalArgumentException("Worker port out of range: " + worker);
+            workers.add(InetSocketAddress.createUnresolved(worker.substring(0, colon), port));
+        }
+        return workers;
+    }
+
+    /**
+     * Parses a flag that must be true or false
+     *
+     * @param name  Flag name
+     * @param value Value given
+     * @return Parsed value
+     * @throws IllegalArgumentException When it is neither
+     */
+    private static boolean parseBoolean(String name, String value) {
+        if (!(value.equals("true") || value.equals("false")))
+            throw new IllegalArgumentException(name + " is true or false: " + value);
+        return Boolean.parseBoolean(value);
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public double getConvergenceThreshold() {
+        return convergenceThreshold;
+    }
+
+    public int getNumRuns() {
+        return numRuns;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getRunThreads() {
+        return runThreads;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public String getInit() {
+        return init;
+    }
+
+    /**
+     * @return Initializer as printed in the output
+     */
+    public String getInitDescription() {
+        switch (init) {
+            case "kmeans++":
+                return "k-means++ seeding";
+            case "kmeans||":
+                return "k-means|| seeding";
+            default:
+                return "random partitions";
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public boolean isCache() {
+        return cache;
+    }
+
+    public String getKernel() {
+        return kernel;
+    }
+
+    public boolean isSinglePrecision() {
+        return precision.equals("float");
+    }
+
+    /**
+     * @return Whether the data stays in the mapped cache file instead of on the heap
+     */
+    public boolean isMapped() {
+        return storage.equals("mapped");
+    }
+
+    /**
+     * @return Largest share of non-zero values kept as sparse rows, 0 for dense storage
+     */
+    public double getSparseDensity() {
+        switch (storage) {
+            case "auto":
+                return DatasetLoader.AUTO_DENSITY;
+            case "sparse":
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    public boolean isSilhouette() {
+        return silhouette;
+    }
+
+    /**
+     * @return Points sampled for the silhouette, 0 for the exact value
+     */
+    public int getSilhouetteSample() {
+        return silhouetteSample;
+    }
+
+    /**
+     * @return Whether to leave out the per iteration SSE lines
+     */
+    public boolean isQuiet() {
+        return quiet;
+    }
+
+    /**
+     * @return CSV or JSON file to write metrics to, null for none
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return Workers to assign on, null to assign in this process
+     */
+    public List<InetSocketAddress> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return CSV or JSON file to write every run and the best runs to, null for none
+     */
+    public String getResultsFile() {
+        return resultsFile;
+    }
+
+    /**
+     * @return How to reduce the dimensions before clustering, off, projection or pca
+     */
+    public String getReduce() {
+        return reduce;
+    }
+
+    /**
+     * @return Whether clustering runs in a reduced space
+     */
+    public boolean isReduced() {
+        return !reduce.equals("off");
+    }
+
+    /**
+     * @return Dimensions to reduce to, 0 when a share of the variance is given instead
+     */
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return Share of the variance to keep, 0 when a number of dimensions is given instead
+     */
+    public double getVariance() {
+        return variance;
+    }
+
+    /**
+     * @return Whether to finish each reduced run with one assignment pass in the original space
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return Whether to emit JDK Flight Recorder events
+     */
+    public boolean isJfr() {
+        return jfr;
+    }
+
+    /**
+     * @return Whether to run every K in a range instead of the K from the file
+     */
+    public boolean isSweep() {
+        return sweepMax > 0;
+    }
+
+    public int getSweepMin() {
+        return sweepMin;
+    }
+
+    public int getSweepMax() {
+        return sweepMax;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isSeeded() {
+        return seeded;
+    }
+}
@@ -0,0 +1,51 @@
+package com.pauldavis;
+
+import com.pauldavis.data.distributed.WorkerServer;
+
+import java.io.IOException;
+
+import static java.lang.System.exit;
+
+/**
+ * Starts a worker for distributed clustering, coordinators reach it with -workers=host:port
+ */
+public class Worker {
+
+    /**
+     * Main Runner
+     *
+     * Arguments:
+     * int - port: port to listen on, 0 picks a free one and prints it
+     *
+     * Optional Arguments, in the form -name=value:
+     * int - threads: threads used for the blocks of a shard, defaults to 1
+     *
+     * @param args Input
+     */
+    public static void main(String[] args) throws IOException {
+        int port = -1;
+        int threads = 1;
+        try {
+            if (args.length < 1)
+                throw new IllegalArgumentException("Missing port");
+            port = Integer.parseInt(args[0]);
+            for (int i = 1; i < args.length; i++) {
+                if (!args[i].startsWith("-threads="))
+                    throw new IllegalArgumentException("Unknown flag: " + args[i]);
+                threads = Integer.parseInt(args[i].substring("-threads=".length()));
+            }
+            if (port < 0 || port > 65535 || threads < 1)
+                throw new IllegalArgumentException("Value out of range");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage:");
+            System.out.println("Worker <int(0-65535):port> [-threads=<int(positive)>]");
+            exit(1);
+        }
+
+        try (WorkerServer server = new WorkerServer(port, threads, System.out)) {
+            System.out.println("Worker listening on port " + server.open());
+            server.serve();
+        }
+    }
+}
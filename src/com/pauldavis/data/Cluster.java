@@ -1,10 +1,9 @@
 package com.pauldavis.data;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
- * Data structure for clusters
+ * Data structure for clusters. Members are not stored here, they are a view of the database's membership
  */
 public class Cluster {
 
@@ -12,11 +11,15 @@ public class Cluster {
      * Variables                                                                                                       *
      *******************************************************************************************************************/
 
+    // Matrix the children index into
+    private DataMatrix data;
     // Center Point
-    private Point centroid = null;
-    // ALl points, centroid included
-    private List<Point> children;
-    // ID
+    private double[] centroid = null;
+    // Squared norm of the centroid for sparse distances, NaN until worked out
+    private double centroidNorm = Double.NaN;
+    // Cluster of every row, the children are the rows in this one
+    private Membership membership;
+    // ID, also this cluster's index in the membership
     public int ID;
 
 
@@ -25,22 +28,24 @@ public class Cluster {
      *******************************************************************************************************************/
 
     /**
-     * Base Constructor, will not create an initial centroid
+     * Base Constructor, will not create an initial centroid and has no children
      */
     public Cluster() {
-        children = new ArrayList<>();
     }
 
     /**
-     * Creates a cluster with given initial cluster
+     * Creates a cluster around a given centroid
      *
-     * @param initialPoint First centroid
+     * @param data       Matrix holding the points
+     * @param membership Cluster of every row
+     * @param centroid   Centroid, kept as given and rebalanced in place
+     * @param number     ID of this cluster, its index in the membership
      */
-    public Cluster(double[] initialPoint, int pointIndex, int number) {
-        this();
+    public Cluster(DataMatrix data, Membership membership, double[] centroid, int number) {
+        this.data = data;
+        this.membership = membership;
         ID = number;
-        centroid = new Point(initialPoint, pointIndex);
-        children.add(centroid);
+        this.centroid = centroid;
     }
 
 
@@ -49,61 +54,41 @@ public class Cluster {
      *******************************************************************************************************************/
 
     /**
-     * Clear out the children for new assignment
+     * Balances centroid to middle of cluster in place, an empty cluster keeps its last centroid
      */
-    public void clearChildren() {
-        children = new ArrayList<>();
-    }
+    public void recalculateCentroid() {
+        int childCount = getChildCount();
+        if (childCount == 0) return;
 
-    /**
-     * Adds child to cluster
-     *
-     * @param child The child to add
-     */
-    public void addChild(Point child) {
-        children.add(child);
-    }
+        // Sums go straight into the centroid, only a missing one is allocated
+        if (centroid == null || centroid.length != data.getColumns())
+            centroid = new double[data.getColumns()];
+        else
+            Arrays.fill(centroid, 0);
 
-    /**
-     * Balances centroid to middle of cluster
-     */
-    public void recalculateCentroid() {
         // Find middle of cluster
-        double[] meanValues = new double[centroid != null ? centroid.data.length : children.get(0).data.length];
-        for (Point point : children)
-            for (int i = 0; i < point.data.length; i++)
-                meanValues[i] += point.data[i];
-        for (int i = 0; i < meanValues.length; i++) {
-            double sum = meanValues[i];
-            meanValues[i] = sum / children.size();
-        }
-
-        // We assign values to perfect center, then find closest points to this "false" centroid
-        centroid = new Point(meanValues, -1);
+        for (int child = 0; child < childCount; child++)
+            data.addRow(membership.getMember(ID, child), centroid, 0);
+        for (int i = 0; i < centroid.length; i++)
+            centroid[i] /= childCount;
+        centroidNorm = data.squaredNorm(centroid);
     }
 
     /**
-     * Calculates single squared error of two points
-     *
-     * @param x X
-     * @param y Y
-     * @return Squared distance between
+     * Forgets the centroid's norm, owners that update the centroid array in place call this once it moved
      */
-    public double calculateSingleError(double x, double y) {
-        return (x - y) * (x - y);
+    public void markMoved() {
+        centroidNorm = Double.NaN;
     }
 
     /**
-     * Calculate the squared distance between two points
+     * Calculate the squared distance between a row and the centroid
      *
-     * @param point Input point
+     * @param row Row index of the input point
      * @return Squared distance between points
      */
-    public double errorFromCentroid(Point point) {
-        double distance = 0;
-        for (int i = 0; i < point.data.length; i++)
-            distance += calculateSingleError(centroid.data[i], point.data[i]);
-        return distance;
+    public double errorFromCentroid(int row) {
+        return data.distanceSquared(row, centroid, getCentroidNorm());
     }
 
     /**
@@ -113,10 +98,7 @@ public class Cluster {
      * @return Squared distance between points
      */
     public double calculateDistance(double[] point, double[] point1) {
-        double distance = 0;
-        for (int i = 0; i < point.length; i++)
-            distance += calculateSingleError(point1[i], point[i]);
-        return distance;
+        return DistanceKernels.get().distanceSquared(point, 0, point1, point.length);
     }
 
     /**
@@ -125,72 +107,45 @@ public class Cluster {
      * @return Squared Error
      */
     public double calculateSquaredError() {
+        double norm = getCentroidNorm();
         double error = 0;
-        for (Point point : children)
-            error += errorFromCentroid(point);
-        return error;
-    }
-
-    /**
-     * Calculates the Squared Error for this cluster
-     *
-     * @return Squared Error
-     */
-    public double calculateSquaredErrorExternal(List<Cluster> otherClusters) {
-        double error = 0;
-        for (Cluster cluster : otherClusters) {
-            if (cluster == this || cluster.children.isEmpty()) continue;
-
-            for (Point point : children)
-                error += cluster.errorFromCentroid(point);
-        }
+        for (int child = 0; child < getChildCount(); child++)
+            error += data.distanceSquared(membership.getMember(ID, child), centroid, norm);
         return error;
     }
 
-    /**
-     * Calculate Silhouette Width of this cluster
-     *
-     * @param otherCluster Closest cluster
-     * @return The silhouette width of this cluster
-     */
-    public double calculateSilhouette(Cluster otherCluster) {
-        if (otherCluster.children.isEmpty()) return 0.0;
-
-        double silhouette = 0.0;
-
-        for (Point point : children) {
-
-            // In distance
-            double inClusterDist =  errorFromCentroid(point);
-
-            // Out Distance
-            double outClusterDist = otherCluster.errorFromCentroid(point);
-
-            silhouette += ((outClusterDist - inClusterDist) / Math.max(outClusterDist, inClusterDist));
-        }
-
-        silhouette /= children.size();
-        return silhouette;
-    }
-
 
     /*******************************************************************************************************************
      * Accessors/Mutators                                                                                              *
      *******************************************************************************************************************/
 
-    public Point getCentroid() {
+    public double[] getCentroid() {
         return centroid;
     }
 
-    public void setCentroid(Point centroid) {
+    public void setCentroid(double[] centroid) {
         this.centroid = centroid;
+        centroidNorm = Double.NaN;
+    }
+
+    /**
+     * @return Squared norm of the centroid, worked out once after it moved, 0 for dense data
+     */
+    public double getCentroidNorm() {
+        if (Double.isNaN(centroidNorm))
+            centroidNorm = data.squaredNorm(centroid);
+        return centroidNorm;
+    }
+
+    public int getChild(int index) {
+        return membership.getMember(ID, index);
     }
 
-    public List<Point> getChildren() {
-        return children;
+    public int getChildCount() {
+        return membership == null ? 0 : membership.getCount(ID);
     }
 
-    public void setChildren(List<Point> children) {
-        this.children = children;
+    public DataMatrix getData() {
+        return data;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,630 @@
+package com.pauldavis.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Contiguous row-major store for the data set, every row is a slice of one primitive array. Single precision keeps the
+ * values as floats, half the memory and cache traffic, while centroids, sums and errors stay in double.
+ *
+ * A matrix can also be mapped from a file instead, little endian in the same row-major layout. Only the mappings live
+ * in the JVM, so the data may be larger than the heap and never adds to collection pauses. Single rows are read
+ * through the mapping one value at a time, copyRows moves a whole block into an array for work that streams the data.
+ *
+ * Mostly zero data can be kept as compressed sparse rows instead, only the non-zero entries with their columns, so
+ * memory scales with the entries stored rather than rows * columns. Each row's squared norm is kept with it and the
+ * distance to a centroid comes from |x|^2 + |c|^2 - 2 x.c, which visits only the stored entries. Callers hand over the
+ * centroid norms, see squaredNorms, the overloads without them refuse sparse rows. Sparse values are always double
+ */
+public class DataMatrix {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Largest region mapped at once
+    private static final long MAP_SIZE = 1L << 30;
+    // Most values one array can hold on common JVMs
+    private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    // Raw values, row r lives in [r * columns, (r + 1) * columns), only one of the two is used
+    private final double[] values;
+    private final float[] floats;
+    // Mapped regions of whole rows, used instead of the arrays when the matrix comes from a file
+    private final ByteBuffer[] regions;
+    private final int regionRows;
+    // Row read out of the mapping for distances and sums, one per thread so reading allocates nothing
+    private final ThreadLocal<double[]> scratch;
+    // Sparse rows, row r holds entries [rowStarts[r], rowStarts[r + 1]) of indices and nonzeros, columns ascending
+    private final int[] rowStarts;
+    private final int[] indices;
+    private final double[] nonzeros;
+    // Squared norm of each sparse row
+    private final double[] rowNorms;
+    // Whether values are floats, in the array or the mapping
+    private final boolean singlePrecision;
+    // Number of entries
+    private final int rows;
+    // Number of attributes per entry
+    private final int columns;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an empty matrix
+     *
+     * @param rows    Number of entries
+     * @param columns Number of attributes per entry
+     */
+    public DataMatrix(int rows, int columns) {
+        this(rows, columns, false);
+    }
+
+    /**
+     * Creates an empty matrix
+     *
+     * @param rows            Number of entries
+     * @param columns         Number of attributes per entry
+     * @param singlePrecision Whether to store values as floats
+     * @throws IllegalArgumentException When the values do not fit in one array
+     */
+    public DataMatrix(int rows, int columns, boolean singlePrecision) {
+        this.rows = rows;
+        this.columns = columns;
+        int length = arrayLength(rows, columns);
+        this.values = singlePrecision ? null : new double[length];
+        this.floats = singlePrecision ? new float[length] : null;
+        this.regions = null;
+        this.regionRows = 0;
+        this.scratch = null;
+        this.rowStarts = null;
+        this.indices = null;
+        this.nonzeros = null;
+        this.rowNorms = null;
+        this.singlePrecision = singlePrecision;
+    }
+
+    /**
+     * Creates a sparse matrix from compressed rows, the arrays are kept as given
+     *
+     * @param columns   Number of attributes per entry
+     * @param rowStarts Where each row's entries start, rows + 1 long with the total entry count last
+     * @param indices   Column of each stored entry, ascending within a row
+     * @param nonzeros  Value of each stored entry
+     */
+    public DataMatrix(int columns, int[] rowStarts, int[] indices, double[] nonzeros) {
+        this.rows = rowStarts.length - 1;
+        this.columns = columns;
+        this.values = null;
+        this.floats = null;
+        this.regions = null;
+        this.regionRows = 0;
+        this.scratch = null;
+        this.rowStarts = rowStarts;
+        this.indices = indices;
+        this.nonzeros = nonzeros;
+        this.rowNorms = new double[rows];
+        this.singlePrecision = false;
+        updateSquaredNorms();
+    }
+
+    /**
+     * Maps a matrix from part of a file, the mappings stay valid after the channel is closed
+     *
+     * @param channel         Open file
+     * @param mode            READ_ONLY, or READ_WRITE to fill the matrix through set, growing the file to fit
+     * @param position        Byte offset of the first value
+     * @param rows            Number of entries
+     * @param columns         Number of attributes per entry
+     * @param singlePrecision Whether the file holds floats rather than doubles
+     * @throws IOException When the file cannot be mapped
+     */
+    public DataMatrix(FileChannel channel, FileChannel.MapMode mode, long position, int rows, int columns,
+                      boolean singlePrecision) throws IOException {
+        this.rows = rows;
+        this.columns = columns;
+        this.values = null;
+        this.floats = null;
+        this.rowStarts = null;
+        this.indices = null;
+        this.nonzeros = null;
+        this.rowNorms = null;
+        this.singlePrecision = singlePrecision;
+        this.scratch = ThreadLocal.withInitial(() -> new double[columns]);
+
+        long rowBytes = (long) columns * valueBytes();
+        regionRows = (int) Math.max(1, Math.min(rows, MAP_SIZE / Math.max(1, rowBytes)));
+        regions = new ByteBuffer[rows == 0 ? 0 : (rows + regionRows - 1) / regionRows];
+        for (int r = 0; r < regions.length; r++) {
+            int first = r * regionRows;
+            int count = Math.min(regionRows, rows - first);
+            regions[r] = channel.map(mode, position + first * rowBytes, count * rowBytes)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Get a single value
+     *
+     * @param row    Entry index
+     * @param column Attribute index
+     * @return Value stored
+     */
+    public double get(int row, int column) {
+        if (rowStarts != null) {
+            int entry = find(row, column);
+            return entry < 0 ? 0 : nonzeros[entry];
+        }
+        if (regions != null) {
+            int offset = regionOffset(row) + column * valueBytes();
+            return singlePrecision ? region(row).getFloat(offset) : region(row).getDouble(offset);
+        }
+        return floats != null ? floats[row * columns + column] : values[row * columns + column];
+    }
+
+    /**
+     * Set a single value, a sparse matrix can only change entries it stores
+     *
+     * @param row    Entry index
+     * @param column Attribute index
+     * @param value  Value to store
+     * @throws IllegalStateException When a sparse matrix has no entry for a non-zero value
+     */
+    public void set(int row, int column, double value) {
+        if (rowStarts != null) {
+            int entry = find(row, column);
+            if (entry >= 0) {
+                nonzeros[entry] = value;
+                rowNorms[row] = rowNorm(row);
+            } else if (value != 0)
+                throw new IllegalStateException("Sparse matrix stores no entry at row " + row + ", column " + column);
+        } else if (regions != null) {
+            int offset = regionOffset(row) + column * valueBytes();
+            if (singlePrecision)
+                region(row).putFloat(offset, (float) value);
+            else
+                region(row).putDouble(offset, value);
+        } else if (floats != null)
+            floats[row * columns + column] = (float) value;
+        else
+            values[row * columns + column] = value;
+    }
+
+    /**
+     * Where the given row starts in the backing array, not meaningful for a mapped or sparse matrix
+     *
+     * @param row Entry index
+     * @return Offset of the first attribute of the row
+     */
+    public int rowOffset(int row) {
+        return row * columns;
+    }
+
+    /**
+     * Copies a row out of the matrix
+     *
+     * @param row Entry index
+     * @return New array holding the row
+     */
+    public double[] getRow(int row) {
+        double[] copy = new double[columns];
+        copyRow(row, copy);
+        return copy;
+    }
+
+    /**
+     * Copies a row into an existing array
+     *
+     * @param row         Entry index
+     * @param destination Array to fill, at least columns long
+     */
+    public void copyRow(int row, double[] destination) {
+        if (rowStarts != null) {
+            Arrays.fill(destination, 0, columns, 0);
+            for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++)
+                destination[indices[entry]] = nonzeros[entry];
+            return;
+        }
+        if (regions != null) {
+            readMapped(row, destination);
+            return;
+        }
+        if (floats == null) {
+            System.arraycopy(values, row * columns, destination, 0, columns);
+            return;
+        }
+        int offset = row * columns;
+        for (int i = 0; i < columns; i++)
+            destination[i] = floats[offset + i];
+    }
+
+    /**
+     * Copies consecutive rows into an array, floats widened to double, so a block can be worked without going back to
+     * the matrix for every value
+     *
+     * @param row         First entry
+     * @param count       Entries to copy
+     * @param destination Array to fill, at least count * columns long
+     */
+    public void copyRows(int row, int count, double[] destination) {
+        if (rowStarts != null) {
+            Arrays.fill(destination, 0, count * columns, 0);
+            for (int r = 0; r < count; r++) {
+                for (int entry = rowStarts[row + r]; entry < rowStarts[row + r + 1]; entry++)
+                    destination[r * columns + indices[entry]] = nonzeros[entry];
+            }
+            return;
+        }
+        if (regions == null) {
+            int offset = row * columns;
+            if (floats == null) {
+                System.arraycopy(values, offset, destination, 0, count * columns);
+            } else {
+                for (int i = 0; i < count * columns; i++)
+                    destination[i] = floats[offset + i];
+            }
+            return;
+        }
+
+        // Bulk reads, one region at a time
+        int done = 0;
+        while (done < count) {
+            int current = row + done;
+            int inRegion = Math.min(count - done, regionRows - current % regionRows);
+            ByteBuffer view = region(current).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            view.position(regionOffset(current));
+            if (singlePrecision) {
+                FloatBuffer source = view.asFloatBuffer();
+                for (int i = 0; i < inRegion * columns; i++)
+                    destination[done * columns + i] = source.get(i);
+            } else {
+                view.asDoubleBuffer().get(destination, done * columns, inRegion * columns);
+            }
+            done += inRegion;
+        }
+    }
+
+    /**
+     * Adds a row into a running sum, attribute by attribute
+     *
+     * @param row          Entry index
+     * @param target       Array holding the sum
+     * @param targetOffset Where the sum starts in target
+     */
+    public void addRow(int row, double[] target, int targetOffset) {
+        int offset = row * columns;
+        if (rowStarts != null) {
+            for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++)
+                target[targetOffset + indices[entry]] += nonzeros[entry];
+        } else if (regions != null) {
+            double[] values = mappedRow(row);
+            for (int i = 0; i < columns; i++)
+                target[targetOffset + i] += values[i];
+        } else if (floats != null) {
+            for (int i = 0; i < columns; i++)
+                target[targetOffset + i] += floats[offset + i];
+        } else {
+            for (int i = 0; i < columns; i++)
+                target[targetOffset + i] += values[offset + i];
+        }
+    }
+
+    /**
+     * Calculate the squared distance between a row and a point, dense matrices only
+     *
+     * @param row   Entry index
+     * @param point Point to compare against, columns long
+     * @return Squared distance between
+     * @throws IllegalStateException When the matrix is sparse, which needs the point's norm
+     */
+    public double distanceSquared(int row, double[] point) {
+        if (rowStarts != null)
+            throw new IllegalStateException("Sparse distances need the point's squared norm");
+        if (regions != null)
+            return DistanceKernels.get().distanceSquared(mappedRow(row), 0, point, columns);
+        if (floats != null)
+            return DistanceKernels.get().distanceSquared(floats, row * columns, point, columns);
+        return DistanceKernels.get().distanceSquared(values, row * columns, point, columns);
+    }
+
+    /**
+     * Calculate the squared distance between a row and a point whose squared norm is known, sparse rows then only
+     * visit their stored entries
+     *
+     * @param row       Entry index
+     * @param point     Point to compare against, columns long
+     * @param pointNorm Squared norm of the point, only used by a sparse matrix
+     * @return Squared distance between
+     */
+    public double distanceSquared(int row, double[] point, double pointNorm) {
+        if (rowStarts == null)
+            return distanceSquared(row, point);
+        return DistanceKernels.get().distanceSquared(indices, nonzeros, rowStarts[row], rowStarts[row + 1],
+                rowNorms[row], point, pointNorm);
+    }
+
+    /**
+     * Calculate the squared distance from a row to every centroid and find the closest, ties go to the lowest index
+     *
+     * @param row       Entry index
+     * @param centroids Points to compare against, each columns long
+     * @param distances Output, squared distance to each centroid
+     * @return Index of the closest centroid
+     * @throws IllegalStateException When the matrix is sparse, which needs the centroid norms
+     */
+    public int closest(int row, double[][] centroids, double[] distances) {
+        if (rowStarts != null)
+            throw new IllegalStateException("Sparse distances need the centroids' squared norms");
+        if (regions != null)
+            return DistanceKernels.get().closest(mappedRow(row), 0, centroids, columns, distances);
+        if (floats != null)
+            return DistanceKernels.get().closest(floats, row * columns, centroids, columns, distances);
+        return DistanceKernels.get().closest(values, row * columns, centroids, columns, distances);
+    }
+
+    /**
+     * Calculate the squared distance from a row to every centroid and find the closest, with the centroid norms worked
+     * out once per pass by squaredNorms
+     *
+     * @param row           Entry index
+     * @param centroids     Points to compare against, each columns long
+     * @param centroidNorms Squared norm of each centroid, null for a dense matrix
+     * @param distances     Output, squared distance to each centroid
+     * @return Index of the closest centroid
+     */
+    public int closest(int row, double[][] centroids, double[] centroidNorms, double[] distances) {
+        if (rowStarts == null)
+            return closest(row, centroids, distances);
+        return DistanceKernels.get().closest(indices, nonzeros, rowStarts[row], rowStarts[row + 1], rowNorms[row],
+                centroids, centroidNorms, distances);
+    }
+
+    /**
+     * Squared norm of each point, what the sparse distances need besides the points themselves. Callers work these out
+     * once whenever the centroids move and pass them on, dense matrices have no use for them
+     *
+     * @param points Points, each columns long
+     * @param norms  Array to reuse, may be null
+     * @return Squared norm of each point, or null for a dense matrix
+     */
+    public double[] squaredNorms(double[][] points, double[] norms) {
+        if (rowStarts == null)
+            return null;
+        if (norms == null || norms.length != points.length)
+            norms = new double[points.length];
+        for (int p = 0; p < points.length; p++)
+            norms[p] = pointNorm(points[p]);
+        return norms;
+    }
+
+    /**
+     * Squared norm of one point, what a sparse distance needs besides the point itself
+     *
+     * @param point Point, columns long
+     * @return Sum of squares, or 0 for a dense matrix
+     */
+    public double squaredNorm(double[] point) {
+        return rowStarts == null ? 0 : pointNorm(point);
+    }
+
+    /**
+     * Squared norm of a row, kept with every sparse row and summed from the values of a dense one
+     *
+     * @param row Entry index
+     * @return Sum of squares
+     */
+    public double rowSquaredNorm(int row) {
+        if (rowStarts != null)
+            return rowNorms[row];
+        double norm = 0;
+        if (regions != null) {
+            for (double value : mappedRow(row))
+                norm += value * value;
+        } else {
+            int offset = row * columns;
+            for (int i = 0; i < columns; i++) {
+                double value = floats != null ? floats[offset + i] : values[offset + i];
+                norm += value * value;
+            }
+        }
+        return norm;
+    }
+
+    /**
+     * Works out the squared norm of every sparse row again, after the stored values were changed in place
+     */
+    public void updateSquaredNorms() {
+        for (int row = 0; row < rows; row++)
+            rowNorms[row] = rowNorm(row);
+    }
+
+    /**
+     * Squared norm of a point
+     *
+     * @param point Point, columns long
+     * @return Sum of squares
+     */
+    private double pointNorm(double[] point) {
+        double norm = 0;
+        for (int i = 0; i < columns; i++)
+            norm += point[i] * point[i];
+        return norm;
+    }
+
+    /**
+     * Squared norm of a sparse row from its stored entries
+     *
+     * @param row Entry index
+     * @return Sum of squares
+     */
+    private double rowNorm(int row) {
+        double norm = 0;
+        for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++)
+            norm += nonzeros[entry] * nonzeros[entry];
+        return norm;
+    }
+
+    /**
+     * Size of the backing array of a dense matrix, every row offset then fits in an int too
+     *
+     * @param rows    Number of entries
+     * @param columns Number of attributes per entry
+     * @return Values in the matrix
+     * @throws IllegalArgumentException When they do not fit in one array
+     */
+    private static int arrayLength(int rows, int columns) {
+        long length = (long) rows * columns;
+        if (rows < 0 || columns < 0 || length > MAX_ARRAY_LENGTH)
+            throw new IllegalArgumentException(rows + " rows of " + columns + " attributes are too many values for " +
+                    "one array, use -storage=mapped");
+        return (int) length;
+    }
+
+    /**
+     * Finds the stored entry of a sparse row for a column
+     *
+     * @param row    Entry index
+     * @param column Attribute index
+     * @return Index into indices and nonzeros, negative when the value is an unstored zero
+     */
+    private int find(int row, int column) {
+        return Arrays.binarySearch(indices, rowStarts[row], rowStarts[row + 1], column);
+    }
+
+
+    /**
+     * Region holding a row of a mapped matrix
+     *
+     * @param row Entry index
+     * @return Mapped region
+     */
+    private ByteBuffer region(int row) {
+        return regions[row / regionRows];
+    }
+
+    /**
+     * Where a row starts in its region of a mapped matrix
+     *
+     * @param row Entry index
+     * @return Byte offset in the region
+     */
+    private int regionOffset(int row) {
+        return (row % regionRows) * columns * valueBytes();
+    }
+
+    /**
+     * Reads a row of a mapped matrix into this thread's scratch row, which the next read overwrites
+     *
+     * @param row Entry index
+     * @return Scratch row holding the values
+     */
+    private double[] mappedRow(int row) {
+        double[] destination = scratch.get();
+        readMapped(row, destination);
+        return destination;
+    }
+
+    /**
+     * Reads a row of a mapped matrix with absolute gets, no views or copies are created
+     *
+     * @param row         Entry index
+     * @param destination Array to fill, at least columns long
+     */
+    private void readMapped(int row, double[] destination) {
+        ByteBuffer region = region(row);
+        int offset = regionOffset(row);
+        if (singlePrecision) {
+            for (int i = 0; i < columns; i++)
+                destination[i] = region.getFloat(offset + i * Float.BYTES);
+        } else {
+            for (int i = 0; i < columns; i++)
+                destination[i] = region.getDouble(offset + i * Double.BYTES);
+        }
+    }
+
+    /**
+     * @return Bytes per stored value
+     */
+    private int valueBytes() {
+        return singlePrecision ? Float.BYTES : Double.BYTES;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    /**
+     * @return Backing array in double precision, null in single precision or when mapped
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return Backing array in single precision, null in double precision or when mapped
+     */
+    public float[] getFloatValues() {
+        return floats;
+    }
+
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+
+    public boolean isMapped() {
+        return regions != null;
+    }
+
+    public boolean isSparse() {
+        return rowStarts != null;
+    }
+
+    /**
+     * @return Where each sparse row's entries start, rows + 1 long, null when dense
+     */
+    public int[] getRowStarts() {
+        return rowStarts;
+    }
+
+    /**
+     * @return Column of each stored sparse entry, null when dense
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return Value of each stored sparse entry, null when dense
+     */
+    public double[] getNonzeros() {
+        return nonzeros;
+    }
+
+    /**
+     * @return Values stored, every value unless sparse
+     */
+    public long getStoredCount() {
+        return rowStarts != null ? rowStarts[rows] : (long) rows * columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+}
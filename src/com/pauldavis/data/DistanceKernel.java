@@ -0,0 +1,133 @@
+package com.pauldavis.data;
+
+/**
+ * Squared Euclidean distance between a row of the backing array and a point, the inner loop of every engine
+ */
+public interface DistanceKernel {
+
+    /**
+     * Calculate the squared distance between a row and a point
+     *
+     * @param values Backing array holding the row
+     * @param offset Where the row starts
+     * @param point  Point to compare against
+     * @param length Attributes to compare
+     * @return Squared distance between
+     */
+    double distanceSquared(double[] values, int offset, double[] point, int length);
+
+    /**
+     * Calculate the squared distance between a single precision row and a point, summed in double
+     *
+     * @param values Backing array holding the row
+     * @param offset Where the row starts
+     * @param point  Point to compare against
+     * @param length Attributes to compare
+     * @return Squared distance between
+     */
+    double distanceSquared(float[] values, int offset, double[] point, int length);
+
+    /**
+     * Calculate the squared distance from a row to every centroid and find the closest, ties go to the lowest index
+     *
+     * @param values    Backing array holding the row
+     * @param offset    Where the row starts
+     * @param centroids Points to compare against
+     * @param length    Attributes to compare
+     * @param distances Output, squared distance to each centroid
+     * @return Index of the closest centroid
+     */
+    default int closest(double[] values, int offset, double[][] centroids, int length, double[] distances) {
+        double closestDistance = Double.MAX_VALUE;
+        int closest = 0;
+        for (int c = 0; c < centroids.length; c++) {
+            double distance = distanceSquared(values, offset, centroids[c], length);
+            distances[c] = distance;
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = c;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Calculate the squared distance from a single precision row to every centroid and find the closest, ties go to the
+     * lowest index
+     *
+     * @param values    Backing array holding the row
+     * @param offset    Where the row starts
+     * @param centroids Points to compare against
+     * @param length    Attributes to compare
+     * @param distances Output, squared distance to each centroid
+     * @return Index of the closest centroid
+     */
+    default int closest(float[] values, int offset, double[][] centroids, int length, double[] distances) {
+        double closestDistance = Double.MAX_VALUE;
+        int closest = 0;
+        for (int c = 0; c < centroids.length; c++) {
+            double distance = distanceSquared(values, offset, centroids[c], length);
+            distances[c] = distance;
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = c;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * Calculate the squared distance between a sparse row and a dense point as |x|^2 + |c|^2 - 2 x.c, so only the
+     * stored entries of the row are visited
+     *
+     * @param indices   Column of each stored entry, ascending within the row
+     * @param values    Value of each stored entry
+     * @param from      First entry of the row
+     * @param to        Last entry of the row, exclusive
+     * @param rowNorm   Squared norm of the row
+     * @param point     Point to compare against
+     * @param pointNorm Squared norm of the point
+     * @return Squared distance between, never negative
+     */
+    default double distanceSquared(int[] indices, double[] values, int from, int to, double rowNorm, double[] point,
+                                   double pointNorm) {
+        double dot = 0;
+        for (int i = from; i < to; i++)
+            dot += values[i] * point[indices[i]];
+        return Math.max(0, rowNorm + pointNorm - 2 * dot);
+    }
+
+    /**
+     * Calculate the squared distance from a sparse row to every centroid and find the closest, ties go to the lowest
+     * index
+     *
+     * @param indices       Column of each stored entry, ascending within the row
+     * @param values        Value of each stored entry
+     * @param from          First entry of the row
+     * @param to            Last entry of the row, exclusive
+     * @param rowNorm       Squared norm of the row
+     * @param centroids     Points to compare against
+     * @param centroidNorms Squared norm of each centroid
+     * @param distances     Output, squared distance to each centroid
+     * @return Index of the closest centroid
+     */
+    default int closest(int[] indices, double[] values, int from, int to, double rowNorm, double[][] centroids,
+                        double[] centroidNorms, double[] distances) {
+        double closestDistance = Double.MAX_VALUE;
+        int closest = 0;
+        for (int c = 0; c < centroids.length; c++) {
+            double distance = distanceSquared(indices, values, from, to, rowNorm, centroids[c], centroidNorms[c]);
+            distances[c] = distance;
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = c;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @return Name given on the command line
+     */
+    String getName();
+}
@@ -0,0 +1,80 @@
+package com.pauldavis.data;
+
+/**
+ * Picks the distance kernel used by every DataMatrix. The vector kernel needs Java 16 or later started with
+ * --add-modules jdk.incubator.vector and is loaded by name, so the rest of the project still builds and runs on Java 8.
+ *
+ * Vector lanes sum in a different order than the scalar loop, so SSE can differ in the last few bits and rare ties
+ * can break the other way
+ */
+public class DistanceKernels {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Class compiled from src-vector
+    private static final String VECTOR_KERNEL = "com.pauldavis.data.VectorDistanceKernel";
+
+    // Kernel in use, chosen once at startup before any run
+    private static DistanceKernel kernel = new ScalarDistanceKernel();
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private DistanceKernels() {
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Switches kernel
+     *
+     * @param name scalar or vector
+     * @throws IllegalArgumentException When the name is unknown
+     * @throws IllegalStateException    When the vector kernel cannot be loaded on this JVM
+     */
+    public static void select(String name) {
+        switch (name) {
+            case "scalar":
+                kernel = new ScalarDistanceKernel();
+                break;
+            case "vector":
+                kernel = loadVectorKernel();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown kernel: " + name);
+        }
+    }
+
+    /**
+     * Loads the vector kernel and checks it runs
+     *
+     * @return Vector kernel
+     * @throws IllegalStateException When it is missing or the incubator module is not present
+     */
+    private static DistanceKernel loadVectorKernel() {
+        try {
+            DistanceKernel vector = (DistanceKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+            vector.distanceSquared(new double[1], 0, new double[1], 1);
+            return vector;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("Vector kernel unavailable, it needs Java 16+ and " +
+                    "--add-modules jdk.incubator.vector: " + e);
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public static DistanceKernel get() {
+        return kernel;
+    }
+}
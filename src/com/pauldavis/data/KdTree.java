@@ -0,0 +1,275 @@
+package com.pauldavis.data;
+
+import java.util.Arrays;
+
+/**
+ * kd-tree over the rows of a data matrix, built once and shared by every run on the same data. Each node covers a
+ * contiguous range of the order array and keeps its bounding box plus the sum and squared norm sum of its points, so a
+ * whole node can be handed to a centroid without visiting its points.
+ *
+ * Nodes live in flat arrays, node n has its box in [n * columns, (n + 1) * columns) of min/max and sums
+ */
+public class KdTree {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Most points kept in a leaf
+    public static final int LEAF_SIZE = 16;
+    // Above this many attributes the boxes are too loose to prune
+    public static final int MAX_DIMENSIONS = 12;
+
+    // Matrix the tree indexes
+    private final DataMatrix data;
+    // Row indices, every node covers a contiguous range
+    private final int[] order;
+    // Range of each node, end exclusive
+    private int[] start;
+    private int[] end;
+    // Children of each node, -1 for leaves
+    private int[] left;
+    private int[] right;
+    // Bounding box of each node
+    private double[] min;
+    private double[] max;
+    // Sum of the points and of their squared norms for each node
+    private double[] sums;
+    private double[] squaredNorms;
+    // How many nodes are in use
+    private int nodeCount;
+    // Deepest level below the root
+    private int depth;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Builds a tree over every row, splitting the widest attribute at its median
+     *
+     * @param data Matrix to index
+     */
+    public KdTree(DataMatrix data) {
+        this.data = data;
+        int rows = data.getRows();
+        int columns = data.getColumns();
+
+        order = new int[rows];
+        for (int i = 0; i < rows; i++)
+            order[i] = i;
+
+        // Leaves hold at least half of LEAF_SIZE, so this is enough without growing
+        int capacity = Math.max(1, 4 * rows / LEAF_SIZE + 1);
+        start = new int[capacity];
+        end = new int[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        min = new double[capacity * columns];
+        max = new double[capacity * columns];
+        sums = new double[capacity * columns];
+        squaredNorms = new double[capacity];
+
+        build(0, rows, 0);
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Whether a tree over this matrix is likely to beat checking every centroid
+     *
+     * @param data Matrix to test
+     * @return True when the dimensions are low enough for boxes to prune
+     */
+    public static boolean isUseful(DataMatrix data) {
+        int columns = data.getColumns();
+        return columns <= MAX_DIMENSIONS && data.getRows() >= Math.max(LEAF_SIZE, 1 << columns);
+    }
+
+    /**
+     * Builds a tree for the data if one would help
+     *
+     * @param data Data to index
+     * @return The tree, or null when the data has too many dimensions
+     */
+    public static KdTree buildIfUseful(DataMatrix data) {
+        return isUseful(data) ? new KdTree(data) : null;
+    }
+
+    /**
+     * Builds the node for a range of order and everything below it
+     *
+     * @param from  First position in order
+     * @param to    Last position in order, exclusive
+     * @param level Depth of the node
+     * @return Index of the node
+     */
+    private int build(int from, int to, int level) {
+        int node = nodeCount++;
+        ensureCapacity(nodeCount);
+        depth = Math.max(depth, level);
+        start[node] = from;
+        end[node] = to;
+        left[node] = -1;
+        right[node] = -1;
+
+        // Box and sums
+        int columns = data.getColumns();
+        int offset = node * columns;
+        Arrays.fill(min, offset, offset + columns, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, offset, offset + columns, Double.NEGATIVE_INFINITY);
+        double squaredNorm = 0;
+        for (int i = from; i < to; i++) {
+            for (int attribute = 0; attribute < columns; attribute++) {
+                double value = data.get(order[i], attribute);
+                min[offset + attribute] = Math.min(min[offset + attribute], value);
+                max[offset + attribute] = Math.max(max[offset + attribute], value);
+                sums[offset + attribute] += value;
+                squaredNorm += value * value;
+            }
+        }
+        squaredNorms[node] = squaredNorm;
+        if (to - from <= LEAF_SIZE)
+            return node;
+
+        // Split the widest attribute
+        int split = 0;
+        for (int attribute = 1; attribute < columns; attribute++) {
+            if (max[offset + attribute] - min[offset + attribute] > max[offset + split] - min[offset + split])
+                split = attribute;
+        }
+        if (max[offset + split] == min[offset + split])
+            return node;
+
+        int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, split);
+        int leftNode = build(from, middle, level + 1);
+        int rightNode = build(middle, to, level + 1);
+        left[node] = leftNode;
+        right[node] = rightNode;
+        return node;
+    }
+
+    /**
+     * Partially sorts order so position k holds the row it would hold if sorted on the attribute
+     *
+     * @param low       First position, inclusive
+     * @param high      Last position, inclusive
+     * @param k         Position to place
+     * @param attribute Attribute to sort on
+     */
+    private void select(int low, int high, int k, int attribute) {
+        while (low < high) {
+            double pivot = data.get(order[(low + high) >>> 1], attribute);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (data.get(order[i], attribute) < pivot) i++;
+                while (data.get(order[j], attribute) > pivot) j--;
+                if (i <= j) {
+                    int swap = order[i];
+                    order[i] = order[j];
+                    order[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j)
+                high = j;
+            else if (k >= i)
+                low = i;
+            else
+                return;
+        }
+    }
+
+    /**
+     * Grows node arrays if needed
+     *
+     * @param nodes Nodes that must fit
+     */
+    private void ensureCapacity(int nodes) {
+        if (nodes <= start.length) return;
+        int capacity = start.length * 2;
+        int columns = data.getColumns();
+        start = Arrays.copyOf(start, capacity);
+        end = Arrays.copyOf(end, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        min = Arrays.copyOf(min, capacity * columns);
+        max = Arrays.copyOf(max, capacity * columns);
+        sums = Arrays.copyOf(sums, capacity * columns);
+        squaredNorms = Arrays.copyOf(squaredNorms, capacity);
+    }
+
+    /**
+     * Whether a node has no children
+     *
+     * @param node Node index
+     * @return True for leaves
+     */
+    public boolean isLeaf(int node) {
+        return left[node] < 0;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public DataMatrix getData() {
+        return data;
+    }
+
+    public int getRoot() {
+        return 0;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int[] getOrder() {
+        return order;
+    }
+
+    public int getStart(int node) {
+        return start[node];
+    }
+
+    public int getEnd(int node) {
+        return end[node];
+    }
+
+    public int getLeft(int node) {
+        return left[node];
+    }
+
+    public int getRight(int node) {
+        return right[node];
+    }
+
+    public double[] getMin() {
+        return min;
+    }
+
+    public double[] getMax() {
+        return max;
+    }
+
+    public double[] getSums() {
+        return sums;
+    }
+
+    public double getSquaredNorm(int node) {
+        return squaredNorms[node];
+    }
+}
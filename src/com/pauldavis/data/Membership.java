@@ -0,0 +1,145 @@
+package com.pauldavis.data;
+
+import java.util.Arrays;
+
+/**
+ * Cluster membership of every row, kept as one array holding the cluster index of each row. That array is the only
+ * copy: engines write it in place and call markChanged once they are done with a pass.
+ *
+ * Member counts and the rows of each cluster are only needed by code that walks a cluster, so they are grouped from
+ * the array on first use after a change, in row order, into arrays allocated once
+ */
+public class Membership {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Cluster index of each row
+    private final int[] assignments;
+    // Rows in each cluster
+    private final int[] counts;
+    // Rows grouped by cluster in row order, cluster c's rows start at starts[c]
+    private final int[] starts;
+    private final int[] members;
+    // Whether counts and members match assignments
+    private volatile boolean grouped;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates membership with every row in cluster 0
+     *
+     * @param rows         Rows of the data
+     * @param clusterCount How many clusters there are
+     */
+    public Membership(int rows, int clusterCount) {
+        assignments = new int[rows];
+        counts = new int[clusterCount];
+        starts = new int[clusterCount];
+        members = new int[rows];
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Replaces every assignment
+     *
+     * @param source Cluster index of each row, copied
+     */
+    public void setAll(int[] source) {
+        System.arraycopy(source, 0, assignments, 0, assignments.length);
+        grouped = false;
+    }
+
+    /**
+     * Marks the assignments as written, counts and members are grouped again when next asked for
+     */
+    public void markChanged() {
+        grouped = false;
+    }
+
+    /**
+     * @param cluster Cluster index
+     * @return Rows in the cluster
+     */
+    public int getCount(int cluster) {
+        group();
+        return counts[cluster];
+    }
+
+    /**
+     * @param cluster Cluster index
+     * @param index   Which member, members are in row order
+     * @return Row of the member
+     */
+    public int getMember(int cluster, int index) {
+        group();
+        return members[starts[cluster] + index];
+    }
+
+    /**
+     * @return Copy of the cluster index of each row
+     */
+    public int[] copyAssignments() {
+        return assignments.clone();
+    }
+
+    /**
+     * Groups rows by cluster with a counting sort, if the assignments changed since the last time
+     */
+    private void group() {
+        if (grouped) return;
+        synchronized (this) {
+            if (grouped) return;
+
+            Arrays.fill(counts, 0);
+            for (int cluster : assignments)
+                counts[cluster]++;
+            int start = 0;
+            for (int c = 0; c < counts.length; c++) {
+                starts[c] = start;
+                start += counts[c];
+            }
+
+            // Place rows, each start runs to the next cluster's start and is then moved back
+            for (int row = 0; row < assignments.length; row++) {
+                int c = assignments[row];
+                members[starts[c]++] = row;
+            }
+            for (int c = 0; c < counts.length; c++)
+                starts[c] -= counts[c];
+            grouped = true;
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    /**
+     * @return Cluster index of each row, live, call markChanged after writing it
+     */
+    public int[] getAssignments() {
+        return assignments;
+    }
+
+    /**
+     * @param row Row index
+     * @return Cluster the row is in
+     */
+    public int getCluster(int row) {
+        return assignments[row];
+    }
+
+    public int getClusterCount() {
+        return counts.length;
+    }
+}
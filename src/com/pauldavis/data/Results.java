@@ -1,41 +1,161 @@
 package com.pauldavis.data;
 
-import java.util.HashMap;
-
 /**
- * Used to track the results for best runs and the value associated
+ * Best runs of one experiment and the value each was best by. Immutable, merging a run gives a new instance, so one
+ * can be shared between threads and swapped atomically.
+ *
+ * Lower SSE and fewer iterations are better, higher validation indexes are better. Ties go to the lower run, so the
+ * result is the same whatever order runs finish in. NaN values, such as a silhouette that was not asked for, never win
  */
-public class Results {
+public final class Results {
 
     /*******************************************************************************************************************
-     * MAP IDS                                                                                                         *
+     * Variables                                                                                                       *
      *******************************************************************************************************************/
 
-    public static final String BEST_INITIAL_SSE_RUN = "Best_Initial_SSE_RUN";
-    public static final String BEST_INITIAL_SSE = "Best_Initial_SSE";
-    public static final String BEST_ENDING_SSE_RUN = "Best_Ending_SSE_Run";
-    public static final String BEST_ENDING_SSE = "Best_Ending_SSE";
-    public static final String BEST_RUN_RUN = "Best_Run_Run";
-    public static final String BEST_RUN_COUNT = "Best_Run_Count";
-    public static final String BEST_JACCARD = "Best_Jaccard";
-    public static final String BEST_RAND = "Best_Rand";
+    // Before any run
+    public static final Results EMPTY = new Results(Best.NONE, Best.NONE, Best.NONE, Best.NONE, Best.NONE, Best.NONE,
+            Best.NONE, 0);
+
+    private final Best initialSSE;
+    private final Best endingSSE;
+    private final Best iterations;
+    private final Best jaccard;
+    private final Best rand;
+    private final Best adjustedRand;
+    private final Best silhouette;
+    // Runs merged so far
+    private final int runs;
+
 
     /*******************************************************************************************************************
-     * Variables                                                                                                       *
+     * Constructor                                                                                                     *
      *******************************************************************************************************************/
 
-    private static HashMap<String, HashMap<String, Double>> results = new HashMap<>();
+    private Results(Best initialSSE, Best endingSSE, Best iterations, Best jaccard, Best rand, Best adjustedRand,
+                    Best silhouette, int runs) {
+        this.initialSSE = initialSSE;
+        this.endingSSE = endingSSE;
+        this.iterations = iterations;
+        this.jaccard = jaccard;
+        this.rand = rand;
+        this.adjustedRand = adjustedRand;
+        this.silhouette = silhouette;
+        this.runs = runs;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Merges one finished run
+     *
+     * @param result Finished run
+     * @return Best of these results and the run
+     */
+    public Results merge(RunResult result) {
+        int run = result.getRun();
+        return new Results(
+                initialSSE.lower(result.getInitialSSE(), run),
+                endingSSE.lower(result.getEndingSSE(), run),
+                iterations.lower(result.getIterations(), run),
+                jaccard.higher(result.getJaccard(), run),
+                rand.higher(result.getRand(), run),
+                adjustedRand.higher(result.getAdjustedRand(), run),
+                silhouette.higher(result.getSilhouette(), run),
+                runs + 1);
+    }
 
 
     /*******************************************************************************************************************
      * Accessors/Mutators                                                                                              *
      *******************************************************************************************************************/
 
-    public static HashMap<String, HashMap<String, Double>> getResults() {
-        return results;
+    public Best getInitialSSE() {
+        return initialSSE;
     }
 
-    public static void setResults(HashMap<String, HashMap<String, Double>> results) {
-        Results.results = results;
+    public Best getEndingSSE() {
+        return endingSSE;
+    }
+
+    public Best getIterations() {
+        return iterations;
+    }
+
+    public Best getJaccard() {
+        return jaccard;
+    }
+
+    public Best getRand() {
+        return rand;
+    }
+
+    public Best getAdjustedRand() {
+        return adjustedRand;
+    }
+
+    public Best getSilhouette() {
+        return silhouette;
+    }
+
+    public int getRuns() {
+        return runs;
+    }
+
+
+    /*******************************************************************************************************************
+     * Best                                                                                                            *
+     *******************************************************************************************************************/
+
+    /**
+     * Best value of one measure and the run it came from
+     */
+    public static final class Best {
+        // No run yet
+        private static final Best NONE = new Best(Double.NaN, 0);
+
+        private final double value;
+        // Run the value came from, starting at 1, 0 for none
+        private final int run;
+
+        private Best(double value, int run) {
+            this.value = value;
+            this.run = run;
+        }
+
+        /**
+         * @param value Candidate value, lower is better
+         * @param run   Run it came from
+         * @return Whichever is better
+         */
+        private Best lower(double value, int run) {
+            return beats(value, run, value < this.value) ? new Best(value, run) : this;
+        }
+
+        /**
+         * @param value Candidate value, higher is better
+         * @param run   Run it came from
+         * @return Whichever is better
+         */
+        private Best higher(double value, int run) {
+            return beats(value, run, value > this.value) ? new Best(value, run) : this;
+        }
+
+        private boolean beats(double value, int run, boolean better) {
+            if (Double.isNaN(value) || run == 0) return false;
+            if (this.run == 0) return true;
+            return better || (value == this.value && run < this.run);
+        }
+
+        public double getValue() {
+            return value;
+        }
+
+        public int getRun() {
+            return run;
+        }
     }
 }
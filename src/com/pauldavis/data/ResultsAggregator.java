@@ -0,0 +1,45 @@
+package com.pauldavis.data;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Collects the best runs of one experiment as runs finish, from any number of threads without locking. Each add swaps
+ * in a merged copy of the immutable results, retrying if another run got there first
+ */
+public class ResultsAggregator {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Best runs so far
+    private final AtomicReference<Results> results = new AtomicReference<>(Results.EMPTY);
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Merges a finished run
+     *
+     * @param result Finished run
+     * @return The same run, so this can wrap a task
+     */
+    public RunResult add(RunResult result) {
+        results.updateAndGet(current -> current.merge(result));
+        return result;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    /**
+     * @return Best runs merged so far
+     */
+    public Results getResults() {
+        return results.get();
+    }
+}
@@ -0,0 +1,163 @@
+package com.pauldavis.data;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Writes the results of one experiment as CSV or JSON, picked by the file extension.
+ *
+ * CSV has one row per run followed by one row per best measure, all with the same columns, the best rows only fill in
+ * their own measure. JSON lists the runs and then the best value and run of each measure. Missing values are empty in
+ * CSV and null in JSON
+ */
+public class ResultsExporter {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Measures in column order, matching the getters used below
+    private static final String[] MEASURES = {"initial_sse", "ending_sse", "iterations", "jaccard", "rand",
+            "adjusted_rand", "silhouette"};
+    // The one measure that is a count
+    private static final int ITERATIONS = 2;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private ResultsExporter() {
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Writes results to a file
+     *
+     * @param fileName Ends in .csv or .json
+     * @param clusters K of the experiment
+     * @param runs     Every run, in run order
+     * @param best     Best runs
+     * @throws IOException When the file cannot be written
+     */
+    public static void write(String fileName, int clusters, List<RunResult> runs, Results best) throws IOException {
+        String text;
+        if (fileName.endsWith(".csv"))
+            text = toCsv(clusters, runs, best);
+        else if (fileName.endsWith(".json"))
+            text = toJson(clusters, runs, best);
+        else
+            throw new IllegalArgumentException("Results file must end in .csv or .json: " + fileName);
+
+        try (Writer writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+    }
+
+    /**
+     * Formats results as CSV
+     *
+     * @param clusters K of the experiment
+     * @param runs     Every run, in run order
+     * @param best     Best runs
+     * @return CSV text with a header line
+     */
+    public static String toCsv(int clusters, List<RunResult> runs, Results best) {
+        StringBuilder csv = new StringBuilder("scope,k,run");
+        for (String measure : MEASURES)
+            csv.append(',').append(measure);
+        csv.append(",distance_evaluations\n");
+
+        for (RunResult run : runs) {
+            csv.append("run,").append(clusters).append(',').append(run.getRun());
+            double[] values = values(run);
+            for (int m = 0; m < MEASURES.length; m++)
+                csv.append(',').append(number(m, values[m], ""));
+            csv.append(',').append(run.getDistanceEvaluations()).append('\n');
+        }
+
+        Results.Best[] bests = bests(best);
+        for (int m = 0; m < MEASURES.length; m++) {
+            if (bests[m].getRun() == 0) continue;
+            csv.append("best_").append(MEASURES[m]).append(',').append(clusters).append(',')
+                    .append(bests[m].getRun());
+            for (int column = 0; column < MEASURES.length; column++)
+                csv.append(',').append(column == m ? number(m, bests[m].getValue(), "") : "");
+            csv.append(",\n");
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Formats results as JSON
+     *
+     * @param clusters K of the experiment
+     * @param runs     Every run, in run order
+     * @param best     Best runs
+     * @return JSON object
+     */
+    public static String toJson(int clusters, List<RunResult> runs, Results best) {
+        StringBuilder json = new StringBuilder("{\n  \"k\": ").append(clusters).append(",\n  \"runs\": [");
+        for (int r = 0; r < runs.size(); r++) {
+            RunResult run = runs.get(r);
+            json.append(r == 0 ? "\n" : ",\n").append("    {\"run\": ").append(run.getRun());
+            double[] values = values(run);
+            for (int m = 0; m < MEASURES.length; m++)
+                json.append(", \"").append(MEASURES[m]).append("\": ").append(number(m, values[m], "null"));
+            json.append(", \"distance_evaluations\": ").append(run.getDistanceEvaluations()).append('}');
+        }
+        json.append(runs.isEmpty() ? "]" : "\n  ]").append(",\n  \"best\": {");
+
+        Results.Best[] bests = bests(best);
+        for (int m = 0; m < MEASURES.length; m++) {
+            json.append(m == 0 ? "\n" : ",\n").append("    \"").append(MEASURES[m]).append("\": ");
+            if (bests[m].getRun() == 0)
+                json.append("null");
+            else
+                json.append("{\"value\": ").append(number(m, bests[m].getValue(), "null"))
+                        .append(", \"run\": ").append(bests[m].getRun()).append('}');
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * @param run Finished run
+     * @return Its value of each measure
+     */
+    private static double[] values(RunResult run) {
+        return new double[]{run.getInitialSSE(), run.getEndingSSE(), run.getIterations(), run.getJaccard(),
+                run.getRand(), run.getAdjustedRand(), run.getSilhouette()};
+    }
+
+    /**
+     * @param best Best runs
+     * @return Best of each measure
+     */
+    private static Results.Best[] bests(Results best) {
+        return new Results.Best[]{best.getInitialSSE(), best.getEndingSSE(), best.getIterations(), best.getJaccard(),
+                best.getRand(), best.getAdjustedRand(), best.getSilhouette()};
+    }
+
+    /**
+     * Formats one value, counts without a fraction. NaN and infinity become the missing text, JSON has neither
+     *
+     * @param measure Index into MEASURES
+     * @param value   Number to write
+     * @param missing Text for a missing value
+     * @return Formatted value
+     */
+    private static String number(int measure, double value, String missing) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            return missing;
+        return measure == ITERATIONS ? Long.toString((long) value) : Double.toString(value);
+    }
+}
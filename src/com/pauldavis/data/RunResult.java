@@ -0,0 +1,103 @@
+package com.pauldavis.data;
+
+import com.pauldavis.data.instrument.RunMetrics;
+
+/**
+ * Outcome of a single K-Means run
+ */
+public class RunResult {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Which run, starting at 1
+    private final int run;
+    // SSE after initialization and after the last iteration
+    private final double initialSSE;
+    private final double endingSSE;
+    // Iteration counter when the run stopped
+    private final int iterations;
+    // External validation of the final clusters
+    private final double jaccard;
+    private final double rand;
+    private final double adjustedRand;
+    // Mean silhouette width, exact or estimated, NaN when not asked for
+    private final double silhouette;
+    // Point to centroid distances calculated
+    private final long distanceEvaluations;
+    // Console output of the run, printed in run order
+    private final String output;
+    // Phase times and per iteration counts
+    private final RunMetrics metrics;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    public RunResult(int run, double initialSSE, double endingSSE, int iterations, double jaccard, double rand,
+                     double adjustedRand, double silhouette, long distanceEvaluations, String output,
+                     RunMetrics metrics) {
+        this.run = run;
+        this.initialSSE = initialSSE;
+        this.endingSSE = endingSSE;
+        this.iterations = iterations;
+        this.jaccard = jaccard;
+        this.rand = rand;
+        this.adjustedRand = adjustedRand;
+        this.silhouette = silhouette;
+        this.distanceEvaluations = distanceEvaluations;
+        this.output = output;
+        this.metrics = metrics;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public int getRun() {
+        return run;
+    }
+
+    public double getInitialSSE() {
+        return initialSSE;
+    }
+
+    public double getEndingSSE() {
+        return endingSSE;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public double getJaccard() {
+        return jaccard;
+    }
+
+    public double getRand() {
+        return rand;
+    }
+
+    public double getAdjustedRand() {
+        return adjustedRand;
+    }
+
+    public double getSilhouette() {
+        return silhouette;
+    }
+
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public RunMetrics getMetrics() {
+        return metrics;
+    }
+}
@@ -0,0 +1,33 @@
+package com.pauldavis.data;
+
+/**
+ * One attribute at a time, summed in attribute order. Runs anywhere and is the reference the vector kernel is checked
+ * against
+ */
+public class ScalarDistanceKernel implements DistanceKernel {
+
+    @Override
+    public double distanceSquared(double[] values, int offset, double[] point, int length) {
+        double distance = 0;
+        for (int i = 0; i < length; i++) {
+            double difference = point[i] - values[offset + i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    @Override
+    public double distanceSquared(float[] values, int offset, double[] point, int length) {
+        double distance = 0;
+        for (int i = 0; i < length; i++) {
+            double difference = point[i] - values[offset + i];
+            distance += difference * difference;
+        }
+        return distance;
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -1,11 +1,20 @@
 package com.pauldavis.data.database;
 
 import com.pauldavis.data.Cluster;
-import com.pauldavis.data.Point;
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.Membership;
+import com.pauldavis.data.instrument.PhaseTimer;
+import com.pauldavis.data.metrics.ClusterStatistics;
+import com.pauldavis.data.metrics.Silhouette;
+import com.pauldavis.data.metrics.SilhouetteEstimate;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
 
 /**
  * Base for Clustered Databases
@@ -16,9 +25,26 @@ public abstract class AbstractClusteredDatabase {
      * Variables                                                                                                       *
      *******************************************************************************************************************/
 
+    // Pools shared by every database, keyed by thread count
+    private static final Map<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<>();
+
+    // Points being clustered
+    protected DataMatrix data;
     // List of clusters
     protected List<Cluster> clusters;
     protected double initialSSE;
+    // Threads used for the assignment step, 1 stays on the calling thread
+    protected int threads;
+    // Source of every random choice, seeded for repeatable runs
+    protected SplittableRandom random;
+    // Cluster of each row, the clusters' children are views of it
+    protected Membership membership;
+    // Closest cluster for each row, reused across assignment passes
+    protected int[] closest;
+    // Runs iterations, created on first use
+    protected IterationEngine engine;
+    // Engines mark where each phase of an iteration ends
+    protected PhaseTimer timer = new PhaseTimer();
 
 
     /*******************************************************************************************************************
@@ -30,8 +56,34 @@ public abstract class AbstractClusteredDatabase {
      * @param rawData Raw input
      * @param clusterCount How many clusters to create
      */
-    public AbstractClusteredDatabase(double[][] rawData, int clusterCount) {
+    public AbstractClusteredDatabase(DataMatrix rawData, int clusterCount) {
+        this(rawData, clusterCount, 1);
+    }
+
+    /**
+     * Generate a cluster database that splits the assignment step across threads
+     * @param rawData Raw input
+     * @param clusterCount How many clusters to create
+     * @param threads Threads used for the assignment step
+     */
+    public AbstractClusteredDatabase(DataMatrix rawData, int clusterCount, int threads) {
+        this(rawData, clusterCount, threads, new SplittableRandom());
+    }
+
+    /**
+     * Generate a cluster database with a given source of randomness, the same seed gives the same clusters
+     * @param rawData Raw input
+     * @param clusterCount How many clusters to create
+     * @param threads Threads used for the assignment step
+     * @param random Source of every random choice
+     */
+    public AbstractClusteredDatabase(DataMatrix rawData, int clusterCount, int threads, SplittableRandom random) {
         // Initialize
+        data = rawData;
+        this.threads = Math.max(1, threads);
+        this.random = random;
+        closest = new int[rawData.getRows()];
+        membership = new Membership(rawData.getRows(), clusterCount);
         clusters = new ArrayList<>();
         initialSSE = initialize(rawData, clusterCount);
     }
@@ -45,11 +97,11 @@ public abstract class AbstractClusteredDatabase {
      * Generate a database with the raw data and cluster count. Clusters should be created and points assigned by end
      * of this method. Returns the initial SSE post initialization. This will be last access to raw data, assign all
      * points by now
-     * @param rawData Data to cluster, first is entry, second is array of attributes
+     * @param rawData Data to cluster, one row per entry
      * @param clusterCount How many clusters to create
      * @return Initial SSE, before any re-balancing
      */
-    public abstract double initialize(double[][] rawData, int clusterCount);
+    public abstract double initialize(DataMatrix rawData, int clusterCount);
 
 
     /*******************************************************************************************************************
@@ -57,41 +109,96 @@ public abstract class AbstractClusteredDatabase {
      *******************************************************************************************************************/
 
     /**
-     * Rebuilds clusters
+     * Creates one cluster per seed row, then hands every other row to its closest seed. Seeds always stay in their own
+     * cluster
+     * @param seeds Row of each initial centroid, no duplicates
+     * @return Initial SSE
+     */
+    protected double seedClusters(int[] seeds) {
+        // Find clusters
+        for(int label = 0; label < seeds.length; label++)
+            clusters.add(new Cluster(data, membership, data.getRow(seeds[label]), label));
+
+        // Assign to clusters, a duplicate of a seed row may have gone to an earlier cluster
+        findClosestClusters();
+        for(int label = 0; label < seeds.length; label++)
+            closest[seeds[label]] = label;
+        membership.setAll(closest);
+
+        return calculateSumSquaredErrorInternal();
+    }
+
+    /**
+     * Rebuilds clusters, every row is handed to its closest centroid in row order
      */
     public void rebuildClusters() {
-        // List to hold all non centroids points, dumped from clusters
-        List<Point> data = new ArrayList<>();
+        // Merge in row order so membership is the same for any thread count
+        applyAssignments(findClosestClusters());
+    }
 
-        // Grab non centroids and clear
-        for(Cluster cluster : clusters) {
-            data.addAll(cluster.getChildren());
-            cluster.clearChildren();
-        }
+    /**
+     * Runs one iteration through the engine, moving centroids and reassigning points. Once iterations have started
+     * the engine owns the centroids, so mixing this with rebuildClusters/balanceCentroids is not supported
+     * @return How many points changed cluster
+     */
+    public int iterate() {
+        return getEngine().iterate();
+    }
 
-        // Assign to closest cluster
-        for (Point datum : data) {
+    /**
+     * Sets cluster membership from an assignment array
+     * @param assignments Index into clusters for each row, copied
+     */
+    protected void applyAssignments(int[] assignments) {
+        membership.setAll(assignments);
+    }
 
-            // Tracking for closest cluster
-            double closestClusterDist = Double.MAX_VALUE;
-            Cluster closestCluster = null;
+    /**
+     * Copies the current assignment array
+     * @return Index into clusters for each row
+     */
+    protected int[] currentAssignments() {
+        return membership.copyAssignments();
+    }
 
-            // Loop clusters
-            for (Cluster cluster : clusters) {
-                // Test for distance
-                double tempDistance = cluster.errorFromCentroid(datum);
+    /**
+     * Finds the closest cluster for every row and stores the index into clusters in closest. Rows are split across
+     * the fork-join pool when more than one thread is configured
+     * @return The closest array
+     */
+    protected int[] findClosestClusters() {
+        double[][] centroids = new double[clusters.size()][];
+        for (int i = 0; i < centroids.length; i++)
+            centroids[i] = clusters.get(i).getCentroid();
+
+        double[] centroidNorms = data.squaredNorms(centroids, null);
+        if (threads == 1)
+            AssignmentTask.assignRange(data, centroids, centroidNorms, closest, 0, closest.length);
+        else {
+            int threshold = Math.max(1024, closest.length / (threads * 8));
+            getPool(threads).invoke(new AssignmentTask(data, centroids, centroidNorms, closest, 0, closest.length,
+                    threshold));
+        }
+        return closest;
+    }
 
-                // If this is closer, remember
-                if (tempDistance < closestClusterDist) {
-                    closestClusterDist = tempDistance;
-                    closestCluster = cluster;
-                }
-            }
+    /**
+     * Runs work for every block index, spread over the pool when more than one thread is configured. Blocks must only
+     * write their own state
+     * @param blocks How many blocks there are
+     * @param work Work for one block index
+     */
+    protected void runBlocks(int blocks, IntConsumer work) {
+        BlockTask.run(threads, blocks, work);
+    }
 
-            // Add to what was found to be closest
-            assert closestCluster != null;
-            closestCluster.addChild(datum);
-        }
+    /**
+     * Gets the shared pool for the given thread count, creating on first use
+     * @param threads Parallelism of the pool
+     * @return Pool to run tasks on
+     */
+    protected static ForkJoinPool getPool(int threads) {
+        return POOLS.computeIfAbsent(threads, ForkJoinPool::new);
     }
 
     /**
@@ -114,28 +221,36 @@ public abstract class AbstractClusteredDatabase {
     }
 
     /**
-     * Calculates the SumSquaredError (SSE), outside cluster disance
+     * Calculates the SumSquaredError (SSE), outside cluster disance, in closed form from per cluster sums
      * @return SSE
      */
     public double calculateSumSquaredErrorExternal() {
-        double error = 0;
-        for(Cluster cluster : clusters)
-            error += cluster.calculateSquaredErrorExternal(clusters);
-        return error;
+        return calculateStatistics().getExternalSSE();
+    }
+
+    /**
+     * Gather per cluster counts, coordinate sums and squared norms in one pass over the points
+     * @return Statistics of the current clustering
+     */
+    public ClusterStatistics calculateStatistics() {
+        return new ClusterStatistics(data, clusters);
     }
 
     /**
-     * Calculate the Silhouette Width average of all points
+     * Calculate the exact Silhouette Width average of all points, from every pairwise distance
      * @return Silhouette Width
      */
     public double calculateSilhouetteWidth() {
-        double silhouette = 0;
-
-        for(Cluster cluster : clusters)
-            silhouette += cluster.calculateSilhouette(getClosestCluster(cluster));
-        silhouette /= clusters.size();
+        return new Silhouette(data, membership.getAssignments(), clusters.size(), threads).exact();
+    }
 
-        return silhouette;
+    /**
+     * Estimate the Silhouette Width from a sample of points, each against every other point
+     * @param sampleSize Points to sample
+     * @return Estimate with a 95% confidence interval
+     */
+    public SilhouetteEstimate estimateSilhouetteWidth(int sampleSize) {
+        return new Silhouette(data, membership.getAssignments(), clusters.size(), threads).sample(sampleSize, random);
     }
 
     /**
@@ -150,7 +265,7 @@ public abstract class AbstractClusteredDatabase {
         for(Cluster localCluster : clusters) {
             if(localCluster == cluster) continue;
 
-            double test = cluster.errorFromCentroid(localCluster.getCentroid());
+            double test = cluster.calculateDistance(localCluster.getCentroid(), cluster.getCentroid());
             if(test < distance) {
                 closest = localCluster;
                 distance = test;
@@ -160,23 +275,18 @@ public abstract class AbstractClusteredDatabase {
         return closest;
     }
 
-    /**
-     * Generates table
-     * @return Map where index of original value is key, assigned label as value
-     */
-    public double[] generateIndexClusterLabelTable(int size) {
-        double[] table = new double[size];
-        for(Cluster cluster : clusters) {
-            for(Point point : cluster.getChildren())
-                table[point.index] = cluster.ID;
-        }
-        return table;
-    }
-
     /*******************************************************************************************************************
      * Accessors/Mutators                                                                                              *
      *******************************************************************************************************************/
 
+    public DataMatrix getData() {
+        return data;
+    }
+
+    public Membership getMembership() {
+        return membership;
+    }
+
     public List<Cluster> getClusters() {
         return clusters;
     }
@@ -185,6 +295,28 @@ public abstract class AbstractClusteredDatabase {
         this.clusters = clusters;
     }
 
+    public IterationEngine getEngine() {
+        if (engine == null)
+            engine = new FusedIterationEngine(this);
+        return engine;
+    }
+
+    public void setEngine(IterationEngine engine) {
+        this.engine = engine;
+    }
+
+    public PhaseTimer getTimer() {
+        return timer;
+    }
+
+    public SplittableRandom getRandom() {
+        return random;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
     public double getInitialSSE() {
         return initialSSE;
     }
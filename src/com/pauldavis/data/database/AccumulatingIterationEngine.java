@@ -0,0 +1,180 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.Cluster;
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.instrument.Phase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Base for single pass iteration. While points are assigned the per cluster coordinate sums, counts and SSE are
+ * accumulated, so the next iteration can move centroids without walking the clusters again. Only clusters whose
+ * membership changed get a new centroid.
+ *
+ * Rows are worked in fixed size blocks with their own accumulators, merged in block order, so results do not depend on
+ * the thread count or on where a block was worked. Subclasses only decide how the blocks are assigned
+ */
+public abstract class AccumulatingIterationEngine implements IterationEngine {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Rows per accumulation block, every engine and distributed worker splits rows on this grid
+    public static final int BLOCK_SIZE = 4096;
+
+    // Database being iterated
+    protected final AbstractClusteredDatabase database;
+    // Points being clustered
+    protected final DataMatrix data;
+    // Clusters of the database, in index order
+    protected final List<Cluster> clusters;
+    // Centroid of every cluster, shared with the clusters and updated in place
+    protected final double[][] centroids;
+    // Squared norm of each centroid, only kept for sparse data
+    protected double[] centroidNorms;
+    // Cluster index of each row, the database's membership
+    protected final int[] assignments;
+    // Merged coordinate sums, cluster c lives in [c * columns, (c + 1) * columns)
+    private final double[] sums;
+    // Merged member count of each cluster
+    private final int[] counts;
+    // Clusters whose centroid must move before the next assignment
+    private final boolean[] dirty;
+    // SSE and moves of the last pass
+    private double sumSquaredError;
+    private int moved;
+    // Point to centroid distances calculated so far
+    private long distanceEvaluations;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Starts from the current clusters of the database, every centroid is moved on the first iteration
+     *
+     * @param database Database to iterate
+     */
+    protected AccumulatingIterationEngine(AbstractClusteredDatabase database) {
+        this.database = database;
+        this.data = database.getData();
+        this.clusters = database.getClusters();
+
+        int clusterCount = clusters.size();
+        int columns = data.getColumns();
+        centroids = new double[clusterCount][];
+        assignments = database.getMembership().getAssignments();
+        sums = new double[clusterCount * columns];
+        counts = new int[clusterCount];
+        dirty = new boolean[clusterCount];
+
+        // Accumulate the starting membership in row order, same as Cluster.recalculateCentroid
+        for (int row = 0; row < assignments.length; row++) {
+            data.addRow(row, sums, assignments[row] * columns);
+            counts[assignments[row]]++;
+        }
+        for (int c = 0; c < clusterCount; c++) {
+            Cluster cluster = clusters.get(c);
+            dirty[c] = true;
+
+            // Own a copy so in place updates never touch the matrix
+            centroids[c] = cluster.getCentroid().clone();
+            cluster.setCentroid(centroids[c]);
+        }
+        sumSquaredError = database.calculateSumSquaredErrorInternal();
+    }
+
+
+    /*******************************************************************************************************************
+     * Abstract Functions                                                                                              *
+     *******************************************************************************************************************/
+
+    /**
+     * Assigns every row against the current centroids and merges the accumulators of each block in block order
+     */
+    protected abstract void assign();
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    public int iterate() {
+        int columns = data.getColumns();
+
+        // Move centroids of clusters that changed, empty clusters keep their last centroid
+        for (int c = 0; c < centroids.length; c++) {
+            if (!dirty[c] || counts[c] == 0) continue;
+            for (int i = 0; i < columns; i++)
+                centroids[c][i] = sums[c * columns + i] / counts[c];
+            clusters.get(c).markMoved();
+        }
+        centroidNorms = data.squaredNorms(centroids, centroidNorms);
+        database.getTimer().mark(Phase.UPDATE);
+
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(dirty, false);
+        sumSquaredError = 0;
+        moved = 0;
+        assign();
+        distanceEvaluations += (long) data.getRows() * centroids.length;
+
+        // Cluster views regroup on next use
+        if (moved > 0)
+            database.getMembership().markChanged();
+        database.getTimer().mark(Phase.ASSIGN);
+        return moved;
+    }
+
+    /**
+     * Merges the next block, in block order
+     *
+     * @param block Accumulators of the block
+     */
+    protected void merge(BlockAccumulator block) {
+        mergeSums(block.getSums(), block.getSumSquaredError());
+        mergeCounts(block.getCounts(), block.getChanged(), block.getMoved());
+    }
+
+    /**
+     * Merges the coordinate sums and SSE of the next block, in block order
+     *
+     * @param blockSums  Coordinate sums of the block
+     * @param blockError SSE of the block
+     */
+    protected void mergeSums(double[] blockSums, double blockError) {
+        for (int i = 0; i < sums.length; i++)
+            sums[i] += blockSums[i];
+        sumSquaredError += blockError;
+    }
+
+    /**
+     * Merges counts, changed clusters and moves, which are exact in any order
+     *
+     * @param blockCounts Member count of each cluster
+     * @param changed     Clusters that gained or lost a row
+     * @param blockMoved  Rows that changed cluster
+     */
+    protected void mergeCounts(int[] blockCounts, boolean[] changed, int blockMoved) {
+        for (int c = 0; c < counts.length; c++) {
+            counts[c] += blockCounts[c];
+            dirty[c] |= changed[c];
+        }
+        moved += blockMoved;
+    }
+
+    @Override
+    public double getSumSquaredError() {
+        return sumSquaredError;
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+}
@@ -0,0 +1,94 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.DataMatrix;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join task that finds the closest centroid for a range of rows. Every task only writes its own slice of the
+ * output so workers never share state, the caller merges the slices in row order afterwards
+ */
+public class AssignmentTask extends RecursiveAction {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    private static final long serialVersionUID = 1L;
+
+    // Points being assigned
+    private final DataMatrix data;
+    // Centroid of every cluster, in cluster order
+    private final double[][] centroids;
+    // Squared norm of each centroid, null for dense data
+    private final double[] centroidNorms;
+    // Output, index into centroids for each row
+    private final int[] closest;
+    // Range of rows, end exclusive
+    private final int start;
+    private final int end;
+    // Largest range worked without splitting
+    private final int threshold;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates a task over the given rows
+     *
+     * @param data      Points being assigned
+     * @param centroids     Centroid of every cluster
+     * @param centroidNorms Squared norm of each centroid, null for dense data
+     * @param closest       Output array, one entry per row
+     * @param start         First row
+     * @param end           Last row, exclusive
+     * @param threshold     Largest range worked without splitting
+     */
+    public AssignmentTask(DataMatrix data, double[][] centroids, double[] centroidNorms, int[] closest, int start,
+                          int end, int threshold) {
+        this.data = data;
+        this.centroids = centroids;
+        this.centroidNorms = centroidNorms;
+        this.closest = closest;
+        this.start = start;
+        this.end = end;
+        this.threshold = threshold;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    protected void compute() {
+        if (end - start <= threshold) {
+            assignRange(data, centroids, centroidNorms, closest, start, end);
+            return;
+        }
+
+        // Split in half and work both sides
+        int middle = (start + end) >>> 1;
+        invokeAll(new AssignmentTask(data, centroids, centroidNorms, closest, start, middle, threshold),
+                new AssignmentTask(data, centroids, centroidNorms, closest, middle, end, threshold));
+    }
+
+    /**
+     * Finds the closest centroid for each row in the range, ties go to the lowest cluster
+     *
+     * @param data          Points being assigned
+     * @param centroids     Centroid of every cluster
+     * @param centroidNorms Squared norm of each centroid, null for dense data
+     * @param closest       Output array, one entry per row
+     * @param start         First row
+     * @param end           Last row, exclusive
+     */
+    public static void assignRange(DataMatrix data, double[][] centroids, double[] centroidNorms, int[] closest,
+                                   int start, int end) {
+        double[] distances = new double[centroids.length];
+        for (int row = start; row < end; row++)
+            closest[row] = data.closest(row, centroids, centroidNorms, distances);
+    }
+}
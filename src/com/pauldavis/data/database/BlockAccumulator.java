@@ -0,0 +1,159 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.DistanceKernel;
+
+import java.util.Arrays;
+
+/**
+ * Partial results of one block of rows in a single pass iteration. Every row assigned is added to its closest
+ * cluster's coordinate sum, count and SSE, and clusters that gained or lost a row are marked. The fused, chunked and
+ * distributed engines and the workers all assign through this, so a block holds the same values wherever it is worked
+ */
+public class BlockAccumulator {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Attributes per row
+    private final int columns;
+    // Coordinate sums, cluster c lives in [c * columns, (c + 1) * columns)
+    private final double[] sums;
+    // Member count of each cluster
+    private final int[] counts;
+    // Clusters that gained or lost a row
+    private final boolean[] changed;
+    // Scratch, distance to each centroid for the current row
+    private final double[] distances;
+    // SSE and moves of the rows assigned
+    private double sumSquaredError;
+    private int moved;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates empty accumulators
+     *
+     * @param clusterCount Number of clusters
+     * @param columns      Attributes per row
+     */
+    public BlockAccumulator(int clusterCount, int columns) {
+        this.columns = columns;
+        sums = new double[clusterCount * columns];
+        counts = new int[clusterCount];
+        changed = new boolean[clusterCount];
+        distances = new double[clusterCount];
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Empties the accumulators before a block is worked
+     */
+    public void clear() {
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(changed, false);
+        sumSquaredError = 0;
+        moved = 0;
+    }
+
+    /**
+     * Assigns a range of rows of a matrix to their closest centroids and accumulates them there
+     *
+     * @param data          Points
+     * @param start         First row
+     * @param end           Last row, exclusive
+     * @param assignments   Cluster index of each row, updated in place
+     * @param centroids     Centroid of every cluster
+     * @param centroidNorms Squared norm of each centroid, null unless the data is sparse
+     */
+    public void assignRows(DataMatrix data, int start, int end, int[] assignments, double[][] centroids,
+                           double[] centroidNorms) {
+        for (int row = start; row < end; row++) {
+            // Closest cluster
+            int closestCluster = data.closest(row, centroids, centroidNorms, distances);
+
+            // Accumulate
+            data.addRow(row, sums, closestCluster * columns);
+            record(row, closestCluster, assignments);
+        }
+    }
+
+    /**
+     * Assigns rows already copied into a dense tile to their closest centroids and accumulates them there
+     *
+     * @param kernel      Distance kernel
+     * @param tile        Rows back to back, columns values each
+     * @param tileRows    Rows in the tile
+     * @param firstRow    Row index of the first row in the tile
+     * @param assignments Cluster index of each row, updated in place
+     * @param centroids   Centroid of every cluster
+     */
+    public void assignTile(DistanceKernel kernel, double[] tile, int tileRows, int firstRow, int[] assignments,
+                           double[][] centroids) {
+        for (int r = 0; r < tileRows; r++) {
+            // Closest cluster
+            int offset = r * columns;
+            int closestCluster = kernel.closest(tile, offset, centroids, columns, distances);
+
+            // Accumulate
+            int sumOffset = closestCluster * columns;
+            for (int i = 0; i < columns; i++)
+                sums[sumOffset + i] += tile[offset + i];
+            record(firstRow + r, closestCluster, assignments);
+        }
+    }
+
+    /**
+     * Counts a row assigned to a cluster and tracks whether it moved
+     *
+     * @param row            Row index
+     * @param closestCluster Cluster the row was assigned to, its distance is in the scratch
+     * @param assignments    Cluster index of each row, updated in place
+     */
+    private void record(int row, int closestCluster, int[] assignments) {
+        counts[closestCluster]++;
+        sumSquaredError += distances[closestCluster];
+
+        // Track moves
+        if (assignments[row] != closestCluster) {
+            changed[assignments[row]] = true;
+            changed[closestCluster] = true;
+            assignments[row] = closestCluster;
+            moved++;
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public double[] getSums() {
+        return sums;
+    }
+
+    public int[] getCounts() {
+        return counts;
+    }
+
+    public boolean[] getChanged() {
+        return changed;
+    }
+
+    public double getSumSquaredError() {
+        return sumSquaredError;
+    }
+
+    public int getMoved() {
+        return moved;
+    }
+}
@@ -0,0 +1,71 @@
+package com.pauldavis.data.database;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Fork-join task that splits a range of block indices in half until one block is left
+ */
+public class BlockTask extends RecursiveAction {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    private static final long serialVersionUID = 1L;
+
+    // Work for one block index
+    private final IntConsumer work;
+    // Range of blocks, end exclusive
+    private final int start;
+    private final int end;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates a task over a range of blocks
+     *
+     * @param work  Work for one block index
+     * @param start First block
+     * @param end   Last block, exclusive
+     */
+    public BlockTask(IntConsumer work, int start, int end) {
+        this.work = work;
+        this.start = start;
+        this.end = end;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Runs work for every block index, on the shared pool when more than one thread is asked for. Blocks must only write
+     * their own state
+     *
+     * @param threads Parallelism
+     * @param blocks  How many blocks there are
+     * @param work    Work for one block index
+     */
+    public static void run(int threads, int blocks, IntConsumer work) {
+        if (threads == 1 || blocks <= 1) {
+            for (int block = 0; block < blocks; block++)
+                work.accept(block);
+        } else
+            AbstractClusteredDatabase.getPool(threads).invoke(new BlockTask(work, 0, blocks));
+    }
+
+    @Override
+    protected void compute() {
+        if (end - start == 1) {
+            work.accept(start);
+            return;
+        }
+        int middle = (start + end) >>> 1;
+        invokeAll(new BlockTask(work, start, middle), new BlockTask(work, middle, end));
+    }
+}
@@ -0,0 +1,91 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.DistanceKernel;
+import com.pauldavis.data.DistanceKernels;
+
+/**
+ * Single pass iteration that streams the data, for matrices mapped from a file and larger than the heap. Each block of
+ * rows is copied a tile at a time into a small buffer and assigned from there, so the data is read once per iteration
+ * in file order and nothing proportional to it is kept besides the cluster index of each row.
+ *
+ * Only a wave of blocks holds accumulators at once, a few per thread, and each wave is merged in block order before the
+ * next starts. Blocks are the same as the fused engine's and are merged in the same order, so both give the same
+ * results for any thread count
+ */
+public class ChunkedIterationEngine extends AccumulatingIterationEngine {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Rows copied out of the matrix at once
+    private static final int TILE_SIZE = 256;
+    // Blocks in flight per thread
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    // Accumulators for one wave of blocks, reused by every wave
+    private final BlockAccumulator[] wave;
+    // Tile of rows each accumulator of the wave reads from
+    private final double[][] tiles;
+    // Total blocks over all rows
+    private final int blockCount;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an engine over the current clusters of the database, every centroid is moved on the first iteration
+     *
+     * @param database Database to iterate
+     */
+    public ChunkedIterationEngine(AbstractClusteredDatabase database) {
+        super(database);
+        int columns = data.getColumns();
+        blockCount = (data.getRows() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        wave = new BlockAccumulator[Math.max(1, Math.min(blockCount, database.getThreads() * BLOCKS_PER_THREAD))];
+        tiles = new double[wave.length][TILE_SIZE * columns];
+        for (int b = 0; b < wave.length; b++)
+            wave[b] = new BlockAccumulator(centroids.length, columns);
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    protected void assign() {
+        for (int first = 0; first < blockCount; first += wave.length) {
+            // Assign and accumulate one wave
+            int base = first;
+            int size = Math.min(wave.length, blockCount - first);
+            BlockTask.run(database.getThreads(), size, b -> assignBlock(b, (base + b) * BLOCK_SIZE));
+
+            // Merge its blocks in order
+            for (int b = 0; b < size; b++)
+                merge(wave[b]);
+        }
+    }
+
+    /**
+     * Assigns every row of a block a tile at a time
+     *
+     * @param slot  Accumulator and tile of the wave to use
+     * @param start First row of the block
+     */
+    private void assignBlock(int slot, int start) {
+        BlockAccumulator block = wave[slot];
+        double[] tile = tiles[slot];
+        block.clear();
+
+        DistanceKernel kernel = DistanceKernels.get();
+        int end = Math.min(data.getRows(), start + BLOCK_SIZE);
+        for (int tileStart = start; tileStart < end; tileStart += TILE_SIZE) {
+            int tileRows = Math.min(TILE_SIZE, end - tileStart);
+            data.copyRows(tileStart, tileRows, tile);
+            block.assignTile(kernel, tile, tileRows, tileStart, assignments, centroids);
+        }
+    }
+}
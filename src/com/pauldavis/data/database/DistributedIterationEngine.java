@@ -0,0 +1,92 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.distributed.WorkerGroup;
+
+import java.io.IOException;
+
+/**
+ * Single pass iteration with the assignment pass on worker processes. The coordinator moves centroids and sends them
+ * out, each worker assigns its shard and replies with per block sums and SSE, which are merged here in block order.
+ * Workers work their blocks with the same BlockAccumulator, so results are the same as FusedIterationEngine's for any
+ * number of workers.
+ *
+ * Workers keep the assignments of their rows, the database's membership is only brought up to date by finish
+ */
+public class DistributedIterationEngine extends AccumulatingIterationEngine implements WorkerGroup.Pass {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Workers holding the shards
+    private final WorkerGroup workers;
+    // Id of this run on the workers
+    private final int run;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an engine over the current clusters of the database and starts its run on the workers, every centroid is
+     * moved on the first iteration
+     *
+     * @param database Database to iterate, over the data the workers were sent
+     * @param workers  Workers holding the shards
+     * @throws IllegalArgumentException When the workers hold different data
+     * @throws IllegalStateException    When a worker fails
+     */
+    public DistributedIterationEngine(AbstractClusteredDatabase database, WorkerGroup workers) {
+        super(database);
+        this.workers = workers;
+        if (workers.getRows() != data.getRows())
+            throw new IllegalArgumentException("Workers hold " + workers.getRows() + " rows, data has " +
+                    data.getRows());
+
+        try {
+            run = workers.start(assignments);
+        } catch (IOException e) {
+            throw new IllegalStateException("Workers failed", e);
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    protected void assign() {
+        // Workers assign, results merge in block order as they arrive
+        try {
+            workers.iterate(run, centroids, this);
+        } catch (IOException e) {
+            throw new IllegalStateException("Workers failed", e);
+        }
+    }
+
+    @Override
+    public void mergeBlock(double[] blockSums, double blockError) {
+        mergeSums(blockSums, blockError);
+    }
+
+    @Override
+    public void mergeShard(int[] shardCounts, boolean[] changed, int shardMoved) {
+        mergeCounts(shardCounts, changed, shardMoved);
+    }
+
+    /**
+     * Brings the assignments back from the workers into the database's membership and ends the run there
+     */
+    @Override
+    public void finish() {
+        try {
+            workers.fetch(run, assignments);
+            database.getMembership().markChanged();
+            workers.end(run);
+        } catch (IOException e) {
+            throw new IllegalStateException("Workers failed", e);
+        }
+    }
+}
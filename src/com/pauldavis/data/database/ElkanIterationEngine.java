@@ -0,0 +1,342 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.Cluster;
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.instrument.Phase;
+import com.pauldavis.data.instrument.PhaseTimer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exact K-Means accelerated with the triangle inequality (Elkan, 2003). Every point keeps an upper bound on the
+ * distance to its own centroid and a lower bound on the distance to every other centroid. Together with half the
+ * centroid to centroid distances these skip any centroid that cannot be closer, so most distance calls disappear once
+ * the centroids settle.
+ *
+ * Bounds are compared with a small slack and ties go to the lowest cluster, so clusters, centroids and SSE come out the
+ * same as plain Lloyd iterations
+ */
+public class ElkanIterationEngine implements IterationEngine {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Relative slack on bound comparisons, covers rounding in the bounds
+    private static final double SLACK = 1e-10;
+    // Rows per fork-join task
+    private static final int BLOCK_SIZE = 2048;
+
+    // Database being iterated
+    private final AbstractClusteredDatabase database;
+    // Points being clustered
+    private final DataMatrix data;
+    // Clusters of the database, in index order
+    private final List<Cluster> clusters;
+    // Centroid of every cluster, shared with the clusters and updated in place
+    private final double[][] centroids;
+    // Coordinate sums and counts of each cluster
+    private final double[] sums;
+    private final int[] counts;
+    // Clusters whose membership changed on the last pass
+    private final boolean[] dirty;
+    // Squared norm of each centroid, only kept for sparse data
+    private double[] centroidNorms;
+    // Distance each centroid moved, scratch for the last move
+    private final double[] shift;
+    // Distance between each pair of centroids, k * k
+    private final double[] centroidDistances;
+    // Half the distance from each centroid to its closest other centroid
+    private final double[] halfClosest;
+    // SSE of each cluster, scratch for the last pass
+    private final double[] clusterErrors;
+
+    // Cluster index of each row now, the database's membership written in place, and before the last pass
+    private final int[] assignments;
+    private final int[] previous;
+    // Upper bound on the distance from each row to its centroid
+    private final double[] upper;
+    // Lower bound on the distance from each row to each centroid, n * k
+    private final double[] lower;
+    // Exact squared distance from each row to its centroid, valid when not stale
+    private final double[] exact;
+    // Whether the exact distance of a row is out of date
+    private final boolean[] stale;
+    // Distance evaluations made by each row block, merged after every pass
+    private final long[] blockEvaluations;
+
+    // SSE of the last pass
+    private double sumSquaredError;
+    // Point to centroid distance evaluations made and skipped so far
+    private long distanceEvaluations;
+    private long distanceEvaluationsAvoided;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an engine over the current clusters of the database, bounds start open so the first iteration checks
+     * every centroid
+     *
+     * @param database Database to iterate
+     */
+    public ElkanIterationEngine(AbstractClusteredDatabase database) {
+        this.database = database;
+        this.data = database.getData();
+        this.clusters = database.getClusters();
+
+        int clusterCount = clusters.size();
+        int columns = data.getColumns();
+        int rows = data.getRows();
+        centroids = new double[clusterCount][];
+        sums = new double[clusterCount * columns];
+        counts = new int[clusterCount];
+        dirty = new boolean[clusterCount];
+        shift = new double[clusterCount];
+        centroidDistances = new double[clusterCount * clusterCount];
+        halfClosest = new double[clusterCount];
+        clusterErrors = new double[clusterCount];
+
+        assignments = database.getMembership().getAssignments();
+        previous = new int[rows];
+        upper = new double[rows];
+        lower = new double[rows * clusterCount];
+        exact = new double[rows];
+        stale = new boolean[rows];
+        Arrays.fill(upper, Double.POSITIVE_INFINITY);
+        Arrays.fill(stale, true);
+        blockEvaluations = new long[(rows + BLOCK_SIZE - 1) / BLOCK_SIZE];
+
+        // Accumulate the starting membership in row order, same as Cluster.recalculateCentroid
+        for (int row = 0; row < assignments.length; row++) {
+            data.addRow(row, sums, assignments[row] * columns);
+            counts[assignments[row]]++;
+        }
+        for (int c = 0; c < clusterCount; c++) {
+            Cluster cluster = clusters.get(c);
+            dirty[c] = true;
+
+            // Own a copy so in place updates never touch the matrix
+            centroids[c] = cluster.getCentroid().clone();
+            cluster.setCentroid(centroids[c]);
+        }
+        sumSquaredError = database.calculateSumSquaredErrorInternal();
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    public int iterate() {
+        PhaseTimer timer = database.getTimer();
+        moveCentroids();
+        updateCentroidDistances();
+        centroidNorms = data.squaredNorms(centroids, centroidNorms);
+        timer.mark(Phase.UPDATE);
+
+        // Assign rows, blocks are independent
+        System.arraycopy(assignments, 0, previous, 0, assignments.length);
+        BlockTask.run(database.getThreads(), blockEvaluations.length, this::assignBlock);
+
+        long evaluations = 0;
+        for (long blockEvaluation : blockEvaluations)
+            evaluations += blockEvaluation;
+        distanceEvaluations += evaluations;
+        distanceEvaluationsAvoided += (long) assignments.length * centroids.length - evaluations;
+
+        // Find moves and fresh sums for changed clusters, row order to match Cluster.recalculateCentroid
+        Arrays.fill(dirty, false);
+        int moved = 0;
+        for (int row = 0; row < assignments.length; row++) {
+            if (assignments[row] != previous[row]) {
+                dirty[previous[row]] = true;
+                dirty[assignments[row]] = true;
+                moved++;
+            }
+        }
+        timer.mark(Phase.ASSIGN);
+        accumulateDirty();
+        timer.mark(Phase.UPDATE);
+
+        // SSE summed per cluster in row order then across clusters, same as calculateSumSquaredErrorInternal
+        Arrays.fill(clusterErrors, 0);
+        for (int row = 0; row < assignments.length; row++)
+            clusterErrors[assignments[row]] += exact[row];
+        sumSquaredError = 0;
+        for (double clusterError : clusterErrors)
+            sumSquaredError += clusterError;
+        timer.mark(Phase.SSE);
+
+        if (moved > 0)
+            database.getMembership().markChanged();
+        timer.mark(Phase.ASSIGN);
+        return moved;
+    }
+
+    /**
+     * Moves the centroid of every changed cluster and loosens the bounds by how far each centroid moved
+     */
+    private void moveCentroids() {
+        int columns = data.getColumns();
+        int clusterCount = centroids.length;
+        boolean anyMoved = false;
+        for (int c = 0; c < clusterCount; c++) {
+            shift[c] = 0;
+            if (!dirty[c] || counts[c] == 0) continue;
+
+            double distance = 0;
+            for (int i = 0; i < columns; i++) {
+                double mean = sums[c * columns + i] / counts[c];
+                double difference = mean - centroids[c][i];
+                distance += difference * difference;
+                centroids[c][i] = mean;
+            }
+            clusters.get(c).markMoved();
+            shift[c] = Math.sqrt(distance);
+            anyMoved |= shift[c] > 0;
+        }
+        if (!anyMoved) return;
+
+        for (int row = 0; row < assignments.length; row++) {
+            double ownShift = shift[assignments[row]];
+            if (ownShift > 0) {
+                upper[row] += ownShift;
+                stale[row] = true;
+            }
+            int offset = row * clusterCount;
+            for (int c = 0; c < clusterCount; c++)
+                lower[offset + c] = Math.max(0, lower[offset + c] - shift[c]);
+        }
+    }
+
+    /**
+     * Finds the distance between every pair of centroids and half the distance to each closest neighbour
+     */
+    private void updateCentroidDistances() {
+        int clusterCount = centroids.length;
+        Arrays.fill(halfClosest, Double.POSITIVE_INFINITY);
+        for (int a = 0; a < clusterCount; a++) {
+            for (int b = a + 1; b < clusterCount; b++) {
+                double distance = 0;
+                for (int i = 0; i < centroids[a].length; i++) {
+                    double difference = centroids[a][i] - centroids[b][i];
+                    distance += difference * difference;
+                }
+                distance = Math.sqrt(distance);
+                centroidDistances[a * clusterCount + b] = distance;
+                centroidDistances[b * clusterCount + a] = distance;
+                halfClosest[a] = Math.min(halfClosest[a], distance / 2);
+                halfClosest[b] = Math.min(halfClosest[b], distance / 2);
+            }
+        }
+    }
+
+    /**
+     * Squared distance from a row to a centroid
+     *
+     * @param row     Entry index
+     * @param cluster Cluster index
+     * @return Squared distance between
+     */
+    private double distanceSquared(int row, int cluster) {
+        return data.distanceSquared(row, centroids[cluster], centroidNorms == null ? 0 : centroidNorms[cluster]);
+    }
+
+    /**
+     * Assigns each row of a block to its closest centroid, skipping centroids ruled out by the bounds. Every row ends
+     * with an exact distance to its centroid for the SSE
+     *
+     * @param block Block index
+     */
+    private void assignBlock(int block) {
+        int clusterCount = centroids.length;
+        int end = Math.min(assignments.length, (block + 1) * BLOCK_SIZE);
+        long evaluations = 0;
+
+        for (int row = block * BLOCK_SIZE; row < end; row++) {
+            int assigned = assignments[row];
+            int offset = row * clusterCount;
+
+            // Nothing can be closer than half way to the nearest other centroid
+            if (!(upper[row] * (1 + SLACK) < halfClosest[assigned])) {
+                for (int c = 0; c < clusterCount; c++) {
+                    if (c == assigned
+                            || upper[row] * (1 + SLACK) < lower[offset + c]
+                            || upper[row] * (1 + SLACK) < centroidDistances[assigned * clusterCount + c] / 2)
+                        continue;
+
+                    // Tighten the upper bound before paying for the candidate
+                    if (stale[row]) {
+                        exact[row] = distanceSquared(row, assigned);
+                        upper[row] = Math.sqrt(exact[row]);
+                        lower[offset + assigned] = upper[row];
+                        stale[row] = false;
+                        evaluations++;
+                        if (upper[row] * (1 + SLACK) < lower[offset + c]
+                                || upper[row] * (1 + SLACK) < centroidDistances[assigned * clusterCount + c] / 2)
+                            continue;
+                    }
+
+                    double candidate = distanceSquared(row, c);
+                    lower[offset + c] = Math.sqrt(candidate);
+                    evaluations++;
+                    if (candidate < exact[row] || (candidate == exact[row] && c < assigned)) {
+                        assigned = c;
+                        exact[row] = candidate;
+                        upper[row] = lower[offset + c];
+                    }
+                }
+                assignments[row] = assigned;
+            }
+
+            // SSE needs the exact distance
+            if (stale[row]) {
+                exact[row] = distanceSquared(row, assigned);
+                upper[row] = Math.sqrt(exact[row]);
+                lower[offset + assigned] = upper[row];
+                stale[row] = false;
+                evaluations++;
+            }
+        }
+        blockEvaluations[block] = evaluations;
+    }
+
+    /**
+     * Rebuilds sums and counts of changed clusters from scratch in row order
+     */
+    private void accumulateDirty() {
+        int columns = data.getColumns();
+        for (int c = 0; c < centroids.length; c++) {
+            if (!dirty[c]) continue;
+            Arrays.fill(sums, c * columns, (c + 1) * columns, 0);
+            counts[c] = 0;
+        }
+
+        for (int row = 0; row < assignments.length; row++) {
+            int c = assignments[row];
+            if (!dirty[c]) continue;
+            data.addRow(row, sums, c * columns);
+            counts[c]++;
+        }
+    }
+
+    @Override
+    public double getSumSquaredError() {
+        return sumSquaredError;
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    @Override
+    public long getDistanceEvaluationsAvoided() {
+        return distanceEvaluationsAvoided;
+    }
+}
@@ -0,0 +1,51 @@
+package com.pauldavis.data.database;
+
+/**
+ * Single pass iteration over a matrix held in memory. Every block of rows is assigned and accumulated where it lives,
+ * spread over the pool when more than one thread is configured
+ */
+public class FusedIterationEngine extends AccumulatingIterationEngine {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Accumulators of each block
+    private final BlockAccumulator[] blocks;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an engine over the current clusters of the database, every centroid is moved on the first iteration
+     *
+     * @param database Database to iterate
+     */
+    public FusedIterationEngine(AbstractClusteredDatabase database) {
+        super(database);
+        blocks = new BlockAccumulator[(data.getRows() + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        for (int b = 0; b < blocks.length; b++)
+            blocks[b] = new BlockAccumulator(centroids.length, data.getColumns());
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    protected void assign() {
+        // Assign and accumulate every block
+        BlockTask.run(database.getThreads(), blocks.length, b -> {
+            blocks[b].clear();
+            blocks[b].assignRows(data, b * BLOCK_SIZE, Math.min(data.getRows(), (b + 1) * BLOCK_SIZE), assignments,
+                    centroids, centroidNorms);
+        });
+
+        // Merge blocks in order
+        for (BlockAccumulator block : blocks)
+            merge(block);
+    }
+}
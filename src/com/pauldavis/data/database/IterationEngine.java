@@ -0,0 +1,56 @@
+package com.pauldavis.data.database;
+
+/**
+ * Runs K-Means iterations against the clusters of a database
+ */
+public interface IterationEngine {
+
+    /**
+     * Moves every centroid to the middle of its cluster, then reassigns every point to its closest centroid
+     *
+     * @return How many points changed cluster
+     */
+    int iterate();
+
+    /**
+     * Gets the SSE of the assignment made by the last iteration, against the centroids used for that assignment
+     *
+     * @return SSE
+     */
+    double getSumSquaredError();
+
+    /**
+     * Gets how many point to centroid distances have been calculated by all iterations so far
+     *
+     * @return Distance evaluations
+     */
+    long getDistanceEvaluations();
+
+    /**
+     * Gets how many point to centroid distances were skipped compared to checking every centroid for every point the
+     * iterations looked at. Engines that check every centroid skip none
+     *
+     * @return Evaluations skipped so far, -1 when the evaluations are not point to centroid distances alone
+     */
+    default long getDistanceEvaluationsAvoided() {
+        return 0;
+    }
+
+    /**
+     * Whether iterations should stop, by default when nothing moved or the SSE improved by less than the threshold
+     *
+     * @param moved     Points moved by the last iteration
+     * @param lastSSE   SSE before the last iteration
+     * @param threshold Smallest relative improvement worth another iteration
+     * @return True to stop
+     */
+    default boolean hasConverged(int moved, double lastSSE, double threshold) {
+        return moved == 0 || ((lastSSE - getSumSquaredError()) / lastSSE) < threshold;
+    }
+
+    /**
+     * Called once iterations stop, engines that work on estimates make membership and SSE exact here
+     */
+    default void finish() {
+    }
+}
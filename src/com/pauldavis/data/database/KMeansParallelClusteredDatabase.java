@@ -0,0 +1,243 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.DataMatrix;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Seeds with k-means|| (Bahmani et al., 2012), the scalable form of k-means++. Instead of one seed per pass over the
+ * data, each round samples about 2K rows at once with probability proportional to their squared distance, so only a
+ * handful of passes are needed and each pass splits across threads. The candidates are weighted by how many rows they
+ * are closest to, then cut down to K with weighted k-means++.
+ *
+ * Every block of rows draws from its own stream split off in block order, so seeds do not depend on the thread count
+ */
+public class KMeansParallelClusteredDatabase extends AbstractClusteredDatabase {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Rows per block when sampling and updating distances
+    private static final int BLOCK_SIZE = 4096;
+    // Sampling rounds, the paper finds 5 is enough
+    private static final int ROUNDS = 5;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Generate a cluster database seeded with k-means||
+     *
+     * @param rawData      Raw input
+     * @param clusterCount How many clusters to create
+     * @param threads      Threads used for sampling rounds and the assignment step
+     * @param random       Source of the seeds
+     */
+    public KMeansParallelClusteredDatabase(DataMatrix rawData, int clusterCount, int threads, SplittableRandom random) {
+        super(rawData, clusterCount, threads, random);
+    }
+
+
+    /*******************************************************************************************************************
+     * Abstract Implementation                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Oversamples candidates over a few rounds, then reduces them to seeds and distributes
+     * @param rawData Data to cluster, one row per entry
+     * @param clusterCount How many clusters to create
+     * @return Initial SSE
+     */
+    @Override
+    public double initialize(DataMatrix rawData, int clusterCount) {
+        int rows = rawData.getRows();
+        int blocks = (rows + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        double oversampling = 2.0 * clusterCount;
+
+        // Closest candidate and squared distance to it for each row
+        double[] minDistances = new double[rows];
+        int[] closestCandidate = new int[rows];
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        double[] blockSums = new double[blocks];
+
+        // Candidate rows, new ones from each round kept separately per block
+        int[] candidates = new int[Math.max(16, clusterCount)];
+        int candidateCount = 0;
+        boolean[] chosen = new boolean[rows];
+        int[][] blockPicks = new int[blocks][];
+        int[] blockPickCounts = new int[blocks];
+
+        candidates[candidateCount++] = random.nextInt(rows);
+        chosen[candidates[0]] = true;
+        double total = updateDistances(minDistances, closestCandidate, blockSums, candidates, 0, 1);
+
+        for (int round = 0; round < ROUNDS && total > 0; round++) {
+            // Each block samples on its own stream
+            final double roundTotal = total;
+            SplittableRandom[] streams = new SplittableRandom[blocks];
+            for (int block = 0; block < blocks; block++)
+                streams[block] = random.split();
+            runBlocks(blocks, block -> {
+                int end = Math.min(rows, (block + 1) * BLOCK_SIZE);
+                int[] picks = blockPicks[block] == null ? new int[16] : blockPicks[block];
+                int count = 0;
+                for (int row = block * BLOCK_SIZE; row < end; row++) {
+                    if (streams[block].nextDouble() * roundTotal < oversampling * minDistances[row]) {
+                        if (count == picks.length)
+                            picks = Arrays.copyOf(picks, picks.length * 2);
+                        picks[count++] = row;
+                    }
+                }
+                blockPicks[block] = picks;
+                blockPickCounts[block] = count;
+            });
+
+            // Merge picks in block order
+            int start = candidateCount;
+            for (int block = 0; block < blocks; block++) {
+                for (int i = 0; i < blockPickCounts[block]; i++) {
+                    int row = blockPicks[block][i];
+                    if (chosen[row]) continue;
+                    if (candidateCount == candidates.length)
+                        candidates = Arrays.copyOf(candidates, candidates.length * 2);
+                    candidates[candidateCount++] = row;
+                    chosen[row] = true;
+                }
+            }
+            total = updateDistances(minDistances, closestCandidate, blockSums, candidates, start, candidateCount);
+        }
+
+        // Too few distinct candidates, top up with unused rows
+        while (candidateCount < clusterCount) {
+            int row = random.nextInt(rows);
+            if (chosen[row]) continue;
+            if (candidateCount == candidates.length)
+                candidates = Arrays.copyOf(candidates, candidates.length * 2);
+            candidates[candidateCount++] = row;
+            chosen[row] = true;
+            updateDistances(minDistances, closestCandidate, blockSums, candidates, candidateCount - 1, candidateCount);
+        }
+
+        // Weight candidates by the rows they are closest to
+        double[] weights = new double[candidateCount];
+        for (int row = 0; row < rows; row++)
+            weights[closestCandidate[row]]++;
+
+        return seedClusters(reduce(Arrays.copyOf(candidates, candidateCount), weights, clusterCount));
+    }
+
+    /**
+     * Lowers the distance of every row to its closest candidate with a range of new candidates
+     *
+     * @param minDistances     Squared distance of each row to its closest candidate
+     * @param closestCandidate Index into candidates of the closest one for each row
+     * @param blockSums        Scratch, one sum per block
+     * @param candidates       Candidate rows
+     * @param start            First new candidate
+     * @param end              Last new candidate, exclusive
+     * @return Sum of every distance, added up in block order
+     */
+    private double updateDistances(double[] minDistances, int[] closestCandidate, double[] blockSums,
+                                   int[] candidates, int start, int end) {
+        double[][] centroids = new double[end - start][];
+        for (int i = start; i < end; i++)
+            centroids[i - start] = data.getRow(candidates[i]);
+        double[] centroidNorms = data.squaredNorms(centroids, null);
+
+        runBlocks(blockSums.length, block -> {
+            int blockEnd = Math.min(minDistances.length, (block + 1) * BLOCK_SIZE);
+            double sum = 0;
+            for (int row = block * BLOCK_SIZE; row < blockEnd; row++) {
+                for (int i = 0; i < centroids.length; i++) {
+                    double distance = data.distanceSquared(row, centroids[i],
+                            centroidNorms == null ? 0 : centroidNorms[i]);
+                    if (distance < minDistances[row]) {
+                        minDistances[row] = distance;
+                        closestCandidate[row] = start + i;
+                    }
+                }
+                sum += minDistances[row];
+            }
+            blockSums[block] = sum;
+        });
+
+        double total = 0;
+        for (double sum : blockSums)
+            total += sum;
+        return total;
+    }
+
+    /**
+     * Picks seeds from the candidates with weighted k-means++, each candidate counts once per row it stands for
+     *
+     * @param candidates   Candidate rows
+     * @param weights      Rows closest to each candidate
+     * @param clusterCount How many seeds to pick
+     * @return Seed rows
+     */
+    private int[] reduce(int[] candidates, double[] weights, int clusterCount) {
+        if (candidates.length == clusterCount)
+            return candidates;
+
+        int[] seeds = new int[clusterCount];
+        boolean[] used = new boolean[candidates.length];
+        double[] minDistances = new double[candidates.length];
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+
+        // First seed by weight alone
+        int next = sample(weights, null);
+        for (int i = 0; i < clusterCount; i++) {
+            if (i > 0) {
+                next = sample(weights, minDistances);
+                if (next < 0) {
+                    // Every candidate sits on a seed, take the heaviest left
+                    for (int c = 0; c < candidates.length; c++) {
+                        if (!used[c] && (next < 0 || weights[c] > weights[next]))
+                            next = c;
+                    }
+                }
+            }
+            seeds[i] = candidates[next];
+            used[next] = true;
+
+            double[] centroid = data.getRow(candidates[next]);
+            double centroidNorm = data.squaredNorm(centroid);
+            for (int c = 0; c < candidates.length; c++)
+                minDistances[c] = used[c] ? 0 : Math.min(minDistances[c],
+                        data.distanceSquared(candidates[c], centroid, centroidNorm));
+        }
+        return seeds;
+    }
+
+    /**
+     * Draws a candidate with probability proportional to weight times distance
+     *
+     * @param weights      Weight of each candidate
+     * @param minDistances Squared distance of each candidate to its closest seed, null to use weight alone
+     * @return Candidate index drawn, -1 when nothing has weight
+     */
+    private int sample(double[] weights, double[] minDistances) {
+        double total = 0;
+        for (int c = 0; c < weights.length; c++)
+            total += weights[c] * (minDistances == null ? 1 : minDistances[c]);
+        if (!(total > 0))
+            return -1;
+
+        double target = random.nextDouble() * total;
+        double cumulative = 0;
+        int last = -1;
+        for (int c = 0; c < weights.length; c++) {
+            double weight = weights[c] * (minDistances == null ? 1 : minDistances[c]);
+            if (weight <= 0) continue;
+            cumulative += weight;
+            last = c;
+            if (cumulative > target)
+                return c;
+        }
+        return last;
+    }
+}
@@ -0,0 +1,131 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.DataMatrix;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Seeds with k-means++ (Arthur and Vassilvitskii, 2007). The first centroid is a uniform random row, every next one is
+ * drawn with probability proportional to its squared distance from the closest centroid so far. Seeds start spread
+ * out, so runs converge in fewer iterations and fewer restarts reach the same best SSE
+ */
+public class KMeansPlusPlusClusteredDatabase extends AbstractClusteredDatabase {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Rows per block when updating distances
+    private static final int BLOCK_SIZE = 4096;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Generate a cluster database seeded with k-means++
+     *
+     * @param rawData      Raw input
+     * @param clusterCount How many clusters to create
+     * @param threads      Threads used for distance updates and the assignment step
+     * @param random       Source of the seeds
+     */
+    public KMeansPlusPlusClusteredDatabase(DataMatrix rawData, int clusterCount, int threads, SplittableRandom random) {
+        super(rawData, clusterCount, threads, random);
+    }
+
+
+    /*******************************************************************************************************************
+     * Abstract Implementation                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Picks seeds by squared distance sampling then distributes
+     * @param rawData Data to cluster, one row per entry
+     * @param clusterCount How many clusters to create
+     * @return Initial SSE
+     */
+    @Override
+    public double initialize(DataMatrix rawData, int clusterCount) {
+        int rows = rawData.getRows();
+        int[] seeds = new int[clusterCount];
+        boolean[] chosen = new boolean[rows];
+        double[] minDistances = new double[rows];
+        Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+        double[] blockSums = new double[(rows + BLOCK_SIZE - 1) / BLOCK_SIZE];
+
+        seeds[0] = random.nextInt(rows);
+        chosen[seeds[0]] = true;
+        double total = updateDistances(minDistances, blockSums, seeds[0]);
+
+        for (int i = 1; i < clusterCount; i++) {
+            int next = total > 0 ? sample(minDistances, total) : -1;
+
+            // Every row sits on a seed, fall back to any row not used yet
+            if (next < 0) {
+                next = random.nextInt(rows);
+                while (chosen[next])
+                    next = random.nextInt(rows);
+            }
+
+            seeds[i] = next;
+            chosen[next] = true;
+            total = updateDistances(minDistances, blockSums, next);
+        }
+
+        return seedClusters(seeds);
+    }
+
+    /**
+     * Lowers the distance of every row to the closest seed with a new seed
+     *
+     * @param minDistances Squared distance of each row to its closest seed
+     * @param blockSums    Scratch, one sum per block
+     * @param seed         Row of the new seed
+     * @return Sum of every distance, added up in block order
+     */
+    private double updateDistances(double[] minDistances, double[] blockSums, int seed) {
+        double[] centroid = data.getRow(seed);
+        double[] norms = data.squaredNorms(new double[][]{centroid}, null);
+        double centroidNorm = norms == null ? 0 : norms[0];
+        runBlocks(blockSums.length, block -> {
+            int end = Math.min(minDistances.length, (block + 1) * BLOCK_SIZE);
+            double sum = 0;
+            for (int row = block * BLOCK_SIZE; row < end; row++) {
+                double distance = data.distanceSquared(row, centroid, centroidNorm);
+                if (distance < minDistances[row])
+                    minDistances[row] = distance;
+                sum += minDistances[row];
+            }
+            blockSums[block] = sum;
+        });
+
+        double total = 0;
+        for (double sum : blockSums)
+            total += sum;
+        return total;
+    }
+
+    /**
+     * Draws a row with probability proportional to its distance, rows on a seed have no weight
+     *
+     * @param minDistances Squared distance of each row to its closest seed
+     * @param total        Sum of every distance
+     * @return Row drawn, or -1 if rounding left nothing
+     */
+    private int sample(double[] minDistances, double total) {
+        double target = random.nextDouble() * total;
+        double cumulative = 0;
+        int last = -1;
+        for (int row = 0; row < minDistances.length; row++) {
+            if (minDistances[row] <= 0) continue;
+            cumulative += minDistances[row];
+            last = row;
+            if (cumulative > target)
+                return row;
+        }
+        return last;
+    }
+}
@@ -0,0 +1,313 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.Cluster;
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.KdTree;
+import com.pauldavis.data.instrument.Phase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Filtering K-Means over a kd-tree (Kanungo et al., 2002). Walking down the tree, the candidate centroids of a node are
+ * cut to those that could be closest to some point in its box. Once one candidate is left the whole node is given to it
+ * using the sums kept in the tree, without touching its points.
+ *
+ * Pruning is strict with a small slack and leaves break ties on the lowest cluster, so assignments match plain Lloyd
+ * iterations. Sums are gathered per node so centroids and SSE only agree to rounding
+ */
+public class KdTreeIterationEngine implements IterationEngine {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Relative slack on pruning, covers rounding in the box test
+    private static final double SLACK = 1e-10;
+
+    // Database being iterated
+    private final AbstractClusteredDatabase database;
+    // Tree over the data of the database
+    private final KdTree tree;
+    // Points being clustered
+    private final DataMatrix data;
+    // Centroid of every cluster, shared with the clusters and updated in place
+    private final double[][] centroids;
+    // Squared norm of every centroid for the closed form node SSE
+    private final double[] centroidNorms;
+    // Cluster index of each row, the database's membership written in place
+    private final int[] assignments;
+    // Coordinate sums and counts of each cluster
+    private final double[] sums;
+    private final int[] counts;
+    // Clusters whose membership changed on the last pass
+    private final boolean[] dirty;
+    // Candidate clusters for each level of the walk
+    private final int[][] candidates;
+
+    // Results of the current pass
+    private double sumSquaredError;
+    private int moved;
+    // Point to centroid distances calculated so far, box tests included
+    private long distanceEvaluations;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an engine over the current clusters of the database
+     *
+     * @param database Database to iterate
+     * @param tree     Tree built over the data of the database
+     */
+    public KdTreeIterationEngine(AbstractClusteredDatabase database, KdTree tree) {
+        if (tree.getData() != database.getData())
+            throw new IllegalArgumentException("Tree was built over a different data matrix");
+
+        this.database = database;
+        this.tree = tree;
+        this.data = database.getData();
+        List<Cluster> clusters = database.getClusters();
+
+        int clusterCount = clusters.size();
+        int columns = data.getColumns();
+        centroids = new double[clusterCount][];
+        centroidNorms = new double[clusterCount];
+        assignments = database.getMembership().getAssignments();
+        sums = new double[clusterCount * columns];
+        counts = new int[clusterCount];
+        dirty = new boolean[clusterCount];
+        candidates = new int[tree.getDepth() + 2][clusterCount];
+
+        // Accumulate the starting membership in row order, same as Cluster.recalculateCentroid
+        for (int row = 0; row < assignments.length; row++) {
+            data.addRow(row, sums, assignments[row] * columns);
+            counts[assignments[row]]++;
+        }
+        for (int c = 0; c < clusterCount; c++) {
+            Cluster cluster = clusters.get(c);
+            dirty[c] = true;
+
+            // Own a copy so in place updates never touch the matrix
+            centroids[c] = cluster.getCentroid().clone();
+            cluster.setCentroid(centroids[c]);
+        }
+        sumSquaredError = database.calculateSumSquaredErrorInternal();
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    public int iterate() {
+        int columns = data.getColumns();
+
+        // Move centroids of clusters that changed, empty clusters keep their last centroid
+        for (int c = 0; c < centroids.length; c++) {
+            if (dirty[c] && counts[c] > 0) {
+                for (int i = 0; i < columns; i++)
+                    centroids[c][i] = sums[c * columns + i] / counts[c];
+                database.getClusters().get(c).markMoved();
+            }
+            double norm = 0;
+            for (int i = 0; i < columns; i++)
+                norm += centroids[c][i] * centroids[c][i];
+            centroidNorms[c] = norm;
+        }
+        database.getTimer().mark(Phase.UPDATE);
+
+        // Walk the tree with every cluster as a candidate
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(dirty, false);
+        sumSquaredError = 0;
+        moved = 0;
+        for (int c = 0; c < centroids.length; c++)
+            candidates[0][c] = c;
+        filter(tree.getRoot(), 0, centroids.length);
+
+        if (moved > 0)
+            database.getMembership().markChanged();
+        database.getTimer().mark(Phase.ASSIGN);
+        return moved;
+    }
+
+    /**
+     * Cuts the candidates of a node down and either hands the node to the last one or recurses
+     *
+     * @param node           Tree node
+     * @param level          Level of the candidate list to read
+     * @param candidateCount How many candidates are in the list
+     */
+    private void filter(int node, int level, int candidateCount) {
+        int[] current = candidates[level];
+        if (candidateCount == 1) {
+            assignNode(node, current[0]);
+            return;
+        }
+        if (tree.isLeaf(node)) {
+            assignLeaf(node, current, candidateCount);
+            return;
+        }
+
+        // Candidate closest to the middle of the box
+        int columns = data.getColumns();
+        int offset = node * columns;
+        double[] min = tree.getMin();
+        double[] max = tree.getMax();
+        int best = current[0];
+        double bestDistance = Double.MAX_VALUE;
+        for (int i = 0; i < candidateCount; i++) {
+            double[] centroid = centroids[current[i]];
+            double distance = 0;
+            for (int attribute = 0; attribute < columns; attribute++) {
+                double difference = centroid[attribute] - (min[offset + attribute] + max[offset + attribute]) / 2;
+                distance += difference * difference;
+            }
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = current[i];
+            }
+        }
+        distanceEvaluations += candidateCount;
+
+        // Keep candidates that are closer than best somewhere in the box, order kept for tie breaks
+        int[] next = candidates[level + 1];
+        int nextCount = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            if (current[i] == best || !isFarther(centroids[current[i]], centroids[best], offset))
+                next[nextCount++] = current[i];
+        }
+
+        if (nextCount == 1)
+            assignNode(node, best);
+        else {
+            filter(tree.getLeft(node), level + 1, nextCount);
+            filter(tree.getRight(node), level + 1, nextCount);
+        }
+    }
+
+    /**
+     * Whether a candidate is farther than best from every point in a box. Only the corner furthest along the
+     * direction from best to the candidate needs testing
+     *
+     * @param candidate Centroid to test
+     * @param best      Centroid closest to the middle of the box
+     * @param offset    Offset of the box in the tree arrays
+     * @return True if the candidate can be dropped
+     */
+    private boolean isFarther(double[] candidate, double[] best, int offset) {
+        double[] min = tree.getMin();
+        double[] max = tree.getMax();
+        double candidateDistance = 0;
+        double bestDistance = 0;
+        for (int attribute = 0; attribute < candidate.length; attribute++) {
+            double corner = candidate[attribute] > best[attribute] ? max[offset + attribute] : min[offset + attribute];
+            double candidateDifference = candidate[attribute] - corner;
+            double bestDifference = best[attribute] - corner;
+            candidateDistance += candidateDifference * candidateDifference;
+            bestDistance += bestDifference * bestDifference;
+        }
+        distanceEvaluations += 2;
+        return candidateDistance > bestDistance * (1 + SLACK);
+    }
+
+    /**
+     * Gives every point of a node to one cluster using the node sums
+     *
+     * @param node    Tree node
+     * @param cluster Cluster index
+     */
+    private void assignNode(int node, int cluster) {
+        int columns = data.getColumns();
+        int offset = node * columns;
+        double[] nodeSums = tree.getSums();
+        double[] centroid = centroids[cluster];
+
+        // SSE of the node is |x|^2 - 2 c.x + |c|^2 summed over its points
+        double dot = 0;
+        for (int i = 0; i < columns; i++) {
+            sums[cluster * columns + i] += nodeSums[offset + i];
+            dot += centroid[i] * nodeSums[offset + i];
+        }
+        int size = tree.getEnd(node) - tree.getStart(node);
+        counts[cluster] += size;
+        sumSquaredError += Math.max(0, tree.getSquaredNorm(node) - 2 * dot + size * centroidNorms[cluster]);
+
+        int[] order = tree.getOrder();
+        for (int i = tree.getStart(node); i < tree.getEnd(node); i++)
+            setAssignment(order[i], cluster);
+    }
+
+    /**
+     * Checks every point of a leaf against the remaining candidates
+     *
+     * @param node           Leaf node
+     * @param current        Candidate list
+     * @param candidateCount How many candidates are in the list
+     */
+    private void assignLeaf(int node, int[] current, int candidateCount) {
+        int columns = data.getColumns();
+        int[] order = tree.getOrder();
+        for (int i = tree.getStart(node); i < tree.getEnd(node); i++) {
+            int row = order[i];
+
+            // Tracking for closest cluster
+            double closestClusterDist = Double.MAX_VALUE;
+            int closestCluster = current[0];
+            for (int candidate = 0; candidate < candidateCount; candidate++) {
+                int cluster = current[candidate];
+                double tempDistance = data.distanceSquared(row, centroids[cluster], centroidNorms[cluster]);
+                if (tempDistance < closestClusterDist) {
+                    closestClusterDist = tempDistance;
+                    closestCluster = current[candidate];
+                }
+            }
+            distanceEvaluations += candidateCount;
+
+            data.addRow(row, sums, closestCluster * columns);
+            counts[closestCluster]++;
+            sumSquaredError += closestClusterDist;
+            setAssignment(row, closestCluster);
+        }
+    }
+
+    /**
+     * Records the cluster of a row and tracks moves
+     *
+     * @param row     Row index
+     * @param cluster Cluster index
+     */
+    private void setAssignment(int row, int cluster) {
+        if (assignments[row] != cluster) {
+            dirty[assignments[row]] = true;
+            dirty[cluster] = true;
+            assignments[row] = cluster;
+            moved++;
+        }
+    }
+
+    @Override
+    public double getSumSquaredError() {
+        return sumSquaredError;
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    /**
+     * Box tests count as evaluations, so there is no like for like number of full pass distances to compare with
+     *
+     * @return -1
+     */
+    @Override
+    public long getDistanceEvaluationsAvoided() {
+        return -1;
+    }
+}
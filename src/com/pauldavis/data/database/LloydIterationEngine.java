@@ -0,0 +1,78 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.instrument.Phase;
+import com.pauldavis.data.instrument.PhaseTimer;
+
+/**
+ * Plain Lloyd iteration, balances centroids, rebuilds clusters then finds the SSE in three separate passes
+ */
+public class LloydIterationEngine implements IterationEngine {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Database being iterated
+    private final AbstractClusteredDatabase database;
+    // Closest cluster for each row from the last pass
+    private final int[] previous;
+    // SSE of the last pass
+    private double sumSquaredError;
+    // Point to centroid distances calculated so far
+    private long distanceEvaluations;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an engine over the current clusters of the database
+     *
+     * @param database Database to iterate
+     */
+    public LloydIterationEngine(AbstractClusteredDatabase database) {
+        this.database = database;
+        this.previous = database.currentAssignments();
+        this.sumSquaredError = database.calculateSumSquaredErrorInternal();
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    @Override
+    public int iterate() {
+        PhaseTimer timer = database.getTimer();
+        database.balanceCentroids();
+        timer.mark(Phase.UPDATE);
+        database.rebuildClusters();
+        timer.mark(Phase.ASSIGN);
+        sumSquaredError = database.calculateSumSquaredErrorInternal();
+        timer.mark(Phase.SSE);
+        distanceEvaluations += (long) previous.length * database.getClusters().size();
+
+        // Count and remember moves
+        int[] closest = database.closest;
+        int moved = 0;
+        for (int row = 0; row < closest.length; row++) {
+            if (closest[row] != previous[row]) {
+                previous[row] = closest[row];
+                moved++;
+            }
+        }
+        timer.mark(Phase.ASSIGN);
+        return moved;
+    }
+
+    @Override
+    public double getSumSquaredError() {
+        return sumSquaredError;
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+}
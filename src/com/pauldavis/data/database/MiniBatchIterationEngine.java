@@ -0,0 +1,188 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.Cluster;
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.instrument.Phase;
+import com.pauldavis.data.instrument.PhaseTimer;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Mini-batch K-Means (Sculley, 2010). Each iteration samples a batch of rows, finds their closest centroids, then
+ * pulls each centroid toward its batch points with a per centroid learning rate of one over how many points it has
+ * seen. Iterations cost batch size times K instead of every row, so large data sets converge in a fraction of a
+ * full pass.
+ *
+ * The SSE reported while iterating is a smoothed estimate scaled up from the batches. Batches are noisy, so iterations
+ * only stop after several in a row fail to improve the best estimate. finish() runs one full assignment so membership
+ * and SSE are exact afterwards
+ */
+public class MiniBatchIterationEngine implements IterationEngine {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Weight of the newest batch in the smoothed SSE
+    private static final double SMOOTHING = 0.3;
+    // Batches in a row without improvement before stopping
+    private static final int PATIENCE = 10;
+
+    // Database being iterated
+    private final AbstractClusteredDatabase database;
+    // Points being clustered
+    private final DataMatrix data;
+    // Centroid of every cluster, shared with the clusters and updated in place
+    private final double[][] centroids;
+    // Squared norm of each centroid, only kept for sparse data
+    private double[] centroidNorms;
+    // Points each centroid has absorbed, sets the learning rate
+    private final long[] seen;
+    // Cluster index of each row, the database's membership written in place, only sampled rows are kept current
+    // until finish
+    private final int[] assignments;
+    // Rows of the current batch and their closest clusters
+    private final int[] batch;
+    private final int[] batchClosest;
+    // Scratch, distance to each centroid for the current row
+    private final double[] distances;
+    // Sampling source
+    private final SplittableRandom random;
+
+    // Smoothed SSE estimate, lowest estimate seen and batches since it improved
+    private double sumSquaredError = Double.NaN;
+    private double bestSSE = Double.POSITIVE_INFINITY;
+    private int withoutImprovement;
+    // Point to centroid distances calculated so far
+    private long distanceEvaluations;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an engine over the current clusters of the database
+     *
+     * @param database  Database to iterate
+     * @param batchSize Rows sampled per iteration
+     * @param random    Sampling source
+     */
+    public MiniBatchIterationEngine(AbstractClusteredDatabase database, int batchSize, SplittableRandom random) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be positive");
+
+        this.database = database;
+        this.data = database.getData();
+        this.random = random;
+        List<Cluster> clusters = database.getClusters();
+
+        centroids = new double[clusters.size()][];
+        for (int c = 0; c < centroids.length; c++) {
+            // Own a copy so in place updates never touch the matrix
+            centroids[c] = clusters.get(c).getCentroid().clone();
+            clusters.get(c).setCentroid(centroids[c]);
+        }
+        seen = new long[centroids.length];
+        assignments = database.getMembership().getAssignments();
+        batch = new int[batchSize];
+        batchClosest = new int[batchSize];
+        distances = new double[centroids.length];
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Runs one batch
+     *
+     * @return How many sampled rows changed cluster since they were last sampled
+     */
+    @Override
+    public int iterate() {
+        int rows = data.getRows();
+        int moved = 0;
+        double batchError = 0;
+
+        // Assign the whole batch against the same centroids first
+        centroidNorms = data.squaredNorms(centroids, centroidNorms);
+        for (int i = 0; i < batch.length; i++) {
+            int row = random.nextInt(rows);
+            int closestCluster = data.closest(row, centroids, centroidNorms, distances);
+            double closestClusterDist = distances[closestCluster];
+            batch[i] = row;
+            batchClosest[i] = closestCluster;
+            batchError += closestClusterDist;
+            if (assignments[row] != closestCluster) {
+                assignments[row] = closestCluster;
+                moved++;
+            }
+        }
+        distanceEvaluations += (long) batch.length * centroids.length;
+        if (moved > 0)
+            database.getMembership().markChanged();
+        PhaseTimer timer = database.getTimer();
+        timer.mark(Phase.ASSIGN);
+
+        // Gradient step, each centroid moves toward its points by 1 / points seen
+        int columns = data.getColumns();
+        for (int i = 0; i < batch.length; i++) {
+            int c = batchClosest[i];
+            double rate = 1.0 / ++seen[c];
+            for (int attribute = 0; attribute < columns; attribute++)
+                centroids[c][attribute] += rate * (data.get(batch[i], attribute) - centroids[c][attribute]);
+        }
+        timer.mark(Phase.UPDATE);
+
+        // Smooth the estimate
+        double estimate = batchError * rows / batch.length;
+        sumSquaredError = Double.isNaN(sumSquaredError) ? estimate :
+                (1 - SMOOTHING) * sumSquaredError + SMOOTHING * estimate;
+        timer.mark(Phase.SSE);
+        return moved;
+    }
+
+    /**
+     * Stops once the smoothed SSE has not beaten its best by the threshold for several batches in a row
+     *
+     * @param moved     Sampled rows moved by the last batch
+     * @param lastSSE   Smoothed SSE before the last batch
+     * @param threshold Smallest relative improvement worth another batch
+     * @return True to stop
+     */
+    @Override
+    public boolean hasConverged(int moved, double lastSSE, double threshold) {
+        if (sumSquaredError < bestSSE * (1 - threshold)) {
+            bestSSE = sumSquaredError;
+            withoutImprovement = 0;
+        } else
+            withoutImprovement++;
+        return withoutImprovement >= PATIENCE;
+    }
+
+    /**
+     * Assigns every row to its closest centroid so membership and SSE are exact
+     */
+    @Override
+    public void finish() {
+        // Gradient steps moved the centroids in place
+        for (Cluster cluster : database.getClusters())
+            cluster.markMoved();
+        database.applyAssignments(database.findClosestClusters());
+        distanceEvaluations += (long) assignments.length * centroids.length;
+        sumSquaredError = database.calculateSumSquaredErrorInternal();
+    }
+
+    @Override
+    public double getSumSquaredError() {
+        return sumSquaredError;
+    }
+
+    @Override
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+}
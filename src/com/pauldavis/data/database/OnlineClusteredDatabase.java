@@ -0,0 +1,381 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.Cluster;
+import com.pauldavis.data.DistanceKernel;
+import com.pauldavis.data.DistanceKernels;
+import com.pauldavis.data.metrics.ClusterStatistics;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Clusters points as they arrive, one at a time or in batches, without re-running K-Means or keeping points beyond an
+ * optional window. Each point joins its closest centroid and that centroid moves to the new mean (MacQueen's online
+ * K-Means).
+ *
+ * Every cluster keeps a weight, a coordinate sum and a sum of squared norms, so centroids and SSE come straight from
+ * them. Old points can be forgotten two ways, together or alone: a decay factor fades every earlier point's weight each
+ * time a point arrives, and a sliding window drops the oldest point once the window is full. Decay is applied lazily
+ * through one shared scale, so it costs nothing per cluster. A cluster left with no points keeps its last centroid.
+ *
+ * Only one thread may add points at a time, batches spread their assignment over the database's threads
+ */
+public class OnlineClusteredDatabase {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Points per assignment block in a batch
+    private static final int BLOCK_SIZE = 1024;
+    // Shared scale below which the statistics are rescaled
+    private static final double MIN_SCALE = 1e-100;
+
+    // Clusters and attributes
+    private final int clusterCount;
+    private final int columns;
+    // Weight kept each time a point arrives, 1 keeps everything
+    private final double decay;
+    // Threads used to assign batches
+    private final int threads;
+    // Clusters in use, the first points each start one until there are clusterCount
+    private int active;
+    // Current centroid of each cluster
+    private final double[][] centroids;
+    // Statistics in scaled units, multiply by scale for the real weight, sum and squared norm
+    private final double[] weights;
+    private final double[] sums;
+    private final double[] squaredNorms;
+    private double scale = 1;
+    // Points counted by each cluster, its statistics are cleared once this reaches 0
+    private final long[] members;
+    // Sliding window, oldest first from windowStart, each point with its cluster and scaled weight
+    private final int window;
+    private final double[] windowPoints;
+    private final int[] windowClusters;
+    private final double[] windowWeights;
+    private int windowStart;
+    private int windowSize;
+    // Points added so far
+    private long pointsSeen;
+    // Scratch, distance to each centroid
+    private final double[] distances;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an empty database, the first clusterCount points each start a cluster
+     *
+     * @param clusterCount How many clusters to keep
+     * @param columns      Attributes per point
+     * @param decay        Weight kept each time a point arrives, in (0, 1], 1 never fades
+     * @param window       Most recent points counted, 0 for no window
+     * @param threads      Threads used to assign batches
+     */
+    public OnlineClusteredDatabase(int clusterCount, int columns, double decay, int window, int threads) {
+        if (clusterCount < 1 || columns < 1)
+            throw new IllegalArgumentException("Need at least one cluster and one attribute");
+        if (!(decay > 0 && decay <= 1))
+            throw new IllegalArgumentException("Decay must be in (0, 1]: " + decay);
+        if (window < 0)
+            throw new IllegalArgumentException("Window must not be negative: " + window);
+
+        this.clusterCount = clusterCount;
+        this.columns = columns;
+        this.decay = decay;
+        this.window = window;
+        this.threads = Math.max(1, threads);
+        centroids = new double[clusterCount][];
+        weights = new double[clusterCount];
+        sums = new double[clusterCount * columns];
+        squaredNorms = new double[clusterCount];
+        members = new long[clusterCount];
+        windowPoints = new double[window * columns];
+        windowClusters = new int[window];
+        windowWeights = new double[window];
+        distances = new double[clusterCount];
+    }
+
+    /**
+     * Continues from the clusters of a batch database. Its points count as already seen and fade like any other, unless
+     * there is a window, which only ever holds streamed points, then only the centroids are kept
+     *
+     * @param database Database to start from, usually converged
+     * @param decay    Weight kept each time a point arrives, in (0, 1], 1 never fades
+     * @param window   Most recent points counted, 0 for no window
+     */
+    public OnlineClusteredDatabase(AbstractClusteredDatabase database, double decay, int window) {
+        this(database.getClusters().size(), database.getData().getColumns(), decay, window, database.getThreads());
+
+        List<Cluster> clusters = database.getClusters();
+        ClusterStatistics statistics = window == 0 ? database.calculateStatistics() : null;
+        for (int c = 0; c < clusterCount; c++) {
+            centroids[c] = clusters.get(c).getCentroid().clone();
+            if (statistics == null || statistics.getCount(c) == 0) continue;
+            weights[c] = statistics.getCount(c);
+            members[c] = statistics.getCount(c);
+            System.arraycopy(statistics.getSum(c), 0, sums, c * columns, columns);
+            squaredNorms[c] = statistics.getSquaredNorm(c);
+            updateCentroid(c);
+        }
+        active = clusterCount;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Adds one point
+     *
+     * @param point Point, columns long, copied only into the window
+     * @return Cluster the point joined
+     */
+    public int add(double[] point) {
+        int cluster = active < clusterCount ? active : closest(point, distances);
+        fold(point, cluster);
+        return cluster;
+    }
+
+    /**
+     * Adds a batch of points. Every point is assigned against the centroids as they were when the batch arrived, in
+     * parallel, then folded in order, so this is the mini-batch form of adding them one at a time
+     *
+     * @param points Points, each columns long, copied only into the window
+     * @return Cluster each point joined
+     */
+    public int[] addAll(double[][] points) {
+        int[] assigned = new int[points.length];
+        int first = 0;
+
+        // Points that start clusters go one at a time
+        while (active < clusterCount && first < points.length) {
+            assigned[first] = add(points[first]);
+            first++;
+        }
+
+        int start = first;
+        int blocks = (points.length - start + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        BlockTask.run(threads, blocks, block -> {
+            double[] scratch = new double[clusterCount];
+            int end = Math.min(points.length, start + (block + 1) * BLOCK_SIZE);
+            for (int p = start + block * BLOCK_SIZE; p < end; p++)
+                assigned[p] = closest(points[p], scratch);
+        });
+
+        for (int p = start; p < points.length; p++)
+            fold(points[p], assigned[p]);
+        return assigned;
+    }
+
+    /**
+     * Finds the closest centroid to a point without adding it
+     *
+     * @param point Point, columns long
+     * @return Closest cluster
+     * @throws IllegalStateException When no point has been added yet
+     */
+    public int assign(double[] point) {
+        if (active == 0)
+            throw new IllegalStateException("No clusters yet");
+        return closest(point, new double[clusterCount]);
+    }
+
+    /**
+     * SSE of the counted points against the current centroids, each point by its decayed weight
+     *
+     * @return SSE
+     */
+    public double getSumSquaredError() {
+        double error = 0;
+        for (int c = 0; c < active; c++) {
+            if (members[c] == 0) continue;
+            double sumNorm = 0;
+            for (int i = 0; i < columns; i++)
+                sumNorm += sums[c * columns + i] * sums[c * columns + i];
+            error += Math.max(0, squaredNorms[c] - sumNorm / weights[c]) * scale;
+        }
+        return error;
+    }
+
+    /**
+     * Cluster each point in the window joined when it arrived, oldest first
+     *
+     * @return Assignments of the points in the window
+     * @throws IllegalStateException When there is no window, points are not kept then
+     */
+    public int[] getAssignments() {
+        if (window == 0)
+            throw new IllegalStateException("Assignments are only kept for a window");
+        int[] assignments = new int[windowSize];
+        for (int i = 0; i < windowSize; i++)
+            assignments[i] = windowClusters[(windowStart + i) % window];
+        return assignments;
+    }
+
+    /**
+     * Fades earlier points, drops the oldest point when the window is full, then counts the new point and moves the
+     * centroids it changed
+     *
+     * @param point   Point, columns long
+     * @param cluster Cluster it joins
+     */
+    private void fold(double[] point, int cluster) {
+        pointsSeen++;
+        if (decay < 1) {
+            scale *= decay;
+            if (scale < MIN_SCALE)
+                rescale();
+        }
+
+        // Oldest point leaves
+        if (window > 0 && windowSize == window) {
+            int slot = windowStart;
+            remove(windowPoints, slot * columns, windowClusters[slot], windowWeights[slot]);
+            windowStart = (windowStart + 1) % window;
+            windowSize--;
+            if (windowClusters[slot] != cluster)
+                updateCentroid(windowClusters[slot]);
+        }
+
+        // Weight 1 now, in scaled units
+        double weight = 1 / scale;
+        double norm = 0;
+        int sumOffset = cluster * columns;
+        for (int i = 0; i < columns; i++) {
+            double value = point[i];
+            sums[sumOffset + i] += weight * value;
+            norm += value * value;
+        }
+        squaredNorms[cluster] += weight * norm;
+        weights[cluster] += weight;
+        members[cluster]++;
+        if (cluster == active)
+            active++;
+
+        if (window > 0) {
+            int slot = (windowStart + windowSize) % window;
+            System.arraycopy(point, 0, windowPoints, slot * columns, columns);
+            windowClusters[slot] = cluster;
+            windowWeights[slot] = weight;
+            windowSize++;
+        }
+        updateCentroid(cluster);
+    }
+
+    /**
+     * Takes a point back out of its cluster, clearing the statistics once the cluster has no points so rounding never
+     * builds up
+     *
+     * @param point   Point array
+     * @param offset  Where the point starts
+     * @param cluster Cluster it was counted in
+     * @param weight  Scaled weight it was counted with
+     */
+    private void remove(double[] point, int offset, int cluster, double weight) {
+        int sumOffset = cluster * columns;
+        if (--members[cluster] == 0) {
+            Arrays.fill(sums, sumOffset, sumOffset + columns, 0);
+            squaredNorms[cluster] = 0;
+            weights[cluster] = 0;
+            return;
+        }
+        double norm = 0;
+        for (int i = 0; i < columns; i++) {
+            double value = point[offset + i];
+            sums[sumOffset + i] -= weight * value;
+            norm += value * value;
+        }
+        squaredNorms[cluster] -= weight * norm;
+        weights[cluster] -= weight;
+    }
+
+    /**
+     * Folds the shared scale into the statistics before it underflows
+     */
+    private void rescale() {
+        for (int c = 0; c < clusterCount; c++) {
+            weights[c] *= scale;
+            squaredNorms[c] *= scale;
+        }
+        for (int i = 0; i < sums.length; i++)
+            sums[i] *= scale;
+        for (int i = 0; i < windowSize; i++)
+            windowWeights[(windowStart + i) % window] *= scale;
+        scale = 1;
+    }
+
+    /**
+     * Moves a centroid to the weighted mean of its points, a cluster with no points keeps its centroid
+     *
+     * @param cluster Cluster index
+     */
+    private void updateCentroid(int cluster) {
+        if (members[cluster] == 0 || weights[cluster] <= 0)
+            return;
+        if (centroids[cluster] == null)
+            centroids[cluster] = new double[columns];
+        for (int i = 0; i < columns; i++)
+            centroids[cluster][i] = sums[cluster * columns + i] / weights[cluster];
+    }
+
+    /**
+     * Closest active centroid to a point
+     *
+     * @param point     Point, columns long
+     * @param distances Scratch, at least clusterCount long
+     * @return Closest cluster
+     */
+    private int closest(double[] point, double[] distances) {
+        DistanceKernel kernel = DistanceKernels.get();
+        double[][] candidates = active == clusterCount ? centroids : Arrays.copyOf(centroids, active);
+        return kernel.closest(point, 0, candidates, columns, distances);
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    /**
+     * @return Copy of each centroid, null for clusters not started yet
+     */
+    public double[][] getCentroids() {
+        double[][] copy = new double[clusterCount][];
+        for (int c = 0; c < clusterCount; c++)
+            copy[c] = centroids[c] == null ? null : centroids[c].clone();
+        return copy;
+    }
+
+    /**
+     * @param cluster Cluster index
+     * @return Decayed weight of the points counted by the cluster
+     */
+    public double getWeight(int cluster) {
+        return weights[cluster] * scale;
+    }
+
+    /**
+     * @param cluster Cluster index
+     * @return Points counted by the cluster, within the window when there is one
+     */
+    public long getMemberCount(int cluster) {
+        return members[cluster];
+    }
+
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    public int getActiveClusters() {
+        return active;
+    }
+
+    public long getPointsSeen() {
+        return pointsSeen;
+    }
+}
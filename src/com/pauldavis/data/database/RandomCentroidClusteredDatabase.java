@@ -1,11 +1,8 @@
 package com.pauldavis.data.database;
 
-import com.pauldavis.data.Cluster;
-import com.pauldavis.data.Point;
+import com.pauldavis.data.DataMatrix;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 
 public class RandomCentroidClusteredDatabase extends AbstractClusteredDatabase {
@@ -20,10 +17,33 @@ public class RandomCentroidClusteredDatabase extends AbstractClusteredDatabase {
      * @param rawData      Raw input
      * @param clusterCount How many clusters to create
      */
-    public RandomCentroidClusteredDatabase(double[][] rawData, int clusterCount) {
+    public RandomCentroidClusteredDatabase(DataMatrix rawData, int clusterCount) {
         super(rawData, clusterCount);
     }
 
+    /**
+     * Generate a cluster database, will create random initial points
+     *
+     * @param rawData      Raw input
+     * @param clusterCount How many clusters to create
+     * @param threads      Threads used for the assignment step
+     */
+    public RandomCentroidClusteredDatabase(DataMatrix rawData, int clusterCount, int threads) {
+        super(rawData, clusterCount, threads);
+    }
+
+    /**
+     * Generate a cluster database, will create random initial points from the given source
+     *
+     * @param rawData      Raw input
+     * @param clusterCount How many clusters to create
+     * @param threads      Threads used for the assignment step
+     * @param random       Source of the initial points
+     */
+    public RandomCentroidClusteredDatabase(DataMatrix rawData, int clusterCount, int threads, SplittableRandom random) {
+        super(rawData, clusterCount, threads, random);
+    }
+
 
     /*******************************************************************************************************************
      * Abstract Implementation                                                                                         *
@@ -31,57 +51,24 @@ public class RandomCentroidClusteredDatabase extends AbstractClusteredDatabase {
 
     /**
      * Will create clusters and assign random centroids then distribute
-     * @param rawData Data to cluster, first is entry, second is array of attributes
+     * @param rawData Data to cluster, one row per entry
      * @param clusterCount How many clusters to create
      * @return Initial SSE
      */
     @Override
-    public double initialize(double[][] rawData, int clusterCount) {
-        Random rand = new Random();
-        List<Integer> randomIndices = new ArrayList<>();
+    public double initialize(DataMatrix rawData, int clusterCount) {
+        int[] randomIndices = new int[clusterCount];
+        boolean[] chosen = new boolean[rawData.getRows()];
 
         // Generate random points, making sure no duplicates
         for(int i = 0; i < clusterCount; i ++) {
-            int test = rand.nextInt(rawData.length);
-            while(randomIndices.contains(test))
-                test = rand.nextInt(rawData.length);
-            randomIndices.add(test);
-        }
-
-        // Find random clusters
-        int label = 0;
-        for(int point : randomIndices) {
-            clusters.add(new Cluster(rawData[point], point, label));
-            label++;
-        }
-
-        // Assign to clusters
-        for(int i = 0; i < rawData.length; i++) {
-            // Don't want to check centroids, better logic after all made just check these for now
-            if(randomIndices.contains(i))
-                continue;
-
-            // Values to track best cluster
-            double closestClusterDist = Double.MAX_VALUE;
-            Cluster closestCluster = null;
-
-            // Loop Clusters
-            for(Cluster cluster : clusters) {
-                // Test distance to this cluster
-                double tempDistance = cluster.errorFromCentroid(new Point(rawData[i], i));
-
-                // If better than anything seen, this is best option
-                if(tempDistance < closestClusterDist) {
-                    closestClusterDist = tempDistance;
-                    closestCluster = cluster;
-                }
-            }
-
-            // Assign point to what was found to be closest
-            assert closestCluster != null;
-            closestCluster.addChild(new Point(rawData[i], i));
+            int test = random.nextInt(rawData.getRows());
+            while(chosen[test])
+                test = random.nextInt(rawData.getRows());
+            chosen[test] = true;
+            randomIndices[i] = test;
         }
 
-        return calculateSumSquaredErrorInternal();
+        return seedClusters(randomIndices);
     }
 }
@@ -0,0 +1,104 @@
+package com.pauldavis.data.database;
+
+import com.pauldavis.data.Cluster;
+import com.pauldavis.data.DataMatrix;
+
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Warm start for K + 1 clusters from a solution with K. Every centroid of the solution is kept and the cluster with the
+ * largest SSE is split: one of its points, drawn with probability proportional to its squared distance from the
+ * cluster's centroid, becomes the new centroid. Every row then joins its closest centroid, so the first iteration
+ * starts close to the K solution instead of from scratch
+ */
+public class SplitClusteredDatabase extends AbstractClusteredDatabase {
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Generate a cluster database with one more cluster than a solution over the same data
+     *
+     * @param parent  Solution to split, usually converged, left unchanged
+     * @param threads Threads used for the assignment step
+     * @param random  Source of the new centroid
+     */
+    public SplitClusteredDatabase(AbstractClusteredDatabase parent, int threads, SplittableRandom random) {
+        super(parent.getData(), parent.getClusters().size() + 1, threads, random);
+        initialSSE = split(parent.getClusters());
+    }
+
+
+    /*******************************************************************************************************************
+     * Abstract Implementation                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Clusters come from the parent, which is only known once the base constructor returns, so they are built there
+     * @param rawData Data to cluster, one row per entry
+     * @param clusterCount How many clusters to create
+     * @return 0, the constructor sets the initial SSE
+     */
+    @Override
+    public double initialize(DataMatrix rawData, int clusterCount) {
+        return 0;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Copies the parent's centroids, adds one drawn from its worst cluster and distributes
+     * @param parentClusters Clusters of the solution to split
+     * @return Initial SSE
+     */
+    private double split(List<Cluster> parentClusters) {
+        // Worst cluster by SSE
+        int worst = 0;
+        double worstError = -1;
+        for (int c = 0; c < parentClusters.size(); c++) {
+            Cluster cluster = parentClusters.get(c);
+            clusters.add(new Cluster(data, membership, cluster.getCentroid().clone(), c));
+            double error = cluster.calculateSquaredError();
+            if (error > worstError) {
+                worst = c;
+                worstError = error;
+            }
+        }
+
+        int seed = worstError > 0 ? sample(parentClusters.get(worst), worstError) : -1;
+        // Every cluster sits on its centroid, any row will do
+        if (seed < 0)
+            seed = random.nextInt(data.getRows());
+        clusters.add(new Cluster(data, membership, data.getRow(seed), clusters.size()));
+
+        rebuildClusters();
+        return calculateSumSquaredErrorInternal();
+    }
+
+    /**
+     * Draws a member of a cluster with probability proportional to its squared distance from the centroid
+     * @param cluster Cluster to draw from
+     * @param total   SSE of the cluster
+     * @return Row drawn, or -1 if rounding left nothing
+     */
+    private int sample(Cluster cluster, double total) {
+        double target = random.nextDouble() * total;
+        double cumulative = 0;
+        int last = -1;
+        for (int child = 0; child < cluster.getChildCount(); child++) {
+            int row = cluster.getChild(child);
+            double distance = cluster.errorFromCentroid(row);
+            if (distance <= 0) continue;
+            cumulative += distance;
+            last = row;
+            if (cumulative > target)
+                return row;
+        }
+        return last;
+    }
+}
@@ -0,0 +1,259 @@
+package com.pauldavis.data.distributed;
+
+import com.pauldavis.data.DataMatrix;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Messages between a coordinator and its workers. The coordinator opens with MAGIC and VERSION, then every request is
+ * a one byte type followed by its fields and every reply starts with OK, or ERROR and a message. Numbers are big endian
+ * and arrays are sent whole, in chunks of bytes rather than one value at a time
+ */
+final class Protocol {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Opening of every connection
+    static final int MAGIC = 0x4B4D4E53;
+    static final int VERSION = 1;
+
+    // Requests
+    static final byte LOAD = 1;
+    static final byte START = 2;
+    static final byte ITERATE = 3;
+    static final byte FETCH = 4;
+    static final byte END = 5;
+
+    // Replies
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    // How a shard's rows are stored
+    private static final byte DOUBLE_ROWS = 0;
+    private static final byte FLOAT_ROWS = 1;
+    private static final byte SPARSE_ROWS = 2;
+
+    // Values converted per write or read
+    private static final int CHUNK = 8192;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private Protocol() {
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Writes consecutive rows of a matrix in its own precision, or as compressed rows if it is sparse
+     *
+     * @param out   Stream to write
+     * @param data  Matrix, may be mapped
+     * @param first First row
+     * @param rows  Rows to write
+     * @throws IOException When the stream fails
+     */
+    static void writeMatrix(DataOutputStream out, DataMatrix data, int first, int rows) throws IOException {
+        int columns = data.getColumns();
+        if (data.isSparse()) {
+            int[] rowStarts = data.getRowStarts();
+            int start = rowStarts[first];
+            int stored = rowStarts[first + rows] - start;
+            out.writeByte(SPARSE_ROWS);
+            out.writeInt(rows);
+            out.writeInt(columns);
+            out.writeInt(stored);
+            int[] starts = new int[rows + 1];
+            for (int r = 0; r <= rows; r++)
+                starts[r] = rowStarts[first + r] - start;
+            writeInts(out, starts, 0, starts.length);
+            writeInts(out, data.getIndices(), start, stored);
+            writeDoubles(out, data.getNonzeros(), start, stored);
+            return;
+        }
+
+        out.writeByte(data.isSinglePrecision() ? FLOAT_ROWS : DOUBLE_ROWS);
+        out.writeInt(rows);
+        out.writeInt(columns);
+        int chunkRows = Math.max(1, CHUNK / Math.max(1, columns));
+        double[] buffer = new double[chunkRows * columns];
+        for (int row = first; row < first + rows; row += chunkRows) {
+            int count = Math.min(chunkRows, first + rows - row);
+            data.copyRows(row, count, buffer);
+            if (data.isSinglePrecision())
+                writeFloats(out, buffer, count * columns);
+            else
+                writeDoubles(out, buffer, 0, count * columns);
+        }
+    }
+
+    /**
+     * Reads rows written by writeMatrix into a matrix on the heap
+     *
+     * @param in Stream to read
+     * @return Matrix with the same storage as the one written, other than mapped which becomes heap
+     * @throws IOException When the stream fails or holds an unknown layout
+     */
+    static DataMatrix readMatrix(DataInputStream in) throws IOException {
+        byte layout = in.readByte();
+        int rows = in.readInt();
+        int columns = in.readInt();
+        if (layout == SPARSE_ROWS) {
+            int stored = in.readInt();
+            int[] rowStarts = new int[rows + 1];
+            int[] indices = new int[stored];
+            double[] nonzeros = new double[stored];
+            readInts(in, rowStarts, 0, rowStarts.length);
+            readInts(in, indices, 0, stored);
+            readDoubles(in, nonzeros, 0, stored);
+            return new DataMatrix(columns, rowStarts, indices, nonzeros);
+        }
+        if (layout != DOUBLE_ROWS && layout != FLOAT_ROWS)
+            throw new IOException("Unknown matrix layout: " + layout);
+
+        DataMatrix data = new DataMatrix(rows, columns, layout == FLOAT_ROWS);
+        if (layout == DOUBLE_ROWS)
+            readDoubles(in, data.getValues(), 0, rows * columns);
+        else
+            readFloats(in, data.getFloatValues(), rows * columns);
+        return data;
+    }
+
+    /**
+     * Writes part of an array
+     *
+     * @param out    Stream to write
+     * @param values Array holding the values
+     * @param offset First value
+     * @param length Values to write
+     * @throws IOException When the stream fails
+     */
+    static void writeDoubles(DataOutputStream out, double[] values, int offset, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(Math.min(length, CHUNK) * Double.BYTES);
+        for (int start = 0; start < length; start += CHUNK) {
+            int count = Math.min(CHUNK, length - start);
+            bytes.clear();
+            bytes.asDoubleBuffer().put(values, offset + start, count);
+            out.write(bytes.array(), 0, count * Double.BYTES);
+        }
+    }
+
+    /**
+     * Reads into part of an array
+     *
+     * @param in     Stream to read
+     * @param values Array to fill
+     * @param offset First value
+     * @param length Values to read
+     * @throws IOException When the stream fails
+     */
+    static void readDoubles(DataInputStream in, double[] values, int offset, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(Math.min(length, CHUNK) * Double.BYTES);
+        for (int start = 0; start < length; start += CHUNK) {
+            int count = Math.min(CHUNK, length - start);
+            in.readFully(bytes.array(), 0, count * Double.BYTES);
+            bytes.clear();
+            bytes.asDoubleBuffer().get(values, offset + start, count);
+        }
+    }
+
+    /**
+     * Writes part of an array
+     *
+     * @param out    Stream to write
+     * @param values Array holding the values
+     * @param offset First value
+     * @param length Values to write
+     * @throws IOException When the stream fails
+     */
+    static void writeInts(DataOutputStream out, int[] values, int offset, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(Math.min(length, CHUNK) * Integer.BYTES);
+        for (int start = 0; start < length; start += CHUNK) {
+            int count = Math.min(CHUNK, length - start);
+            bytes.clear();
+            bytes.asIntBuffer().put(values, offset + start, count);
+            out.write(bytes.array(), 0, count * Integer.BYTES);
+        }
+    }
+
+    /**
+     * Reads into part of an array
+     *
+     * @param in     Stream to read
+     * @param values Array to fill
+     * @param offset First value
+     * @param length Values to read
+     * @throws IOException When the stream fails
+     */
+    static void readInts(DataInputStream in, int[] values, int offset, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(Math.min(length, CHUNK) * Integer.BYTES);
+        for (int start = 0; start < length; start += CHUNK) {
+            int count = Math.min(CHUNK, length - start);
+            in.readFully(bytes.array(), 0, count * Integer.BYTES);
+            bytes.clear();
+            bytes.asIntBuffer().get(values, offset + start, count);
+        }
+    }
+
+    /**
+     * Writes widened floats back as floats, which is exact
+     *
+     * @param out    Stream to write
+     * @param values Values that all fit in a float
+     * @param length Values to write
+     * @throws IOException When the stream fails
+     */
+    private static void writeFloats(DataOutputStream out, double[] values, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(Math.min(length, CHUNK) * Float.BYTES);
+        for (int start = 0; start < length; start += CHUNK) {
+            int count = Math.min(CHUNK, length - start);
+            bytes.clear();
+            for (int i = 0; i < count; i++)
+                bytes.putFloat((float) values[start + i]);
+            out.write(bytes.array(), 0, count * Float.BYTES);
+        }
+    }
+
+    /**
+     * Reads floats
+     *
+     * @param in     Stream to read
+     * @param values Array to fill from the start
+     * @param length Values to read
+     * @throws IOException When the stream fails
+     */
+    private static void readFloats(DataInputStream in, float[] values, int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(Math.min(length, CHUNK) * Float.BYTES);
+        for (int start = 0; start < length; start += CHUNK) {
+            int count = Math.min(CHUNK, length - start);
+            in.readFully(bytes.array(), 0, count * Float.BYTES);
+            bytes.clear();
+            bytes.asFloatBuffer().get(values, start, count);
+        }
+    }
+
+    /**
+     * Reads the start of a reply, turning an error into an exception
+     *
+     * @param in     Stream to read
+     * @param worker Worker the reply is from, for the message
+     * @throws IOException When the worker replied with an error or the stream fails
+     */
+    static void readReply(DataInputStream in, String worker) throws IOException {
+        byte reply = in.readByte();
+        if (reply == ERROR)
+            throw new IOException("Worker " + worker + " failed: " + in.readUTF());
+        if (reply != OK)
+            throw new IOException("Worker " + worker + " sent an unknown reply: " + reply);
+    }
+}
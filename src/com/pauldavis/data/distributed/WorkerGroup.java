@@ -0,0 +1,284 @@
+package com.pauldavis.data.distributed;
+
+import com.pauldavis.data.DataMatrix;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coordinator side of distributed clustering, the connections to every worker. Rows are cut into shards on the block
+ * grid, in order, as evenly as whole blocks allow, and each worker is sent its shard once when the group connects. Runs
+ * share the group, a request goes to every worker before any reply is read, so workers always run side by side, while
+ * runs take turns.
+ *
+ * Block results come back in worker order and so in row order, which lets an iteration merge them exactly as the single
+ * process engine does. A worker that fails leaves the group unusable, the job has to start over
+ */
+public class WorkerGroup implements Closeable {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Ids handed to runs, unique within the process
+    private static final AtomicInteger RUN_IDS = new AtomicInteger();
+
+    // Connection to each worker, in shard order
+    private final Worker[] workers;
+    // Shape of the whole data set
+    private final int rows;
+    private final int columns;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Connects to every worker and sends each its shard
+     *
+     * @param addresses Workers, in the order rows are handed out
+     * @param data      Normalized points, the same ones every run clusters
+     * @param kernel    Distance kernel the workers must use, scalar or vector
+     * @param blockSize Rows per block of the engine the results must match
+     * @throws IOException When a worker cannot be reached or refuses its shard
+     */
+    public WorkerGroup(List<InetSocketAddress> addresses, DataMatrix data, String kernel, int blockSize)
+            throws IOException {
+        this.rows = data.getRows();
+        this.columns = data.getColumns();
+
+        // Whole blocks per worker, the first ones take one extra
+        int blocks = (rows + blockSize - 1) / blockSize;
+        if (addresses.isEmpty() || addresses.size() > Math.max(1, blocks))
+            throw new IllegalArgumentException("Need between 1 and " + Math.max(1, blocks) + " workers for " + rows +
+                    " rows, got " + addresses.size());
+        workers = new Worker[addresses.size()];
+        int firstBlock = 0;
+        try {
+            for (int w = 0; w < workers.length; w++) {
+                int shardBlocks = blocks / workers.length + (w < blocks % workers.length ? 1 : 0);
+                int first = Math.min(rows, firstBlock * blockSize);
+                int end = Math.min(rows, (firstBlock + shardBlocks) * blockSize);
+                workers[w] = new Worker(addresses.get(w), first, end - first, shardBlocks);
+                firstBlock += shardBlocks;
+            }
+
+            for (Worker worker : workers) {
+                worker.out.writeByte(Protocol.LOAD);
+                worker.out.writeUTF(kernel);
+                worker.out.writeInt(blockSize);
+                Protocol.writeMatrix(worker.out, data, worker.first, worker.rows);
+                worker.out.flush();
+            }
+            for (Worker worker : workers)
+                Protocol.readReply(worker.in, worker.name);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Starts a run on every worker
+     *
+     * @param assignments Cluster index of each row to start from
+     * @return Id of the run
+     * @throws IOException When a worker fails
+     */
+    public synchronized int start(int[] assignments) throws IOException {
+        int id = RUN_IDS.incrementAndGet();
+        for (Worker worker : workers) {
+            worker.out.writeByte(Protocol.START);
+            worker.out.writeInt(id);
+            worker.out.writeInt(worker.rows);
+            Protocol.writeInts(worker.out, assignments, worker.first, worker.rows);
+            worker.out.flush();
+        }
+        for (Worker worker : workers)
+            Protocol.readReply(worker.in, worker.name);
+        return id;
+    }
+
+    /**
+     * Runs one assignment pass of a run on every worker, every block's sums and SSE are handed to the pass in row
+     * order
+     *
+     * @param id        Run
+     * @param centroids Centroid of every cluster
+     * @param pass      Merges the results
+     * @throws IOException When a worker fails
+     */
+    public synchronized void iterate(int id, double[][] centroids, Pass pass) throws IOException {
+        for (Worker worker : workers) {
+            worker.out.writeByte(Protocol.ITERATE);
+            worker.out.writeInt(id);
+            worker.out.writeInt(centroids.length);
+            worker.out.writeInt(columns);
+            for (double[] centroid : centroids)
+                Protocol.writeDoubles(worker.out, centroid, 0, columns);
+            worker.out.flush();
+        }
+
+        int clusterCount = centroids.length;
+        double[] sums = new double[clusterCount * columns];
+        int[] counts = new int[clusterCount];
+        boolean[] changed = new boolean[clusterCount];
+        for (Worker worker : workers) {
+            Protocol.readReply(worker.in, worker.name);
+            for (int b = 0; b < worker.blocks; b++) {
+                Protocol.readDoubles(worker.in, sums, 0, sums.length);
+                pass.mergeBlock(sums, worker.in.readDouble());
+            }
+            Protocol.readInts(worker.in, counts, 0, clusterCount);
+            for (int c = 0; c < clusterCount; c++)
+                changed[c] = worker.in.readBoolean();
+            pass.mergeShard(counts, changed, worker.in.readInt());
+        }
+    }
+
+    /**
+     * Gathers where every row of a run ended up
+     *
+     * @param id          Run
+     * @param assignments Filled with the cluster index of each row
+     * @throws IOException When a worker fails
+     */
+    public synchronized void fetch(int id, int[] assignments) throws IOException {
+        for (Worker worker : workers) {
+            worker.out.writeByte(Protocol.FETCH);
+            worker.out.writeInt(id);
+            worker.out.flush();
+        }
+        for (Worker worker : workers) {
+            Protocol.readReply(worker.in, worker.name);
+            Protocol.readInts(worker.in, assignments, worker.first, worker.rows);
+        }
+    }
+
+    /**
+     * Lets workers drop a finished run
+     *
+     * @param id Run
+     * @throws IOException When a worker fails
+     */
+    public synchronized void end(int id) throws IOException {
+        for (Worker worker : workers) {
+            worker.out.writeByte(Protocol.END);
+            worker.out.writeInt(id);
+            worker.out.flush();
+        }
+        for (Worker worker : workers)
+            Protocol.readReply(worker.in, worker.name);
+    }
+
+    /**
+     * Disconnects from every worker, they keep running for the next coordinator
+     */
+    @Override
+    public synchronized void close() {
+        for (Worker worker : workers) {
+            if (worker == null) continue;
+            try {
+                worker.socket.close();
+            } catch (IOException ignored) {
+                // Nothing left to send
+            }
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+
+    /*******************************************************************************************************************
+     * Passes                                                                                                          *
+     *******************************************************************************************************************/
+
+    /**
+     * Takes the results of one pass as they arrive
+     */
+    public interface Pass {
+        /**
+         * One block's results, blocks arrive in row order
+         *
+         * @param sums            Coordinate sums, cluster c lives in [c * columns, (c + 1) * columns), reused after
+         * @param sumSquaredError SSE of the block
+         */
+        void mergeBlock(double[] sums, double sumSquaredError);
+
+        /**
+         * One worker's totals, after its blocks
+         *
+         * @param counts  Member count of each cluster over the shard, reused after
+         * @param changed Clusters that gained or lost a row, reused after
+         * @param moved   Rows that changed cluster
+         */
+        void mergeShard(int[] counts, boolean[] changed, int moved);
+    }
+
+
+    /*******************************************************************************************************************
+     * Workers                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Connection to one worker and the shard it holds
+     */
+    private static class Worker {
+        private final String name;
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        // Rows of the shard
+        private final int first;
+        private final int rows;
+        // Blocks of the shard
+        private final int blocks;
+
+        private Worker(InetSocketAddress address, int first, int rows, int blocks) throws IOException {
+            this.name = address.getHostString() + ":" + address.getPort();
+            this.first = first;
+            this.rows = rows;
+            this.blocks = blocks;
+            socket = new Socket();
+            try {
+                socket.connect(address.isUnresolved() ?
+                        new InetSocketAddress(address.getHostString(), address.getPort()) : address);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(Protocol.MAGIC);
+                out.writeInt(Protocol.VERSION);
+                out.flush();
+                Protocol.readReply(in, name);
+            } catch (IOException e) {
+                socket.close();
+                throw new IOException("Cannot reach worker " + name + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package com.pauldavis.data.distributed;
+
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.DistanceKernels;
+import com.pauldavis.data.database.BlockAccumulator;
+import com.pauldavis.data.database.BlockTask;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Worker side of distributed clustering. Each coordinator that connects sends one shard of rows, starting on a block
+ * boundary, then drives any number of runs over it. For every iteration the worker assigns its rows against the
+ * centroids it is sent and replies with the coordinate sums and SSE of each block, plus counts, changed clusters and
+ * moves over the whole shard. Rows never go back to the coordinator, only assignments once a run is done.
+ *
+ * Blocks are worked with the engines' BlockAccumulator, so the coordinator can merge them in the fused engine's order.
+ * The distance kernel is chosen for the whole process by the first coordinator, one asking for another is refused
+ */
+public class WorkerServer implements Closeable {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Kernel the first coordinator asked for, the selection is process wide so every later coordinator must match it
+    private static String selectedKernel;
+
+    // Port to listen on, 0 picks a free one
+    private final int port;
+    // Threads used for the blocks of a shard
+    private final int threads;
+    // Where sessions are reported, null to stay quiet
+    private final PrintStream log;
+    // Open port, null until open
+    private ServerSocket server;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates a quiet worker, nothing is opened until open or serve
+     *
+     * @param port    Port to listen on, 0 picks a free one
+     * @param threads Threads used for the blocks of a shard
+     */
+    public WorkerServer(int port, int threads) {
+        this(port, threads, null);
+    }
+
+    /**
+     * Creates a worker, nothing is opened until open or serve
+     *
+     * @param port    Port to listen on, 0 picks a free one
+     * @param threads Threads used for the blocks of a shard
+     * @param log     Where loads and coordinators coming and going are reported, null to stay quiet
+     */
+    public WorkerServer(int port, int threads, PrintStream log) {
+        this.port = port;
+        this.threads = Math.max(1, threads);
+        this.log = log;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Opens the port, coordinators can connect as soon as this returns
+     *
+     * @return Port listened on
+     * @throws IOException When the port cannot be opened
+     */
+    public synchronized int open() throws IOException {
+        if (server == null)
+            server = new ServerSocket(port);
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts coordinators until closed, each on its own thread, opening the port first if needed
+     *
+     * @throws IOException When the port cannot be opened or fails
+     */
+    public void serve() throws IOException {
+        open();
+        while (true) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed())
+                    return;
+                throw e;
+            }
+            Thread session = new Thread(new Session(socket), "worker-" + socket.getRemoteSocketAddress());
+            session.setDaemon(true);
+            session.start();
+        }
+    }
+
+    /**
+     * Stops accepting coordinators, sessions already open carry on until their coordinator disconnects
+     */
+    @Override
+    public synchronized void close() {
+        if (server == null)
+            return;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+            // Nothing left to accept
+        }
+    }
+
+
+    /**
+     * Reports what a session did, when there is a log
+     *
+     * @param message What happened
+     */
+    private void log(String message) {
+        if (log != null)
+            log.println(message);
+    }
+
+    /**
+     * Selects the kernel for the whole process on the first load, later loads must ask for the same one
+     *
+     * @param kernel scalar or vector
+     * @throws IllegalStateException When another coordinator already chose a different kernel, or it cannot load
+     */
+    private static synchronized void selectKernel(String kernel) {
+        if (selectedKernel == null) {
+            DistanceKernels.select(kernel);
+            selectedKernel = kernel;
+        } else if (!selectedKernel.equals(kernel))
+            throw new IllegalStateException("Worker already uses the " + selectedKernel + " kernel, not " + kernel);
+    }
+
+
+    /*******************************************************************************************************************
+     * Sessions                                                                                                        *
+     *******************************************************************************************************************/
+
+    /**
+     * One coordinator connection and the shard it sent
+     */
+    private class Session implements Runnable {
+        private final Socket socket;
+        // Rows of this worker and the block grid they are split on
+        private DataMatrix shard;
+        private int blockSize;
+        private int blockCount;
+        // Runs in progress, by id
+        private final Map<Integer, Run> runs = new HashMap<>();
+
+        private Session(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            String coordinator = String.valueOf(socket.getRemoteSocketAddress());
+            try (Socket connection = socket;
+                 DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+                connection.setTcpNoDelay(true);
+                if (in.readInt() != Protocol.MAGIC || in.readInt() != Protocol.VERSION) {
+                    reply(out, "Not a coordinator of this version");
+                    return;
+                }
+                out.writeByte(Protocol.OK);
+                out.flush();
+
+                while (true) {
+                    byte request;
+                    try {
+                        request = in.readByte();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    handle(request, in, out);
+                    out.flush();
+                }
+                log("Coordinator " + coordinator + " done");
+            } catch (IOException e) {
+                log("Coordinator " + coordinator + " lost: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Reads one request in full, then answers it
+         *
+         * @param request Request type
+         * @param in      Stream from the coordinator
+         * @param out     Stream to the coordinator
+         * @throws IOException When a stream fails or the request is unknown
+         */
+        private void handle(byte request, DataInputStream in, DataOutputStream out) throws IOException {
+            switch (request) {
+                case Protocol.LOAD: {
+                    String kernel = in.readUTF();
+                    blockSize = in.readInt();
+                    shard = Protocol.readMatrix(in);
+                    blockCount = (shard.getRows() + blockSize - 1) / blockSize;
+                    runs.clear();
+                    try {
+                        selectKernel(kernel);
+                    } catch (IllegalArgumentException | IllegalStateException e) {
+                        reply(out, e.getMessage());
+                        return;
+                    }
+                    log("Loaded " + shard.getRows() + " rows of " + shard.getColumns() + " attributes");
+                    out.writeByte(Protocol.OK);
+                    return;
+                }
+                case Protocol.START: {
+                    int id = in.readInt();
+                    int rows = in.readInt();
+                    int[] assignments = new int[rows];
+                    Protocol.readInts(in, assignments, 0, rows);
+                    if (shard == null || rows != shard.getRows()) {
+                        reply(out, "Run " + id + " does not match the loaded shard");
+                        return;
+                    }
+                    runs.put(id, new Run(assignments));
+                    out.writeByte(Protocol.OK);
+                    return;
+                }
+                case Protocol.ITERATE: {
+                    int id = in.readInt();
+                    int clusterCount = in.readInt();
+                    int columns = in.readInt();
+                    double[][] centroids = new double[clusterCount][columns];
+                    for (double[] centroid : centroids)
+                        Protocol.readDoubles(in, centroid, 0, columns);
+                    Run run = runs.get(id);
+                    if (run == null || columns != shard.getColumns()) {
+                        reply(out, "Unknown run " + id);
+                        return;
+                    }
+                    run.iterate(centroids);
+                    out.writeByte(Protocol.OK);
+                    run.write(out);
+                    return;
+                }
+                case Protocol.FETCH: {
+                    Run run = runs.get(in.readInt());
+                    if (run == null) {
+                        reply(out, "Unknown run");
+                        return;
+                    }
+                    out.writeByte(Protocol.OK);
+                    Protocol.writeInts(out, run.assignments, 0, run.assignments.length);
+                    return;
+                }
+                case Protocol.END:
+                    runs.remove(in.readInt());
+                    out.writeByte(Protocol.OK);
+                    return;
+                default:
+                    throw new IOException("Unknown request: " + request);
+            }
+        }
+
+        /**
+         * Replies with an error
+         *
+         * @param out     Stream to the coordinator
+         * @param message What went wrong
+         * @throws IOException When the stream fails
+         */
+        private void reply(DataOutputStream out, String message) throws IOException {
+            out.writeByte(Protocol.ERROR);
+            out.writeUTF(String.valueOf(message));
+        }
+
+
+        /***************************************************************************************************************
+         * Runs                                                                                                        *
+         ***************************************************************************************************************/
+
+        /**
+         * Assignments of one run over the shard and the accumulators of each block
+         */
+        private class Run {
+            // Cluster index of each row of the shard
+            private final int[] assignments;
+            // Accumulators of each block, sized on the first iteration
+            private BlockAccumulator[] blocks;
+            // Merged over the shard
+            private int[] counts;
+            private boolean[] changed;
+            private int moved;
+
+            private Run(int[] assignments) {
+                this.assignments = assignments;
+            }
+
+            /**
+             * Assigns and accumulates every block against the same centroids
+             *
+             * @param centroids Centroid of every cluster
+             */
+            private void iterate(double[][] centroids) {
+                int clusterCount = centroids.length;
+                if (blocks == null || counts.length != clusterCount) {
+                    blocks = new BlockAccumulator[blockCount];
+                    for (int b = 0; b < blockCount; b++)
+                        blocks[b] = new BlockAccumulator(clusterCount, shard.getColumns());
+                    counts = new int[clusterCount];
+                    changed = new boolean[clusterCount];
+                }
+
+                double[] centroidNorms = shard.squaredNorms(centroids, null);
+                int rows = shard.getRows();
+                BlockTask.run(threads, blocks.length, b -> {
+                    blocks[b].clear();
+                    blocks[b].assignRows(shard, b * blockSize, Math.min(rows, (b + 1) * blockSize), assignments,
+                            centroids, centroidNorms);
+                });
+
+                // Counts, changes and moves are exact in any order
+                Arrays.fill(counts, 0);
+                Arrays.fill(changed, false);
+                moved = 0;
+                for (BlockAccumulator block : blocks) {
+                    for (int c = 0; c < clusterCount; c++) {
+                        counts[c] += block.getCounts()[c];
+                        changed[c] |= block.getChanged()[c];
+                    }
+                    moved += block.getMoved();
+                }
+            }
+
+            /**
+             * Writes the sums and SSE of every block in order, then the shard's counts, changes and moves
+             *
+             * @param out Stream to the coordinator
+             * @throws IOException When the stream fails
+             */
+            private void write(DataOutputStream out) throws IOException {
+                for (BlockAccumulator block : blocks) {
+                    double[] sums = block.getSums();
+                    Protocol.writeDoubles(out, sums, 0, sums.length);
+                    out.writeDouble(block.getSumSquaredError());
+                }
+                Protocol.writeInts(out, counts, 0, counts.length);
+                for (boolean change : changed)
+                    out.writeBoolean(change);
+                out.writeInt(moved);
+            }
+        }
+    }
+}
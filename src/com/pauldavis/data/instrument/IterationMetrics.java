@@ -0,0 +1,72 @@
+package com.pauldavis.data.instrument;
+
+/**
+ * What one iteration did and how long each part took
+ */
+public class IterationMetrics {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Which iteration, starting at 1
+    private final int iteration;
+    // Nanoseconds per phase, indexed by ordinal
+    private final long[] nanos;
+    // Point to centroid distances calculated
+    private final long distanceEvaluations;
+    // Points that changed cluster
+    private final int moved;
+    // SSE after the iteration
+    private final double sumSquaredError;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Records an iteration
+     *
+     * @param iteration           Which iteration, starting at 1
+     * @param timer               Timer restarted when the iteration began
+     * @param distanceEvaluations Point to centroid distances calculated
+     * @param moved               Points that changed cluster
+     * @param sumSquaredError     SSE after the iteration
+     */
+    public IterationMetrics(int iteration, PhaseTimer timer, long distanceEvaluations, int moved,
+                            double sumSquaredError) {
+        this.iteration = iteration;
+        this.distanceEvaluations = distanceEvaluations;
+        this.moved = moved;
+        this.sumSquaredError = sumSquaredError;
+        nanos = new long[Phase.values().length];
+        for (Phase phase : Phase.values())
+            nanos[phase.ordinal()] = timer.get(phase);
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public int getIteration() {
+        return iteration;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    public int getMoved() {
+        return moved;
+    }
+
+    public double getSumSquaredError() {
+        return sumSquaredError;
+    }
+}
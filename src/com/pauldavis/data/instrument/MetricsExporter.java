@@ -0,0 +1,177 @@
+package com.pauldavis.data.instrument;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Writes job metrics as CSV or JSON, picked by the file extension.
+ *
+ * CSV has one row per scope: a setup row for load, normalize and reduce, one row per run with its totals and one row
+ * per iteration, all with the same columns. JSON nests iterations under their run. Times are in nanoseconds
+ */
+public class MetricsExporter {
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private MetricsExporter() {
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Writes metrics to a file
+     *
+     * @param fileName Ends in .csv or .json
+     * @param setup    Load, normalize and reduce times
+     * @param runs     Every run, in run order
+     * @throws IOException When the file cannot be written
+     */
+    public static void write(String fileName, RunMetrics setup, List<RunMetrics> runs) throws IOException {
+        String text;
+        if (fileName.endsWith(".csv"))
+            text = toCsv(setup, runs);
+        else if (fileName.endsWith(".json"))
+            text = toJson(setup, runs);
+        else
+            throw new IllegalArgumentException("Metrics file must end in .csv or .json: " + fileName);
+
+        try (Writer writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            writer.write(text);
+        }
+    }
+
+    /**
+     * Formats metrics as CSV
+     *
+     * @param setup Load, normalize and reduce times
+     * @param runs  Every run, in run order
+     * @return CSV text with a header line
+     */
+    public static String toCsv(RunMetrics setup, List<RunMetrics> runs) {
+        StringBuilder csv = new StringBuilder("scope,run,iteration");
+        for (Phase phase : Phase.values())
+            csv.append(',').append(phase.getKey()).append("_ns");
+        csv.append(",distance_evaluations,moved,sse\n");
+
+        appendCsvRow(csv, "setup", 0, 0, setup::getNanos, 0, 0, Double.NaN);
+        for (RunMetrics run : runs) {
+            double sse = run.getIterations().isEmpty() ? Double.NaN :
+                    run.getIterations().get(run.getIterations().size() - 1).getSumSquaredError();
+            appendCsvRow(csv, "run", run.getRun(), run.getIterations().size(), run::getNanos,
+                    run.getDistanceEvaluations(), run.getMoved(), sse);
+            for (IterationMetrics iteration : run.getIterations())
+                appendCsvRow(csv, "iteration", run.getRun(), iteration.getIteration(), iteration::getNanos,
+                        iteration.getDistanceEvaluations(), iteration.getMoved(), iteration.getSumSquaredError());
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Formats metrics as JSON
+     *
+     * @param setup Load, normalize and reduce times
+     * @param runs  Every run, in run order
+     * @return JSON object
+     */
+    public static String toJson(RunMetrics setup, List<RunMetrics> runs) {
+        StringBuilder json = new StringBuilder("{\n  \"setup\": ");
+        appendJsonPhases(json, setup::getNanos);
+        json.append(",\n  \"runs\": [");
+        for (int r = 0; r < runs.size(); r++) {
+            RunMetrics run = runs.get(r);
+            json.append(r == 0 ? "\n" : ",\n");
+            json.append("    {\"run\": ").append(run.getRun())
+                    .append(", \"distance_evaluations\": ").append(run.getDistanceEvaluations())
+                    .append(", \"moved\": ").append(run.getMoved())
+                    .append(", \"phases\": ");
+            appendJsonPhases(json, run::getNanos);
+            json.append(",\n      \"iterations\": [");
+            List<IterationMetrics> iterations = run.getIterations();
+            for (int i = 0; i < iterations.size(); i++) {
+                IterationMetrics iteration = iterations.get(i);
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("        {\"iteration\": ").append(iteration.getIteration())
+                        .append(", \"distance_evaluations\": ").append(iteration.getDistanceEvaluations())
+                        .append(", \"moved\": ").append(iteration.getMoved())
+                        .append(", \"sse\": ").append(jsonNumber(iteration.getSumSquaredError()))
+                        .append(", \"phases\": ");
+                appendJsonPhases(json, iteration::getNanos);
+                json.append('}');
+            }
+            json.append(iterations.isEmpty() ? "]}" : "\n      ]}");
+        }
+        json.append(runs.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Adds one CSV row
+     *
+     * @param csv                 Text so far
+     * @param scope               setup, run or iteration
+     * @param run                 Which run
+     * @param iteration           Which iteration, or the iteration count on a run row
+     * @param nanos               Time of each phase
+     * @param distanceEvaluations Point to centroid distances calculated
+     * @param moved               Points that changed cluster
+     * @param sse                 SSE, NaN when there is none
+     */
+    private static void appendCsvRow(StringBuilder csv, String scope, int run, int iteration, PhaseTimes nanos,
+                                     long distanceEvaluations, long moved, double sse) {
+        csv.append(scope).append(',').append(run).append(',').append(iteration);
+        for (Phase phase : Phase.values())
+            csv.append(',').append(nanos.get(phase));
+        csv.append(',').append(distanceEvaluations).append(',').append(moved).append(',');
+        if (!Double.isNaN(sse))
+            csv.append(sse);
+        csv.append('\n');
+    }
+
+    /**
+     * Adds an object of phase times, phases with no time left out
+     *
+     * @param json  Text so far
+     * @param nanos Time of each phase
+     */
+    private static void appendJsonPhases(StringBuilder json, PhaseTimes nanos) {
+        json.append('{');
+        boolean first = true;
+        for (Phase phase : Phase.values()) {
+            if (nanos.get(phase) == 0) continue;
+            json.append(first ? "" : ", ").append('"').append(phase.getKey()).append("_ns\": ").append(nanos.get(phase));
+            first = false;
+        }
+        json.append('}');
+    }
+
+    /**
+     * JSON has no NaN or infinity, those become null
+     *
+     * @param value Number to write
+     * @return JSON text
+     */
+    private static String jsonNumber(double value) {
+        return Double.isNaN(value) || Double.isInfinite(value) ? "null" : Double.toString(value);
+    }
+
+
+    /*******************************************************************************************************************
+     * Phase Times                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Time of each phase, from whichever scope is being written
+     */
+    private interface PhaseTimes {
+        long get(Phase phase);
+    }
+}
@@ -0,0 +1,44 @@
+package com.pauldavis.data.instrument;
+
+/**
+ * Told as phases and iterations start and finish, on the thread doing the work. Every method does nothing by default
+ */
+public interface MetricsListener {
+
+    /**
+     * A run level phase is starting
+     *
+     * @param run   Which run, 0 for the shared setup
+     * @param phase Phase starting
+     */
+    default void phaseStarted(int run, Phase phase) {
+    }
+
+    /**
+     * A run level phase finished
+     *
+     * @param run   Which run, 0 for the shared setup
+     * @param phase Phase finished
+     * @param nanos How long it took
+     */
+    default void phaseFinished(int run, Phase phase, long nanos) {
+    }
+
+    /**
+     * An iteration is starting
+     *
+     * @param run       Which run
+     * @param iteration Which iteration, starting at 1
+     */
+    default void iterationStarted(int run, int iteration) {
+    }
+
+    /**
+     * An iteration finished
+     *
+     * @param run     Which run
+     * @param metrics What it did
+     */
+    default void iterationFinished(int run, IterationMetrics metrics) {
+    }
+}
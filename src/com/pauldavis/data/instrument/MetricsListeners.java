@@ -0,0 +1,60 @@
+package com.pauldavis.data.instrument;
+
+/**
+ * Picks the listener told about every phase and iteration. The JFR listener needs Java 11 or later and is loaded by
+ * name, so the rest of the project still builds and runs on Java 8
+ */
+public class MetricsListeners {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Class compiled from src-jfr
+    private static final String JFR_LISTENER = "com.pauldavis.data.instrument.JfrMetricsListener";
+
+    // Listener in use, chosen once at startup before any run
+    private static MetricsListener listener = new MetricsListener() {
+    };
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private MetricsListeners() {
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Switches JFR events on or off
+     *
+     * @param jfr Whether to emit JFR events
+     * @throws IllegalStateException When the JFR listener cannot be loaded on this JVM
+     */
+    public static void select(boolean jfr) {
+        if (!jfr) {
+            listener = new MetricsListener() {
+            };
+            return;
+        }
+        try {
+            listener = (MetricsListener) Class.forName(JFR_LISTENER).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            throw new IllegalStateException("JFR events unavailable, they need Java 11+: " + e);
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public static MetricsListener get() {
+        return listener;
+    }
+}
@@ -0,0 +1,25 @@
+package com.pauldavis.data.instrument;
+
+import java.util.Locale;
+
+/**
+ * Timed parts of a job. Load, normalize and reduce happen once, the rest once per run, and update, assign and SSE are
+ * also timed per iteration. Engines that fold the SSE into the assignment pass charge it to assign
+ */
+public enum Phase {
+    LOAD,
+    NORMALIZE,
+    REDUCE,
+    INIT,
+    UPDATE,
+    ASSIGN,
+    SSE,
+    VALIDATION;
+
+    /**
+     * @return Lower case name used in exports
+     */
+    public String getKey() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,51 @@
+package com.pauldavis.data.instrument;
+
+import java.util.Arrays;
+
+/**
+ * Splits elapsed time between phases. Each mark charges the time since the previous mark to one phase, so code only
+ * marks where a phase ends. Marks come from the thread running the iteration, never from inside a parallel block
+ */
+public class PhaseTimer {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Nanoseconds charged to each phase since the last restart
+    private final long[] nanos = new long[Phase.values().length];
+    // Time of the last mark or restart
+    private long last = System.nanoTime();
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Clears every phase and starts timing from now
+     */
+    public void restart() {
+        Arrays.fill(nanos, 0);
+        last = System.nanoTime();
+    }
+
+    /**
+     * Charges the time since the last mark to a phase
+     *
+     * @param phase Phase that just ended
+     */
+    public void mark(Phase phase) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - last;
+        last = now;
+    }
+
+    /**
+     * @param phase Phase to read
+     * @return Nanoseconds charged to it since the last restart
+     */
+    public long get(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+}
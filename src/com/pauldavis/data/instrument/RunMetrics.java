@@ -0,0 +1,91 @@
+package com.pauldavis.data.instrument;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Phase times, work counts and iterations of one run. Run 0 holds the load, normalize and reduce times shared by every
+ * run
+ */
+public class RunMetrics {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Which run, starting at 1, 0 for the shared setup
+    private final int run;
+    // Nanoseconds per phase over the whole run, indexed by ordinal
+    private final long[] nanos = new long[Phase.values().length];
+    // Every iteration, in order
+    private final List<IterationMetrics> iterations = new ArrayList<>();
+    // Point to centroid distances calculated, including any outside the iterations
+    private long distanceEvaluations;
+    // Points that changed cluster over all iterations
+    private long moved;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    public RunMetrics(int run) {
+        this.run = run;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Charges time to a phase
+     *
+     * @param phase Phase timed
+     * @param time  Nanoseconds
+     */
+    public void add(Phase phase, long time) {
+        nanos[phase.ordinal()] += time;
+    }
+
+    /**
+     * Records an iteration and adds its times and moves to the run
+     *
+     * @param iteration Iteration finished
+     */
+    public void addIteration(IterationMetrics iteration) {
+        iterations.add(iteration);
+        for (Phase phase : Phase.values())
+            nanos[phase.ordinal()] += iteration.getNanos(phase);
+        moved += iteration.getMoved();
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public int getRun() {
+        return run;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public List<IterationMetrics> getIterations() {
+        return iterations;
+    }
+
+    public long getDistanceEvaluations() {
+        return distanceEvaluations;
+    }
+
+    public void setDistanceEvaluations(long distanceEvaluations) {
+        this.distanceEvaluations = distanceEvaluations;
+    }
+
+    public long getMoved() {
+        return moved;
+    }
+}
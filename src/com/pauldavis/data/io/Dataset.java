@@ -0,0 +1,134 @@
+package com.pauldavis.data.io;
+
+import com.pauldavis.data.DataMatrix;
+
+/**
+ * A loaded data set, the points, their true labels and the per attribute range found while reading
+ */
+public class Dataset {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Points, one row per entry, label column removed
+    private final DataMatrix data;
+    // True label of each point
+    private final double[] labels;
+    // Cluster count given in the header
+    private final int numClusters;
+    // Smallest and largest value of each attribute
+    private final double[] min;
+    private final double[] max;
+    // Whether values are already scaled to [0, 1]
+    private boolean normalized;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates a data set
+     *
+     * @param data        Points
+     * @param labels      True label of each point
+     * @param numClusters Cluster count given in the header
+     * @param min         Smallest value of each attribute
+     * @param max         Largest value of each attribute
+     */
+    public Dataset(DataMatrix data, double[] labels, int numClusters, double[] min, double[] max) {
+        this(data, labels, numClusters, min, max, false);
+    }
+
+    /**
+     * Creates a data set
+     *
+     * @param data        Points
+     * @param labels      True label of each point
+     * @param numClusters Cluster count given in the header
+     * @param min         Smallest value of each attribute
+     * @param max         Largest value of each attribute
+     * @param normalized  Whether values are already scaled to [0, 1]
+     */
+    public Dataset(DataMatrix data, double[] labels, int numClusters, double[] min, double[] max, boolean normalized) {
+        this.data = data;
+        this.labels = labels;
+        this.numClusters = numClusters;
+        this.min = min;
+        this.max = max;
+        this.normalized = normalized;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Min-max normalizes every attribute in place to [0, 1], constant attributes become 0, through the mapping when the
+     * matrix is mapped. Sparse rows only scale their stored values, the loader keeps them sparse only where every
+     * unstored zero sits at its attribute's minimum of 0 and so stays 0. Does nothing the second time
+     */
+    public void normalize() {
+        if (normalized)
+            return;
+        normalized = true;
+        if (data.isSparse()) {
+            int[] indices = data.getIndices();
+            double[] nonzeros = data.getNonzeros();
+            for (int entry = 0; entry < nonzeros.length; entry++) {
+                int attribute = indices[entry];
+                double range = max[attribute] - min[attribute];
+                nonzeros[entry] = (nonzeros[entry] - min[attribute]) / (range == 0 ? 1 : range);
+            }
+            data.updateSquaredNorms();
+            return;
+        }
+        double[] values = data.getValues();
+        float[] floats = data.getFloatValues();
+        int columns = data.getColumns();
+        for (int entry = 0; entry < data.getRows(); entry++) {
+            int offset = data.rowOffset(entry);
+            for (int attribute = 0; attribute < columns; attribute++) {
+                double range = max[attribute] - min[attribute];
+                if (floats != null)
+                    floats[offset + attribute] =
+                            (float) ((floats[offset + attribute] - min[attribute]) / (range == 0 ? 1 : range));
+                else if (values != null)
+                    values[offset + attribute] = (values[offset + attribute] - min[attribute]) / (range == 0 ? 1 : range);
+                else
+                    data.set(entry, attribute, (data.get(entry, attribute) - min[attribute]) / (range == 0 ? 1 : range));
+            }
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public DataMatrix getData() {
+        return data;
+    }
+
+    public double[] getLabels() {
+        return labels;
+    }
+
+    public int getNumClusters() {
+        return numClusters;
+    }
+
+    public double[] getMin() {
+        return min;
+    }
+
+    public double[] getMax() {
+        return max;
+    }
+
+    public boolean isNormalized() {
+        return normalized;
+    }
+}
@@ -0,0 +1,491 @@
+package com.pauldavis.data.io;
+
+import com.pauldavis.data.DataMatrix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Binary copy of a normalized data set, kept next to its source as {@code <source>.cache}. Later loads map it and copy
+ * the values out in bulk, skipping parsing and normalization.
+ *
+ * Layout, little endian: a 64 byte header (magic, version, source size, modified time and CRC-32, rows, columns,
+ * cluster count, bytes per value, dense or sparse, the sparse density it was loaded with), then min and max of each
+ * attribute, the labels and the values row by row in the precision they were loaded in. Sparse data sets store the
+ * row starts, column indices and double values of their compressed rows in place of the values. A cache is used when
+ * it was loaded with the same precision and sparse density and the source size and modified time match, or when only
+ * the time changed and the CRC-32 of the source still matches.
+ *
+ * The values can also be left in the file and mapped rather than copied onto the heap, see loadMapped
+ */
+public class DatasetCache {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Appended to the source name
+    public static final String EXTENSION = ".cache";
+    // "KMDC" and format version
+    private static final int MAGIC = 0x4B4D4443;
+    private static final int VERSION = 2;
+    // Header bytes, padded so the doubles after it are aligned
+    private static final int HEADER_SIZE = 64;
+    // How values are laid out, caches from before sparse data sets have 0 there
+    private static final int DENSE = 0;
+    private static final int SPARSE = 1;
+    // Largest region mapped or written at once, a whole number of doubles
+    private static final int CHUNK_SIZE = 1 << 27;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private DatasetCache() {
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Loads the cache for a source file
+     *
+     * @param fileName Source text file
+     * @return Normalized data set, or null when there is no cache or it is out of date
+     * @throws IOException When the cache exists but cannot be read
+     */
+    public static Dataset load(String fileName) throws IOException {
+        return load(fileName, false);
+    }
+
+    /**
+     * Loads the cache for a source file
+     *
+     * @param fileName        File to read
+     * @param singlePrecision Whether values should be floats, a cache written in the other precision is out of date
+     * @return Normalized data set, or null when there is no cache or it is out of date
+     * @throws IOException When the cache exists but cannot be read
+     */
+    public static Dataset load(String fileName, boolean singlePrecision) throws IOException {
+        return load(fileName, singlePrecision, 0, false);
+    }
+
+    /**
+     * Loads the cache for a source file, as DatasetLoader would have loaded it
+     *
+     * @param fileName        File to read
+     * @param singlePrecision Whether dense values should be floats
+     * @param sparseDensity   Sparse density given to DatasetLoader, a cache written with another is out of date
+     * @return Normalized data set, or null when there is no cache or it is out of date
+     * @throws IOException When the cache exists but cannot be read
+     */
+    public static Dataset load(String fileName, boolean singlePrecision, double sparseDensity) throws IOException {
+        return load(fileName, singlePrecision, sparseDensity, false);
+    }
+
+    /**
+     * Loads a data set with its values mapped from the cache, writing the cache first when it is missing or out of
+     * date. The source is parsed straight into the new cache through a writable mapping, so at no point are the values
+     * on the heap
+     *
+     * @param fileName        Source text file
+     * @param singlePrecision Whether values should be floats
+     * @return Normalized data set backed by the cache file
+     * @throws IOException When the source or cache cannot be read, or the cache cannot be written
+     */
+    public static Dataset loadMapped(String fileName, boolean singlePrecision) throws IOException {
+        Dataset dataset = load(fileName, singlePrecision, 0, true);
+        if (dataset != null)
+            return dataset;
+
+        Path source = Paths.get(fileName);
+        Path cache = cachePath(source);
+        Path temporary = cache.resolveSibling(cache.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // Values go where the layout puts them, the rest is written once they are normalized
+            dataset = DatasetLoader.load(fileName, (rows, columns) -> new DataMatrix(channel,
+                    FileChannel.MapMode.READ_WRITE, valuesPosition(rows, columns), rows, columns, singlePrecision));
+            dataset.normalize();
+
+            ByteBuffer header = header(source, dataset, 0);
+            while (header.hasRemaining())
+                channel.write(header);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE >> 4).order(ByteOrder.LITTLE_ENDIAN);
+            writeDoubles(channel, buffer, dataset.getMin());
+            writeDoubles(channel, buffer, dataset.getMax());
+            writeDoubles(channel, buffer, dataset.getLabels());
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        dataset = load(fileName, singlePrecision, 0, true);
+        if (dataset == null)
+            throw new IOException("Source changed while its cache was written: " + fileName);
+        return dataset;
+    }
+
+    /**
+     * Loads the cache for a source file
+     *
+     * @param fileName        File to read
+     * @param singlePrecision Whether values should be floats, a cache written in the other precision is out of date
+     * @param sparseDensity   Sparse density given to DatasetLoader, 0 when mapped
+     * @param mapped          Whether to map the values from the cache rather than copy them onto the heap
+     * @return Normalized data set, or null when there is no cache or it is out of date
+     * @throws IOException When the cache exists but cannot be read
+     */
+    private static Dataset load(String fileName, boolean singlePrecision, double sparseDensity, boolean mapped)
+            throws IOException {
+        Path source = Paths.get(fileName);
+        Path cache = cachePath(source);
+        if (!Files.exists(cache))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(cache, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE)
+                return null;
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                return null;
+            long sourceSize = header.getLong();
+            long sourceModified = header.getLong();
+            long sourceChecksum = header.getLong();
+            int rows = header.getInt();
+            int columns = header.getInt();
+            int numClusters = header.getInt();
+            int valueBytes = header.getInt();
+            int layout = header.getInt();
+            header.getInt();
+            if (header.getDouble() != sparseDensity)
+                return null;
+            if (layout == DENSE && valueBytes != (singlePrecision ? Float.BYTES : Double.BYTES))
+                return null;
+
+            // Cheap check first, checksum only when the time alone moved
+            if (Files.size(source) != sourceSize)
+                return null;
+            if (Files.getLastModifiedTime(source).toMillis() != sourceModified && checksum(source) != sourceChecksum)
+                return null;
+
+            long position = valuesPosition(rows, columns);
+            if (layout == SPARSE)
+                return loadSparse(channel, rows, columns, numClusters);
+            if (layout != DENSE || channel.size() != position + (long) rows * columns * valueBytes)
+                return null;
+
+            double[] min = new double[columns];
+            double[] max = new double[columns];
+            double[] labels = new double[rows];
+            readDoubles(channel, readDoubles(channel, readDoubles(channel, HEADER_SIZE, min), max), labels);
+            if (mapped)
+                return new Dataset(new DataMatrix(channel, FileChannel.MapMode.READ_ONLY, position, rows, columns,
+                        singlePrecision), labels, numClusters, min, max, true);
+
+            DataMatrix data = new DataMatrix(rows, columns, singlePrecision);
+            if (singlePrecision)
+                readFloats(channel, position, data.getFloatValues());
+            else
+                readDoubles(channel, position, data.getValues());
+            return new Dataset(data, labels, numClusters, min, max, true);
+        }
+    }
+
+    /**
+     * Reads the compressed rows of a sparse cache
+     *
+     * @param channel     Open cache
+     * @param rows        Number of entries
+     * @param columns     Number of attributes per entry
+     * @param numClusters Cluster count given in the header
+     * @return Normalized data set, or null when the file is cut short
+     * @throws IOException When the file cannot be mapped
+     */
+    private static Dataset loadSparse(FileChannel channel, int rows, int columns, int numClusters) throws IOException {
+        long position = valuesPosition(rows, columns);
+        if (channel.size() < position + (rows + 1L) * Integer.BYTES)
+            return null;
+        int[] rowStarts = new int[rows + 1];
+        long indicesPosition = readInts(channel, position, rowStarts);
+        int stored = rowStarts[rows];
+        if (stored < 0 || channel.size() != indicesPosition + (long) stored * (Integer.BYTES + Double.BYTES))
+            return null;
+
+        double[] min = new double[columns];
+        double[] max = new double[columns];
+        double[] labels = new double[rows];
+        readDoubles(channel, readDoubles(channel, readDoubles(channel, HEADER_SIZE, min), max), labels);
+        int[] indices = new int[stored];
+        double[] nonzeros = new double[stored];
+        readDoubles(channel, readInts(channel, indicesPosition, indices), nonzeros);
+        return new Dataset(new DataMatrix(columns, rowStarts, indices, nonzeros), labels, numClusters, min, max, true);
+    }
+
+    /**
+     * Writes the cache for a source file loaded dense, through a temporary file so a half written cache is never seen
+     *
+     * @param fileName Source text file
+     * @param dataset  Data set loaded from it, normalized
+     * @throws IOException When the cache cannot be written
+     */
+    public static void save(String fileName, Dataset dataset) throws IOException {
+        save(fileName, dataset, 0);
+    }
+
+    /**
+     * Writes the cache for a source file, through a temporary file so a half written cache is never seen
+     *
+     * @param fileName      Source text file
+     * @param dataset       Data set loaded from it, normalized
+     * @param sparseDensity Sparse density it was loaded with, later loads must ask for the same
+     * @throws IOException When the cache cannot be written
+     */
+    public static void save(String fileName, Dataset dataset, double sparseDensity) throws IOException {
+        if (!dataset.isNormalized())
+            throw new IllegalArgumentException("Only normalized data sets are cached");
+        if (dataset.getData().isMapped())
+            throw new IllegalArgumentException("Mapped data sets are written by loadMapped");
+        if (dataset.getData().isSparse() && sparseDensity == 0)
+            throw new IllegalArgumentException("Sparse data sets are saved with the density they were loaded with");
+
+        Path source = Paths.get(fileName);
+        Path cache = cachePath(source);
+        Path temporary = cache.resolveSibling(cache.getFileName() + ".tmp");
+        DataMatrix data = dataset.getData();
+
+        ByteBuffer header = header(source, dataset, sparseDensity);
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (header.hasRemaining())
+                channel.write(header);
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_SIZE >> 4).order(ByteOrder.LITTLE_ENDIAN);
+            writeDoubles(channel, buffer, dataset.getMin());
+            writeDoubles(channel, buffer, dataset.getMax());
+            writeDoubles(channel, buffer, dataset.getLabels());
+            if (data.isSparse()) {
+                writeInts(channel, buffer, data.getRowStarts());
+                writeInts(channel, buffer, data.getIndices());
+                writeDoubles(channel, buffer, data.getNonzeros());
+            } else if (data.isSinglePrecision())
+                writeFloats(channel, buffer, data.getFloatValues());
+            else
+                writeDoubles(channel, buffer, data.getValues());
+        } catch (IOException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        Files.move(temporary, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Where the cache for a source lives
+     *
+     * @param source Source text file
+     * @return Cache file next to it
+     */
+    public static Path cachePath(Path source) {
+        return source.resolveSibling(source.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Header describing a data set and the source it came from
+     *
+     * @param source        Source text file
+     * @param dataset       Data set loaded from it
+     * @param sparseDensity Sparse density it was loaded with
+     * @return Header, ready to write
+     * @throws IOException When the source cannot be read
+     */
+    private static ByteBuffer header(Path source, Dataset dataset, double sparseDensity) throws IOException {
+        DataMatrix data = dataset.getData();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION)
+                .putLong(Files.size(source))
+                .putLong(Files.getLastModifiedTime(source).toMillis())
+                .putLong(checksum(source))
+                .putInt(data.getRows()).putInt(data.getColumns()).putInt(dataset.getNumClusters())
+                .putInt(data.isSinglePrecision() ? Float.BYTES : Double.BYTES)
+                .putInt(data.isSparse() ? SPARSE : DENSE).putInt(0)
+                .putDouble(sparseDensity);
+        header.clear();
+        return header;
+    }
+
+    /**
+     * Where the values start, after the header, the attribute ranges and the labels
+     *
+     * @param rows    Number of entries
+     * @param columns Number of attributes per entry
+     * @return Byte offset of the first value
+     */
+    private static long valuesPosition(int rows, int columns) {
+        return HEADER_SIZE + (2L * columns + rows) * Double.BYTES;
+    }
+
+    /**
+     * CRC-32 of a whole file, read through a mapping
+     *
+     * @param path File to check
+     * @return Checksum
+     * @throws IOException When the file cannot be read
+     */
+    private static long checksum(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += CHUNK_SIZE)
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position)));
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Copies doubles out of the mapped file in bulk
+     *
+     * @param channel     Open cache
+     * @param position    Byte offset to start at
+     * @param destination Array to fill completely
+     * @return Byte offset after the last double read
+     * @throws IOException When the file cannot be mapped
+     */
+    private static long readDoubles(FileChannel channel, long position, double[] destination) throws IOException {
+        int done = 0;
+        while (done < destination.length) {
+            int count = Math.min(destination.length - done, CHUNK_SIZE / Double.BYTES);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * Double.BYTES);
+            DoubleBuffer doubles = region.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            doubles.get(destination, done, count);
+            done += count;
+            position += (long) count * Double.BYTES;
+        }
+        return position;
+    }
+
+    /**
+     * Copies ints out of the mapped file in bulk
+     *
+     * @param channel     Open cache
+     * @param position    Byte offset to start at
+     * @param destination Array to fill completely
+     * @return Byte offset after the last int read
+     * @throws IOException When the file cannot be mapped
+     */
+    private static long readInts(FileChannel channel, long position, int[] destination) throws IOException {
+        int done = 0;
+        while (done < destination.length) {
+            int count = Math.min(destination.length - done, CHUNK_SIZE / Integer.BYTES);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * Integer.BYTES);
+            IntBuffer ints = region.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            ints.get(destination, done, count);
+            done += count;
+            position += (long) count * Integer.BYTES;
+        }
+        return position;
+    }
+
+    /**
+     * Copies floats out of the mapped file in bulk
+     *
+     * @param channel     Open cache
+     * @param position    Byte offset to start at
+     * @param destination Array to fill completely
+     * @return Byte offset after the last float read
+     * @throws IOException When the file cannot be mapped
+     */
+    private static long readFloats(FileChannel channel, long position, float[] destination) throws IOException {
+        int done = 0;
+        while (done < destination.length) {
+            int count = Math.min(destination.length - done, CHUNK_SIZE / Float.BYTES);
+            MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, (long) count * Float.BYTES);
+            FloatBuffer floats = region.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            floats.get(destination, done, count);
+            done += count;
+            position += (long) count * Float.BYTES;
+        }
+        return position;
+    }
+
+    /**
+     * Writes doubles through a reused direct buffer
+     *
+     * @param channel Open temporary file
+     * @param buffer  Scratch buffer, little endian
+     * @param source  Values to write
+     * @throws IOException When the file cannot be written
+     */
+    private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] source) throws IOException {
+        int done = 0;
+        while (done < source.length) {
+            buffer.clear();
+            int count = Math.min(source.length - done, buffer.capacity() / Double.BYTES);
+            buffer.asDoubleBuffer().put(source, done, count);
+            buffer.limit(count * Double.BYTES);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            done += count;
+        }
+    }
+
+    /**
+     * Writes ints through a reused direct buffer
+     *
+     * @param channel Open temporary file
+     * @param buffer  Scratch buffer, little endian
+     * @param source  Values to write
+     * @throws IOException When the file cannot be written
+     */
+    private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] source) throws IOException {
+        int done = 0;
+        while (done < source.length) {
+            buffer.clear();
+            int count = Math.min(source.length - done, buffer.capacity() / Integer.BYTES);
+            buffer.asIntBuffer().put(source, done, count);
+            buffer.limit(count * Integer.BYTES);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            done += count;
+        }
+    }
+
+    /**
+     * Writes floats through a reused direct buffer
+     *
+     * @param channel Open temporary file
+     * @param buffer  Scratch buffer, little endian
+     * @param source  Values to write
+     * @throws IOException When the file cannot be written
+     */
+    private static void writeFloats(FileChannel channel, ByteBuffer buffer, float[] source) throws IOException {
+        int done = 0;
+        while (done < source.length) {
+            buffer.clear();
+            int count = Math.min(source.length - done, buffer.capacity() / Float.BYTES);
+            buffer.asFloatBuffer().put(source, done, count);
+            buffer.limit(count * Float.BYTES);
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            done += count;
+        }
+    }
+}
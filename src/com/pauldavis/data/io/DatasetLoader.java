@@ -0,0 +1,447 @@
+package com.pauldavis.data.io;
+
+import com.pauldavis.data.DataMatrix;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the source_sets format: a header line of point count, column count (label included) and cluster count, then
+ * one space separated row per point with the label last.
+ *
+ * The file is memory-mapped and walked one byte at a time. Each token is copied into a reused buffer and parsed there,
+ * values go straight into the matrix and the attribute range is tracked on the way, so nothing is allocated per value
+ * and the data is only read once.
+ *
+ * Mostly zero data can be read into sparse rows instead. Non-zero values are collected row by row while they stay
+ * within a given share of every value, once they pass it the rows so far are copied into a dense matrix and reading
+ * carries on there, so memory never goes much past what the chosen form needs
+ */
+public class DatasetLoader {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Largest share of non-zero values stored sparse when the choice is automatic. A stored entry costs 12 bytes
+    // against 8 dense, and a sparse distance reads the centroid through the column indices
+    public static final double AUTO_DENSITY = 0.25;
+    // Largest region mapped at once
+    private static final long MAP_SIZE = 1L << 30;
+    // Longest digit run whose value fits in a long
+    private static final int MAX_DIGITS = 18;
+    // Largest mantissa a double holds exactly
+    private static final long MAX_EXACT = 1L << 53;
+    // Powers of ten a double holds exactly
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Token being read
+    private byte[] token = new byte[64];
+    private int tokenLength;
+
+    // Header, filled as the first line is read
+    private final int[] header = new int[3];
+    private int headerCount;
+    private boolean inHeader = true;
+
+    // Destination and position, values and floats are null when the matrix is mapped, data is null while sparse
+    private final Storage storage;
+    private final double sparseDensity;
+    private boolean singlePrecision;
+    private DataMatrix data;
+    private double[] values;
+    private float[] floats;
+    private double[] labels;
+    private double[] min;
+    private double[] max;
+    private int columns;
+    private int row;
+    private int column;
+    private long line = 1;
+
+    // Sparse rows being collected, row r holds entries [rowStarts[r], rowStarts[r + 1])
+    private boolean sparse;
+    private int[] rowStarts;
+    private int[] indices;
+    private double[] nonzeros;
+    private int stored;
+    private long storedLimit;
+    // Non-zero values seen in each column, columns with fewer than every row hold unstored zeros
+    private int[] columnCounts;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private DatasetLoader(Storage storage, double sparseDensity) {
+        this.storage = storage;
+        this.sparseDensity = sparseDensity;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Loads a data set
+     *
+     * @param fileName File to read
+     * @return Points, labels and attribute ranges, not yet normalized
+     * @throws IOException When the file cannot be read or does not match its header
+     */
+    public static Dataset load(String fileName) throws IOException {
+        return load(fileName, false);
+    }
+
+    /**
+     * Loads a data set
+     *
+     * @param fileName        File to read
+     * @param singlePrecision Whether to store values as floats, the range is then taken over the rounded values
+     * @return Points, labels and attribute ranges, not yet normalized
+     * @throws IOException When the file cannot be read or does not match its header
+     */
+    public static Dataset load(String fileName, boolean singlePrecision) throws IOException {
+        return load(fileName, (rows, columns) -> new DataMatrix(rows, columns, singlePrecision));
+    }
+
+    /**
+     * Loads a data set into a matrix of the caller's choosing, such as one mapped from a file
+     *
+     * @param fileName File to read
+     * @param storage  Creates the matrix once the header is read, its precision is used for the range
+     * @return Points, labels and attribute ranges, not yet normalized
+     * @throws IOException When the file cannot be read or does not match its header
+     */
+    public static Dataset load(String fileName, Storage storage) throws IOException {
+        return new DatasetLoader(storage, 0).read(Paths.get(fileName));
+    }
+
+    /**
+     * Loads a data set into sparse rows when few enough values are non-zero, into a heap matrix otherwise. Data with a
+     * negative attribute minimum and zeros in the same attribute is always dense, normalizing would turn those zeros
+     * into values
+     *
+     * @param fileName        File to read
+     * @param singlePrecision Whether a dense matrix stores floats, sparse values are always double
+     * @param sparseDensity   Largest share of non-zero values kept sparse, 0 for always dense, 1 for sparse whenever
+     *                        possible, AUTO_DENSITY by default
+     * @return Points, labels and attribute ranges, not yet normalized
+     * @throws IOException When the file cannot be read or does not match its header
+     */
+    public static Dataset load(String fileName, boolean singlePrecision, double sparseDensity) throws IOException {
+        return new DatasetLoader((rows, columns) -> new DataMatrix(rows, columns, singlePrecision), sparseDensity)
+                .read(Paths.get(fileName));
+    }
+
+    /**
+     * Walks the whole file, mapping it a region at a time
+     *
+     * @param path File to read
+     * @return Loaded data set
+     * @throws IOException When the file cannot be read or does not match its header
+     */
+    private Dataset read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_SIZE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_SIZE, size - position));
+                while (buffer.hasRemaining())
+                    accept(buffer.get());
+            }
+        }
+        accept((byte) '\n');
+
+        if (inHeader)
+            throw new IOException("Missing header line");
+        if (row != header[0])
+            throw new IOException("Header gives " + header[0] + " points, found " + row);
+        if (sparse) {
+            for (int c = 0; c < columns; c++) {
+                if (min[c] < 0 && columnCounts[c] < row) {
+                    toDense();
+                    break;
+                }
+            }
+        }
+        if (sparse)
+            data = new DataMatrix(columns, rowStarts, Arrays.copyOf(indices, stored), Arrays.copyOf(nonzeros, stored));
+        return new Dataset(data, labels, header[2], min, max);
+    }
+
+    /**
+     * Moves the rows read so far into a dense matrix, every later row goes straight there
+     *
+     * @throws IOException When the matrix cannot be created
+     */
+    private void toDense() throws IOException {
+        sparse = false;
+        data = storage.allocate(header[0], columns);
+        singlePrecision = data.isSinglePrecision();
+        values = data.getValues();
+        floats = data.getFloatValues();
+        for (int r = 0; r < row; r++) {
+            for (int entry = rowStarts[r]; entry < rowStarts[r + 1]; entry++)
+                store(r, indices[entry], nonzeros[entry]);
+        }
+
+        // Rounding to float keeps order, so the rounded range is the range of the rounded values
+        if (singlePrecision) {
+            for (int c = 0; c < columns; c++) {
+                min[c] = (float) min[c];
+                max[c] = (float) max[c];
+            }
+        }
+        rowStarts = null;
+        indices = null;
+        nonzeros = null;
+        columnCounts = null;
+    }
+
+    /**
+     * Stores a value in the dense matrix
+     *
+     * @param row    Entry index
+     * @param column Attribute index
+     * @param value  Value, already rounded when the matrix holds floats
+     */
+    private void store(int row, int column, double value) {
+        if (values != null)
+            values[row * columns + column] = value;
+        else if (floats != null)
+            floats[row * columns + column] = (float) value;
+        else
+            data.set(row, column, value);
+    }
+
+    /**
+     * Handles one byte, whitespace ends a token and a line feed ends a row
+     *
+     * @param b Byte read
+     * @throws IOException When a row does not match the header
+     */
+    private void accept(byte b) throws IOException {
+        if (b == ' ' || b == '\t' || b == '\r' || b == '\n') {
+            if (tokenLength > 0) {
+                endToken();
+                tokenLength = 0;
+            }
+            if (b == '\n') {
+                endLine();
+                line++;
+            }
+            return;
+        }
+
+        if (tokenLength == token.length)
+            token = Arrays.copyOf(token, token.length * 2);
+        token[tokenLength++] = b;
+    }
+
+    /**
+     * Stores the finished token in the header or the current row
+     *
+     * @throws IOException When the row has more values than the header allows
+     */
+    private void endToken() throws IOException {
+        double value = parseToken();
+        if (inHeader) {
+            if (headerCount == header.length)
+                throw new IOException("Header has more than " + header.length + " values");
+            header[headerCount++] = (int) value;
+            return;
+        }
+
+        if (row == header[0])
+            throw new IOException("Line " + line + ": more points than the header gives");
+        if (column == columns) {
+            labels[row] = value;
+        } else if (column < columns) {
+            if (sparse) {
+                if (value != 0) {
+                    if (stored == indices.length) {
+                        indices = Arrays.copyOf(indices, stored * 2);
+                        nonzeros = Arrays.copyOf(nonzeros, stored * 2);
+                    }
+                    indices[stored] = column;
+                    nonzeros[stored++] = value;
+                    columnCounts[column]++;
+                }
+            } else {
+                if (singlePrecision)
+                    value = (float) value;
+                store(row, column, value);
+            }
+            if (value < min[column])
+                min[column] = value;
+            if (value > max[column])
+                max[column] = value;
+        } else {
+            throw new IOException("Line " + line + ": expected " + (columns + 1) + " values");
+        }
+        column++;
+    }
+
+    /**
+     * Finishes the header or a row, blank lines are skipped
+     *
+     * @throws IOException When the header is incomplete or a row is short
+     */
+    private void endLine() throws IOException {
+        if (inHeader) {
+            if (headerCount == 0)
+                return;
+            if (headerCount != header.length || header[0] < 0 || header[1] < 1)
+                throw new IOException("Header must give point count, column count and cluster count");
+            inHeader = false;
+            columns = header[1] - 1;
+            labels = new double[header[0]];
+            min = new double[columns];
+            max = new double[columns];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            if (sparseDensity > 0) {
+                sparse = true;
+                storedLimit = (long) Math.min(Integer.MAX_VALUE - 8, sparseDensity * header[0] * columns);
+                rowStarts = new int[header[0] + 1];
+                indices = new int[Math.max(16, columns)];
+                nonzeros = new double[indices.length];
+                columnCounts = new int[columns];
+            } else {
+                toDense();
+            }
+            return;
+        }
+
+        if (column == 0)
+            return;
+        if (column != columns + 1)
+            throw new IOException("Line " + line + ": expected " + (columns + 1) + " values, found " + column);
+        row++;
+        column = 0;
+        if (sparse) {
+            rowStarts[row] = stored;
+            if (stored > storedLimit)
+                toDense();
+        }
+    }
+
+    /**
+     * Parses the token as a decimal number without allocating. Up to 18 digits with a power of ten up to 22 converts
+     * exactly as one multiply or divide (Clinger's fast path), which covers every value in the bundled sets. Anything
+     * longer falls back to Double.parseDouble so results always match it
+     *
+     * @return Value of the token
+     * @throws NumberFormatException When the token is not a number
+     */
+    private double parseToken() {
+        int i = 0;
+        boolean negative = false;
+        if (token[0] == '-' || token[0] == '+') {
+            negative = token[0] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+        boolean fraction = false;
+        for (; i < tokenLength; i++) {
+            byte b = token[i];
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa == 0 && b == '0') {
+                    // Leading zeros add no precision
+                    if (fraction)
+                        exponent--;
+                    continue;
+                }
+                if (++digits > MAX_DIGITS)
+                    return fallback();
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction)
+                    exponent--;
+            } else if (b == '.' && !fraction) {
+                fraction = true;
+            } else if ((b == 'e' || b == 'E') && any) {
+                break;
+            } else {
+                return fallback();
+            }
+        }
+        if (!any)
+            return fallback();
+
+        // Exponent part
+        if (i < tokenLength) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < tokenLength && (token[i] == '-' || token[i] == '+')) {
+                negativeExponent = token[i] == '-';
+                i++;
+            }
+            if (i == tokenLength || tokenLength - i > 4)
+                return fallback();
+            int power = 0;
+            for (; i < tokenLength; i++) {
+                if (token[i] < '0' || token[i] > '9')
+                    return fallback();
+                power = power * 10 + (token[i] - '0');
+            }
+            exponent += negativeExponent ? -power : power;
+        }
+
+        if (mantissa > MAX_EXACT || exponent < -22 || exponent > 22)
+            return fallback();
+        double value = mantissa;
+        if (exponent < 0)
+            value /= POWERS_OF_TEN[-exponent];
+        else
+            value *= POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Slow path for tokens the fast path cannot convert exactly
+     *
+     * @return Value of the token
+     * @throws NumberFormatException When the token is not a number
+     */
+    private double fallback() {
+        return Double.parseDouble(new String(token, 0, tokenLength, StandardCharsets.US_ASCII));
+    }
+
+
+    /*******************************************************************************************************************
+     * Storage                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates the matrix a data set is read into
+     */
+    public interface Storage {
+
+        /**
+         * Creates an empty matrix
+         *
+         * @param rows    Number of entries
+         * @param columns Number of attributes per entry
+         * @return Matrix to fill
+         * @throws IOException When the matrix cannot be created
+         */
+        DataMatrix allocate(int rows, int columns) throws IOException;
+    }
+}
@@ -0,0 +1,233 @@
+package com.pauldavis.data.metrics;
+
+import com.pauldavis.data.Cluster;
+import com.pauldavis.data.DataMatrix;
+
+import java.util.List;
+
+/**
+ * Sufficient statistics of a clustering: point count, coordinate sum and sum of squared norms per cluster, gathered in
+ * one pass over the points. Any sum of squared distances from a cluster's points to a fixed point c expands to
+ * Q - 2 c.S + n |c|^2, so the SSE measures below cost O(k^2 d) on top of that pass instead of a point loop per cluster.
+ *
+ * SSE measures use each cluster's stored centroid, like the point loops they replace. Calinski-Harabasz and
+ * Davies-Bouldin use the cluster means, as they are defined. Davies-Bouldin takes scatter as the root mean squared
+ * distance to the mean (q = 2 in the original paper), the form these statistics give exactly
+ */
+public class ClusterStatistics {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Clusters and attributes
+    private final int clusterCount;
+    private final int columns;
+    // Points in each cluster and all together
+    private final long[] counts;
+    private final long total;
+    // Coordinate sum of each cluster, clusterCount by columns
+    private final double[] sums;
+    // Sum of squared norms of each cluster's points
+    private final double[] squaredNorms;
+    // Stored centroid of each cluster
+    private final double[][] centroids;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Gathers statistics from the current membership of each cluster
+     *
+     * @param data     Points
+     * @param clusters Clusters, in index order
+     */
+    public ClusterStatistics(DataMatrix data, List<Cluster> clusters) {
+        clusterCount = clusters.size();
+        columns = data.getColumns();
+        counts = new long[clusterCount];
+        sums = new double[clusterCount * columns];
+        squaredNorms = new double[clusterCount];
+        centroids = new double[clusterCount][];
+
+        long points = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            Cluster cluster = clusters.get(c);
+            centroids[c] = cluster.getCentroid();
+            counts[c] = cluster.getChildCount();
+            points += counts[c];
+            for (int child = 0; child < cluster.getChildCount(); child++) {
+                int row = cluster.getChild(child);
+                data.addRow(row, sums, c * columns);
+                squaredNorms[c] += data.rowSquaredNorm(row);
+            }
+        }
+        total = points;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Sum of squared distances from the points of one cluster to a point, from the expansion Q - 2 c.S + n |c|^2
+     *
+     * @param cluster Cluster whose points are measured
+     * @param point   Point measured to
+     * @return Sum of squared distances, never negative
+     */
+    public double squaredErrorTo(int cluster, double[] point) {
+        if (counts[cluster] == 0)
+            return 0;
+        double dot = 0;
+        double norm = 0;
+        int offset = cluster * columns;
+        for (int i = 0; i < columns; i++) {
+            dot += point[i] * sums[offset + i];
+            norm += point[i] * point[i];
+        }
+        return Math.max(0, squaredNorms[cluster] - 2 * dot + counts[cluster] * norm);
+    }
+
+    /**
+     * Sum of squared distances from every point to its own cluster's centroid
+     *
+     * @return Internal SSE
+     */
+    public double getInternalSSE() {
+        double error = 0;
+        for (int c = 0; c < clusterCount; c++)
+            error += squaredErrorTo(c, centroids[c]);
+        return error;
+    }
+
+    /**
+     * Sum of squared distances from every point to the centroid of every other non-empty cluster
+     *
+     * @return External SSE
+     */
+    public double getExternalSSE() {
+        double error = 0;
+        for (int a = 0; a < clusterCount; a++) {
+            for (int b = 0; b < clusterCount; b++) {
+                if (a == b || counts[b] == 0) continue;
+                error += squaredErrorTo(a, centroids[b]);
+            }
+        }
+        return error;
+    }
+
+    /**
+     * Calinski-Harabasz index, between cluster dispersion over within cluster dispersion, each scaled by its degrees of
+     * freedom. Higher is better
+     *
+     * @return Index, NaN with fewer than two non-empty clusters or no points to spare
+     */
+    public double getCalinskiHarabasz() {
+        int nonEmpty = 0;
+        double[] overall = new double[columns];
+        for (int c = 0; c < clusterCount; c++) {
+            if (counts[c] == 0) continue;
+            nonEmpty++;
+            for (int i = 0; i < columns; i++)
+                overall[i] += sums[c * columns + i];
+        }
+        if (nonEmpty < 2 || total <= nonEmpty)
+            return Double.NaN;
+        for (int i = 0; i < columns; i++)
+            overall[i] /= total;
+
+        double between = 0;
+        double within = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            if (counts[c] == 0) continue;
+            double[] mean = mean(c);
+            for (int i = 0; i < columns; i++)
+                between += counts[c] * (mean[i] - overall[i]) * (mean[i] - overall[i]);
+            within += squaredErrorTo(c, mean);
+        }
+        if (within == 0)
+            return Double.POSITIVE_INFINITY;
+        return (between / (nonEmpty - 1)) / (within / (total - nonEmpty));
+    }
+
+    /**
+     * Davies-Bouldin index, the mean over clusters of the worst ratio of summed scatter to the distance between means.
+     * Lower is better
+     *
+     * @return Index, NaN with fewer than two non-empty clusters
+     */
+    public double getDaviesBouldin() {
+        double[][] means = new double[clusterCount][];
+        double[] scatter = new double[clusterCount];
+        int nonEmpty = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            if (counts[c] == 0) continue;
+            nonEmpty++;
+            means[c] = mean(c);
+            scatter[c] = Math.sqrt(squaredErrorTo(c, means[c]) / counts[c]);
+        }
+        if (nonEmpty < 2)
+            return Double.NaN;
+
+        double index = 0;
+        for (int a = 0; a < clusterCount; a++) {
+            if (counts[a] == 0) continue;
+            double worst = 0;
+            for (int b = 0; b < clusterCount; b++) {
+                if (a == b || counts[b] == 0) continue;
+                double separation = 0;
+                for (int i = 0; i < columns; i++)
+                    separation += (means[a][i] - means[b][i]) * (means[a][i] - means[b][i]);
+                separation = Math.sqrt(separation);
+                double ratio = separation == 0 ? Double.POSITIVE_INFINITY : (scatter[a] + scatter[b]) / separation;
+                worst = Math.max(worst, ratio);
+            }
+            index += worst;
+        }
+        return index / nonEmpty;
+    }
+
+    /**
+     * Mean of a cluster's points
+     *
+     * @param cluster Cluster index
+     * @return New array holding the mean
+     */
+    private double[] mean(int cluster) {
+        double[] mean = new double[columns];
+        for (int i = 0; i < columns; i++)
+            mean[i] = sums[cluster * columns + i] / counts[cluster];
+        return mean;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public int getClusterCount() {
+        return clusterCount;
+    }
+
+    public long getCount(int cluster) {
+        return counts[cluster];
+    }
+
+    /**
+     * @param cluster Cluster index
+     * @return Copy of the coordinate sum of the cluster's points
+     */
+    public double[] getSum(int cluster) {
+        double[] sum = new double[columns];
+        System.arraycopy(sums, cluster * columns, sum, 0, columns);
+        return sum;
+    }
+
+    public double getSquaredNorm(int cluster) {
+        return squaredNorms[cluster];
+    }
+}
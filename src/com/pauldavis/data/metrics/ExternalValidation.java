@@ -0,0 +1,157 @@
+package com.pauldavis.data.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * External validation of a clustering against true labels. A true label by cluster contingency table is built in one
+ * pass, then every pair count comes from sums of n choose 2 over its cells, rows and columns instead of comparing
+ * every pair of points.
+ *
+ * Pair counts are reported over ordered pairs, the same totals a loop over every (i, j) with i != j would count
+ */
+public class ExternalValidation {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Ordered pair counts
+    private final double truePositives;
+    private final double falseNegatives;
+    private final double falsePositives;
+    private final double trueNegatives;
+    // Adjusted Rand index, Hubert and Arabie
+    private final double adjustedRand;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Validates a clustering, cluster indices are already dense so the assignments are read as they are
+     *
+     * @param trueLabels   Given label of each point
+     * @param assignments  Cluster index of each point
+     * @param clusterCount Number of clusters
+     */
+    public ExternalValidation(double[] trueLabels, int[] assignments, int clusterCount) {
+        if (trueLabels.length != assignments.length)
+            throw new IllegalArgumentException("Label and assignment arrays must be the same length");
+
+        // Map true labels to dense indices
+        int points = trueLabels.length;
+        int[] trueIndex = new int[points];
+        int trueCount = indexLabels(trueLabels, trueIndex);
+
+        // Contingency table with row and column totals
+        long[] table = new long[trueCount * clusterCount];
+        long[] trueTotals = new long[trueCount];
+        long[] generatedTotals = new long[clusterCount];
+        for (int i = 0; i < points; i++) {
+            table[trueIndex[i] * clusterCount + assignments[i]]++;
+            trueTotals[trueIndex[i]]++;
+            generatedTotals[assignments[i]]++;
+        }
+
+        // Unordered pairs together in both, in the same true class, in the same cluster, and overall
+        long together = 0;
+        for (long cell : table)
+            together += choose2(cell);
+        long sameTrue = 0;
+        for (long total : trueTotals)
+            sameTrue += choose2(total);
+        long sameGenerated = 0;
+        for (long total : generatedTotals)
+            sameGenerated += choose2(total);
+        long pairs = choose2(points);
+
+        truePositives = 2.0 * together;
+        falseNegatives = 2.0 * (sameTrue - together);
+        falsePositives = 2.0 * (sameGenerated - together);
+        trueNegatives = 2.0 * (pairs - sameTrue - sameGenerated + together);
+
+        double expected = pairs == 0 ? 0 : (double) sameTrue * sameGenerated / pairs;
+        double maximum = (sameTrue + sameGenerated) / 2.0;
+        adjustedRand = maximum == expected ? 1.0 : (together - expected) / (maximum - expected);
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Replaces each label with a dense index in order of first appearance
+     *
+     * @param labels  Labels to map
+     * @param indices Output, index of each label
+     * @return How many distinct labels there are
+     */
+    private static int indexLabels(double[] labels, int[] indices) {
+        Map<Double, Integer> seen = new HashMap<>();
+        for (int i = 0; i < labels.length; i++) {
+            Integer index = seen.get(labels[i]);
+            if (index == null) {
+                index = seen.size();
+                seen.put(labels[i], index);
+            }
+            indices[i] = index;
+        }
+        return seen.size();
+    }
+
+    /**
+     * Number of unordered pairs in a group
+     *
+     * @param count Group size
+     * @return count choose 2
+     */
+    private static long choose2(long count) {
+        return count * (count - 1) / 2;
+    }
+
+    /**
+     * Jaccard coefficient, TP / (TP + FN + FP)
+     *
+     * @return Jaccard
+     */
+    public double getJaccard() {
+        return truePositives / (truePositives + falseNegatives + falsePositives);
+    }
+
+    /**
+     * Rand index, (TP + TN) / all pairs
+     *
+     * @return Rand
+     */
+    public double getRand() {
+        return (truePositives + trueNegatives) / (trueNegatives + truePositives + falseNegatives + falsePositives);
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public double getTruePositives() {
+        return truePositives;
+    }
+
+    public double getFalseNegatives() {
+        return falseNegatives;
+    }
+
+    public double getFalsePositives() {
+        return falsePositives;
+    }
+
+    public double getTrueNegatives() {
+        return trueNegatives;
+    }
+
+    public double getAdjustedRand() {
+        return adjustedRand;
+    }
+}
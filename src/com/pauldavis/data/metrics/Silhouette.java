@@ -0,0 +1,204 @@
+package com.pauldavis.data.metrics;
+
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.database.BlockTask;
+
+import java.util.SplittableRandom;
+
+/**
+ * Silhouette width from real pairwise Euclidean distances (Rousseeuw, 1987). For a point with mean distance a to the
+ * rest of its own cluster and mean distance b to the closest other cluster the silhouette is (b - a) / max(a, b), points
+ * alone in their cluster count as 0.
+ *
+ * Only the sum of distances from each point to each cluster is kept, never the n by n matrix. Query points are worked in
+ * blocks, and each block walks the data one tile at a time so the tile stays in cache while every query point in the
+ * block is compared against it. Blocks split across threads and every sum is added in row order, so results do not
+ * depend on the thread count
+ */
+public class Silhouette {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Query points per block
+    private static final int BLOCK_SIZE = 64;
+    // Data rows per tile
+    private static final int TILE_SIZE = 512;
+    // Two sided 95% normal quantile
+    private static final double Z_95 = 1.959963984540054;
+
+    // Points and the cluster of each
+    private final DataMatrix data;
+    private final int[] assignments;
+    private final int clusterCount;
+    // Points in each cluster
+    private final int[] sizes;
+    // Threads to spread blocks over
+    private final int threads;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates an evaluator for one clustering
+     *
+     * @param data         Points
+     * @param assignments  Cluster index of each point
+     * @param clusterCount How many clusters there are
+     * @param threads      Threads to spread blocks over
+     */
+    public Silhouette(DataMatrix data, int[] assignments, int clusterCount, int threads) {
+        this.data = data;
+        this.assignments = assignments;
+        this.clusterCount = clusterCount;
+        this.threads = threads;
+        sizes = new int[clusterCount];
+        for (int assignment : assignments)
+            sizes[assignment]++;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Exact silhouette width, every point against every other, O(n^2) distances
+     *
+     * @return Mean silhouette over all points
+     */
+    public double exact() {
+        int rows = data.getRows();
+        int[] points = new int[rows];
+        for (int row = 0; row < rows; row++)
+            points[row] = row;
+        double[] silhouettes = evaluate(points);
+
+        double total = 0;
+        for (double silhouette : silhouettes)
+            total += silhouette;
+        return rows == 0 ? 0 : total / rows;
+    }
+
+    /**
+     * Estimates the silhouette width from a simple random sample, each sampled point still compared against every
+     * other point, O(sample * n) distances. The interval uses the normal approximation with the finite population
+     * correction, so it closes to nothing as the sample reaches every point
+     *
+     * @param sampleSize Points to sample, the exact value is returned when this covers every point
+     * @param random     Picks the sample
+     * @return Mean of the sampled silhouettes and its 95% confidence interval
+     */
+    public SilhouetteEstimate sample(int sampleSize, SplittableRandom random) {
+        int rows = data.getRows();
+        if (sampleSize >= rows)
+            return new SilhouetteEstimate(exact(), 0, rows);
+        if (sampleSize < 2)
+            throw new IllegalArgumentException("Sample needs at least 2 points");
+
+        // Partial Fisher-Yates, the first sampleSize entries are the sample
+        int[] order = new int[rows];
+        for (int row = 0; row < rows; row++)
+            order[row] = row;
+        for (int i = 0; i < sampleSize; i++) {
+            int j = i + random.nextInt(rows - i);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        int[] points = new int[sampleSize];
+        System.arraycopy(order, 0, points, 0, sampleSize);
+        double[] silhouettes = evaluate(points);
+
+        double mean = 0;
+        for (double silhouette : silhouettes)
+            mean += silhouette;
+        mean /= sampleSize;
+        double variance = 0;
+        for (double silhouette : silhouettes)
+            variance += (silhouette - mean) * (silhouette - mean);
+        variance /= sampleSize - 1;
+
+        double correction = (double) (rows - sampleSize) / (rows - 1);
+        double halfWidth = Z_95 * Math.sqrt(variance / sampleSize * correction);
+        return new SilhouetteEstimate(mean, halfWidth, sampleSize);
+    }
+
+    /**
+     * Silhouette of each query point
+     *
+     * @param points Rows to evaluate
+     * @return Silhouette of each, in the same order
+     */
+    private double[] evaluate(int[] points) {
+        double[] silhouettes = new double[points.length];
+        int blocks = (points.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        BlockTask.run(threads, blocks, block -> {
+            int start = block * BLOCK_SIZE;
+            int end = Math.min(points.length, start + BLOCK_SIZE);
+            double[] sums = distanceSums(points, start, end);
+            for (int i = start; i < end; i++)
+                silhouettes[i] = silhouette(assignments[points[i]], sums, (i - start) * clusterCount);
+        });
+        return silhouettes;
+    }
+
+    /**
+     * Sums the distance from each query point in a block to every cluster, one tile of data rows at a time
+     *
+     * @param points Rows to evaluate
+     * @param start  First query in the block
+     * @param end    Last query in the block, exclusive
+     * @return Sum of distances, clusterCount entries per query
+     */
+    private double[] distanceSums(int[] points, int start, int end) {
+        int rows = data.getRows();
+        double[] sums = new double[(end - start) * clusterCount];
+        double[][] queries = new double[end - start][];
+        for (int i = start; i < end; i++)
+            queries[i - start] = data.getRow(points[i]);
+        double[] queryNorms = data.squaredNorms(queries, null);
+
+        for (int tile = 0; tile < rows; tile += TILE_SIZE) {
+            int tileEnd = Math.min(rows, tile + TILE_SIZE);
+            for (int q = 0; q < queries.length; q++) {
+                int self = points[start + q];
+                int offset = q * clusterCount;
+                for (int row = tile; row < tileEnd; row++) {
+                    if (row == self) continue;
+                    sums[offset + assignments[row]] +=
+                            Math.sqrt(data.distanceSquared(row, queries[q], queryNorms == null ? 0 : queryNorms[q]));
+                }
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * Silhouette of one point from its distance sums
+     *
+     * @param own    Cluster of the point
+     * @param sums   Sum of distances to each cluster
+     * @param offset Where this point's sums start
+     * @return Silhouette, 0 when the point is alone or there is no other cluster
+     */
+    private double silhouette(int own, double[] sums, int offset) {
+        if (sizes[own] < 2)
+            return 0;
+        double inside = sums[offset + own] / (sizes[own] - 1);
+
+        double outside = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < clusterCount; c++) {
+            if (c == own || sizes[c] == 0) continue;
+            outside = Math.min(outside, sums[offset + c] / sizes[c]);
+        }
+        if (outside == Double.POSITIVE_INFINITY)
+            return 0;
+
+        double larger = Math.max(inside, outside);
+        return larger == 0 ? 0 : (outside - inside) / larger;
+    }
+}
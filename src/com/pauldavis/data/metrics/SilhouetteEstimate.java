@@ -0,0 +1,54 @@
+package com.pauldavis.data.metrics;
+
+/**
+ * Silhouette width estimated from a sample of points
+ */
+public class SilhouetteEstimate {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Mean silhouette of the sampled points
+    private final double mean;
+    // Half width of the 95% confidence interval around the mean
+    private final double halfWidth;
+    // Points sampled
+    private final int sampleSize;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    public SilhouetteEstimate(double mean, double halfWidth, int sampleSize) {
+        this.mean = mean;
+        this.halfWidth = halfWidth;
+        this.sampleSize = sampleSize;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getHalfWidth() {
+        return halfWidth;
+    }
+
+    public double getLower() {
+        return mean - halfWidth;
+    }
+
+    public double getUpper() {
+        return mean + halfWidth;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+}
@@ -0,0 +1,366 @@
+package com.pauldavis.data.reduce;
+
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.database.BlockTask;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Truncated PCA by randomized subspace iteration (Halko, Martinsson and Tropp). A random basis a little wider than the
+ * components wanted is multiplied by the covariance and orthonormalized a few times, then the covariance restricted to
+ * that basis is diagonalized to give the components and their variances. The covariance is never formed, each product
+ * is one pass over the rows as X^T (X Q) / n - mean (mean^T Q), which only visits stored entries of sparse rows.
+ *
+ * Products are summed per block on a fixed grid and merged in block order, so the components do not depend on threads.
+ * When a share of the variance is asked for, the basis is doubled until its components hold that share or it spans
+ * every attribute
+ */
+public class PrincipalComponents {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Products after the first one, each sharpens the basis toward the top components
+    private static final int POWER_ITERATIONS = 3;
+    // Extra basis vectors beyond the components kept
+    private static final int OVERSAMPLING = 10;
+    // Basis tried first when a share of the variance is asked for
+    private static final int FIRST_WIDTH = 16;
+    // Fewest rows per block and most blocks, every block holds a basis sized partial product
+    private static final int BLOCK_SIZE = 4096;
+    private static final int MAX_BLOCKS = 64;
+    // Values copied out of a dense matrix at once
+    private static final int CHUNK = 8192;
+    // Jacobi sweeps before giving up on smaller off diagonal entries
+    private static final int MAX_SWEEPS = 64;
+
+    // Map onto the kept components, centred on the mean
+    private final Projection projection;
+    // Share of the total variance the kept components hold
+    private final double retainedVariance;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private PrincipalComponents(Projection projection, double retainedVariance) {
+        this.projection = projection;
+        this.retainedVariance = retainedVariance;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Finds the top components of a data set
+     *
+     * @param data       Rows, any storage
+     * @param dimensions Components to keep, 0 to keep a share of the variance instead
+     * @param variance   Share of the total variance to keep, in (0, 1], used when dimensions is 0
+     * @param random     Source of the starting basis
+     * @param threads    Parallelism
+     * @return Components found
+     * @throws IllegalArgumentException When the target does not fit the data or every row is the same
+     */
+    public static PrincipalComponents fit(DataMatrix data, int dimensions, double variance, SplittableRandom random,
+                                          int threads) {
+        int rows = data.getRows();
+        int columns = data.getColumns();
+        if (dimensions >= columns || dimensions < 0 || (dimensions == 0 && !(variance > 0 && variance <= 1)))
+            throw new IllegalArgumentException("Cannot keep " + (dimensions > 0 ? dimensions + " components" :
+                    variance + " of the variance") + " of " + columns + " attributes");
+
+        // Mean, then the total variance as the mean squared distance to it
+        double[] mean = new double[columns];
+        for (int row = 0; row < rows; row++)
+            data.addRow(row, mean, 0);
+        for (int i = 0; i < columns; i++)
+            mean[i] /= Math.max(1, rows);
+        double[] meanNorm = data.squaredNorms(new double[][]{mean}, null);
+        double total = 0;
+        for (int row = 0; row < rows; row++)
+            total += data.distanceSquared(row, mean, meanNorm == null ? 0 : meanNorm[0]);
+        total /= Math.max(1, rows);
+        if (!(total > 0))
+            throw new IllegalArgumentException("Every point is the same, there is nothing to reduce");
+
+        int width = Math.min(columns, dimensions > 0 ? dimensions + OVERSAMPLING : FIRST_WIDTH);
+        while (true) {
+            // Random start, sharpened by repeated products
+            double[][] basis = new double[width][columns];
+            for (double[] vector : basis)
+                for (int i = 0; i < columns; i++)
+                    vector[i] = random.nextDouble(-1, 1);
+            basis = orthonormalize(basis);
+            for (int q = 0; q < POWER_ITERATIONS; q++)
+                basis = orthonormalize(covarianceTimes(data, mean, basis, threads));
+
+            // Covariance restricted to the basis, its eigenvectors give the components
+            double[][] image = covarianceTimes(data, mean, basis, threads);
+            int size = basis.length;
+            double[][] restricted = new double[size][size];
+            for (int a = 0; a < size; a++)
+                for (int b = 0; b <= a; b++) {
+                    double value = (dot(basis[a], image[b]) + dot(basis[b], image[a])) / 2;
+                    restricted[a][b] = value;
+                    restricted[b][a] = value;
+                }
+            double[][] vectors = new double[size][size];
+            double[] values = diagonalize(restricted, vectors);
+            int[] order = descending(values);
+
+            // Enough components, or all the basis can give
+            int keep = 0;
+            double kept = 0;
+            if (dimensions > 0) {
+                keep = Math.min(dimensions, size);
+                for (int k = 0; k < keep; k++)
+                    kept += Math.max(0, values[order[k]]);
+            } else {
+                while (keep < size && kept < variance * total)
+                    kept += Math.max(0, values[order[keep++]]);
+                if (kept < variance * total && width < columns) {
+                    width = Math.min(columns, width * 2);
+                    continue;
+                }
+            }
+
+            // Components as combinations of the basis, stored dense by input attribute
+            double[][] components = new double[keep][columns];
+            for (int k = 0; k < keep; k++)
+                for (int a = 0; a < size; a++) {
+                    double weight = vectors[a][order[k]];
+                    for (int i = 0; i < columns; i++)
+                        components[k][i] += weight * basis[a][i];
+                }
+            int[] starts = new int[columns + 1];
+            int[] outputs = new int[columns * keep];
+            double[] weights = new double[columns * keep];
+            double[] offset = new double[keep];
+            for (int i = 0; i < columns; i++) {
+                for (int k = 0; k < keep; k++) {
+                    outputs[i * keep + k] = k;
+                    weights[i * keep + k] = components[k][i];
+                    offset[k] -= mean[i] * components[k][i];
+                }
+                starts[i + 1] = (i + 1) * keep;
+            }
+            return new PrincipalComponents(new Projection(columns, keep, starts, outputs, weights, offset),
+                    Math.min(1, kept / total));
+        }
+    }
+
+    /**
+     * Multiplies the covariance of the rows by every basis vector, in one pass over the rows
+     *
+     * @param data    Rows
+     * @param mean    Mean of the rows
+     * @param basis   Vectors to multiply, each columns long
+     * @param threads Parallelism
+     * @return Covariance times each vector
+     */
+    private static double[][] covarianceTimes(DataMatrix data, double[] mean, double[][] basis, int threads) {
+        int rows = data.getRows();
+        int columns = data.getColumns();
+        int width = basis.length;
+        int blockRows = Math.max(BLOCK_SIZE, (rows + MAX_BLOCKS - 1) / MAX_BLOCKS);
+        double[][] partials = new double[(rows + blockRows - 1) / blockRows][];
+
+        // Each block sums x (x . q) over its rows for every basis vector q
+        BlockTask.run(threads, partials.length, b -> {
+            int start = b * blockRows;
+            int end = Math.min(rows, start + blockRows);
+            double[] sums = new double[width * columns];
+            double[] dots = new double[width];
+            if (data.isSparse()) {
+                int[] rowStarts = data.getRowStarts();
+                int[] indices = data.getIndices();
+                double[] nonzeros = data.getNonzeros();
+                for (int row = start; row < end; row++) {
+                    for (int j = 0; j < width; j++) {
+                        double dot = 0;
+                        for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++)
+                            dot += nonzeros[entry] * basis[j][indices[entry]];
+                        dots[j] = dot;
+                    }
+                    for (int j = 0; j < width; j++)
+                        for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++)
+                            sums[j * columns + indices[entry]] += nonzeros[entry] * dots[j];
+                }
+            } else {
+                int chunkRows = Math.max(1, CHUNK / Math.max(1, columns));
+                double[] buffer = new double[chunkRows * columns];
+                for (int row = start; row < end; row += chunkRows) {
+                    int count = Math.min(chunkRows, end - row);
+                    data.copyRows(row, count, buffer);
+                    for (int r = 0; r < count; r++) {
+                        int offset = r * columns;
+                        for (int j = 0; j < width; j++) {
+                            double dot = 0;
+                            for (int i = 0; i < columns; i++)
+                                dot += buffer[offset + i] * basis[j][i];
+                            dots[j] = dot;
+                        }
+                        for (int j = 0; j < width; j++)
+                            for (int i = 0; i < columns; i++)
+                                sums[j * columns + i] += buffer[offset + i] * dots[j];
+                    }
+                }
+            }
+            partials[b] = sums;
+        });
+
+        // Merge in block order, then take away the mean's part
+        double[][] product = new double[width][columns];
+        for (double[] sums : partials)
+            for (int j = 0; j < width; j++)
+                for (int i = 0; i < columns; i++)
+                    product[j][i] += sums[j * columns + i];
+        for (int j = 0; j < width; j++) {
+            double meanDot = dot(mean, basis[j]);
+            for (int i = 0; i < columns; i++)
+                product[j][i] = product[j][i] / rows - mean[i] * meanDot;
+        }
+        return product;
+    }
+
+    /**
+     * Orthonormalizes vectors by modified Gram-Schmidt, twice over for accuracy. Vectors that are nearly a combination
+     * of the ones before are dropped
+     *
+     * @param vectors Vectors, changed in place
+     * @return Orthonormal vectors, the survivors in order
+     */
+    private static double[][] orthonormalize(double[][] vectors) {
+        int kept = 0;
+        for (double[] vector : vectors) {
+            double before = Math.sqrt(dot(vector, vector));
+            for (int pass = 0; pass < 2; pass++)
+                for (int k = 0; k < kept; k++) {
+                    double projection = dot(vectors[k], vector);
+                    for (int i = 0; i < vector.length; i++)
+                        vector[i] -= projection * vectors[k][i];
+                }
+            double norm = Math.sqrt(dot(vector, vector));
+            if (!(norm > 1e-10 * before))
+                continue;
+            for (int i = 0; i < vector.length; i++)
+                vector[i] /= norm;
+            vectors[kept++] = vector;
+        }
+        return kept == vectors.length ? vectors : Arrays.copyOf(vectors, kept);
+    }
+
+    /**
+     * Diagonalizes a symmetric matrix by cyclic Jacobi rotations
+     *
+     * @param matrix  Symmetric matrix, destroyed
+     * @param vectors Output, column k is the eigenvector of eigenvalue k
+     * @return Eigenvalues, in no particular order
+     */
+    private static double[] diagonalize(double[][] matrix, double[][] vectors) {
+        int n = matrix.length;
+        double scale = 0;
+        for (int p = 0; p < n; p++) {
+            vectors[p][p] = 1;
+            for (int q = 0; q < n; q++)
+                scale += matrix[p][q] * matrix[p][q];
+        }
+
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double off = 0;
+            for (int p = 0; p < n; p++)
+                for (int q = p + 1; q < n; q++)
+                    off += matrix[p][q] * matrix[p][q];
+            if (off <= 1e-30 * scale)
+                break;
+
+            for (int p = 0; p < n; p++)
+                for (int q = p + 1; q < n; q++) {
+                    if (matrix[p][q] == 0) continue;
+
+                    // Rotation that zeroes [p][q]
+                    double theta = (matrix[q][q] - matrix[p][p]) / (2 * matrix[p][q]);
+                    double t = (theta >= 0 ? 1 : -1) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    for (int k = 0; k < n; k++) {
+                        double kp = matrix[k][p];
+                        double kq = matrix[k][q];
+                        matrix[k][p] = c * kp - s * kq;
+                        matrix[k][q] = s * kp + c * kq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double pk = matrix[p][k];
+                        double qk = matrix[q][k];
+                        matrix[p][k] = c * pk - s * qk;
+                        matrix[q][k] = s * pk + c * qk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double kp = vectors[k][p];
+                        double kq = vectors[k][q];
+                        vectors[k][p] = c * kp - s * kq;
+                        vectors[k][q] = s * kp + c * kq;
+                    }
+                }
+        }
+
+        double[] values = new double[n];
+        for (int p = 0; p < n; p++)
+            values[p] = matrix[p][p];
+        return values;
+    }
+
+    /**
+     * Orders indices by value, largest first, ties by index
+     *
+     * @param values Values
+     * @return Index of each value in order
+     */
+    private static int[] descending(double[] values) {
+        int[] order = new int[values.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        for (int i = 1; i < order.length; i++) {
+            int index = order[i];
+            int j = i - 1;
+            while (j >= 0 && values[order[j]] < values[index]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = index;
+        }
+        return order;
+    }
+
+    /**
+     * Dot product of two equally long vectors
+     */
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++)
+            sum += a[i] * b[i];
+        return sum;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public Projection getProjection() {
+        return projection;
+    }
+
+    /**
+     * @return Share of the total variance the kept components hold, from 0 to 1
+     */
+    public double getRetainedVariance() {
+        return retainedVariance;
+    }
+}
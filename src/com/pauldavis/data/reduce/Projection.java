@@ -0,0 +1,162 @@
+package com.pauldavis.data.reduce;
+
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.database.BlockTask;
+
+/**
+ * Linear map from the attributes of a data set to fewer dimensions, row x becomes offset + x W. W is kept as the
+ * non-zero weights of each input attribute, so a sparse map only touches what it stores and zero inputs, every unstored
+ * value of a sparse row included, are skipped
+ */
+public class Projection {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Rows mapped per block of work
+    private static final int BLOCK_SIZE = 4096;
+    // Values copied out of a dense matrix at once
+    private static final int CHUNK = 8192;
+
+    // Weights of input attribute i are entries [starts[i], starts[i + 1]) of outputs and weights
+    private final int[] starts;
+    private final int[] outputs;
+    private final double[] weights;
+    // Added to every mapped row
+    private final double[] offset;
+    // Attributes in and dimensions out
+    private final int columns;
+    private final int dimensions;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    /**
+     * Creates a map, the arrays are kept as given
+     *
+     * @param columns    Attributes in
+     * @param dimensions Dimensions out
+     * @param starts     Where each input attribute's weights start, columns + 1 long with the weight count last
+     * @param outputs    Output dimension of each weight
+     * @param weights    Value of each weight
+     * @param offset     Added to every mapped row, dimensions long
+     */
+    public Projection(int columns, int dimensions, int[] starts, int[] outputs, double[] weights, double[] offset) {
+        if (starts.length != columns + 1 || offset.length != dimensions)
+            throw new IllegalArgumentException("Projection arrays do not match " + columns + " by " + dimensions);
+        this.columns = columns;
+        this.dimensions = dimensions;
+        this.starts = starts;
+        this.outputs = outputs;
+        this.weights = weights;
+        this.offset = offset;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Maps every row into a new dense matrix on the heap, in single precision when the source is dense single precision
+     *
+     * @param data    Rows to map, any storage
+     * @param threads Parallelism
+     * @return Mapped rows, in the same order
+     */
+    public DataMatrix apply(DataMatrix data, int threads) {
+        if (data.getColumns() != columns)
+            throw new IllegalArgumentException("Projection takes " + columns + " attributes, data has " +
+                    data.getColumns());
+        int rows = data.getRows();
+        DataMatrix reduced = new DataMatrix(rows, dimensions, data.isSinglePrecision() && !data.isSparse());
+        double[] values = reduced.getValues();
+        float[] floats = reduced.getFloatValues();
+
+        // Blocks write disjoint rows
+        BlockTask.run(threads, (rows + BLOCK_SIZE - 1) / BLOCK_SIZE, b -> {
+            int start = b * BLOCK_SIZE;
+            int end = Math.min(rows, start + BLOCK_SIZE);
+            double[] mapped = new double[dimensions];
+            if (data.isSparse()) {
+                int[] rowStarts = data.getRowStarts();
+                for (int row = start; row < end; row++) {
+                    System.arraycopy(offset, 0, mapped, 0, dimensions);
+                    for (int entry = rowStarts[row]; entry < rowStarts[row + 1]; entry++)
+                        add(data.getIndices()[entry], data.getNonzeros()[entry], mapped);
+                    store(mapped, row, values, floats);
+                }
+                return;
+            }
+
+            int chunkRows = Math.max(1, CHUNK / Math.max(1, columns));
+            double[] buffer = new double[chunkRows * columns];
+            for (int row = start; row < end; row += chunkRows) {
+                int count = Math.min(chunkRows, end - row);
+                data.copyRows(row, count, buffer);
+                for (int r = 0; r < count; r++) {
+                    System.arraycopy(offset, 0, mapped, 0, dimensions);
+                    for (int i = 0; i < columns; i++)
+                        add(i, buffer[r * columns + i], mapped);
+                    store(mapped, row + r, values, floats);
+                }
+            }
+        });
+        return reduced;
+    }
+
+    /**
+     * Adds one input value's share to a mapped row
+     *
+     * @param column Input attribute
+     * @param value  Its value
+     * @param mapped Mapped row so far
+     */
+    private void add(int column, double value, double[] mapped) {
+        if (value == 0)
+            return;
+        for (int entry = starts[column]; entry < starts[column + 1]; entry++)
+            mapped[outputs[entry]] += weights[entry] * value;
+    }
+
+    /**
+     * Copies a mapped row into the matrix arrays
+     *
+     * @param mapped Mapped row
+     * @param row    Row index
+     * @param values Double array, null in single precision
+     * @param floats Float array, null in double precision
+     */
+    private void store(double[] mapped, int row, double[] values, float[] floats) {
+        int rowOffset = row * dimensions;
+        for (int j = 0; j < dimensions; j++) {
+            if (values != null)
+                values[rowOffset + j] = mapped[j];
+            else
+                floats[rowOffset + j] = (float) mapped[j];
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return Weights stored, columns * dimensions for a dense map
+     */
+    public int getWeightCount() {
+        return weights.length;
+    }
+}
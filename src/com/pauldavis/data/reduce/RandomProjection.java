@@ -0,0 +1,68 @@
+package com.pauldavis.data.reduce;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Very sparse random projection (Li, Hastie and Church). Each weight is +sqrt(s / k) or -sqrt(s / k) with probability
+ * 1 / 2s each and 0 otherwise, for k output dimensions, so squared distances are kept in expectation and the map stores
+ * about columns * k / s weights. s is sqrt(columns), but never below 3 where the map would be close to dense anyway
+ */
+public final class RandomProjection {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Smallest sparsity, one weight in three is stored
+    private static final double MIN_SPARSITY = 3;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private RandomProjection() {
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Draws a projection
+     *
+     * @param columns    Attributes in
+     * @param dimensions Dimensions out
+     * @param random     Source of the weights
+     * @return Projection with no offset
+     */
+    public static Projection create(int columns, int dimensions, SplittableRandom random) {
+        double sparsity = Math.max(MIN_SPARSITY, Math.sqrt(columns));
+        double scale = Math.sqrt(sparsity / dimensions);
+        double chance = 1 / sparsity;
+
+        // Drawn input attribute by input attribute, which is the order the map stores them in
+        int[] starts = new int[columns + 1];
+        int[] outputs = new int[16];
+        double[] weights = new double[16];
+        int count = 0;
+        for (int i = 0; i < columns; i++) {
+            for (int j = 0; j < dimensions; j++) {
+                double draw = random.nextDouble();
+                if (draw >= chance) continue;
+                if (count == outputs.length) {
+                    outputs = Arrays.copyOf(outputs, count * 2);
+                    weights = Arrays.copyOf(weights, count * 2);
+                }
+                outputs[count] = j;
+                weights[count] = draw < chance / 2 ? scale : -scale;
+                count++;
+            }
+            starts[i + 1] = count;
+        }
+        return new Projection(columns, dimensions, starts, Arrays.copyOf(outputs, count),
+                Arrays.copyOf(weights, count), new double[dimensions]);
+    }
+}
@@ -0,0 +1,224 @@
+package com.pauldavis.data.reduce;
+
+import com.pauldavis.data.Cluster;
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.Membership;
+import com.pauldavis.data.database.BlockTask;
+import com.pauldavis.data.metrics.ClusterStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Normalized data mapped to fewer dimensions for clustering, kept together with the original so a solution found in
+ * the reduced space can be measured, and reassigned once, where distances are exact. Everything here works from the
+ * assignments alone, centroids in the original space are the means of each cluster's rows there
+ */
+public class Reduction {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Rows per block of the original space passes
+    private static final int BLOCK_SIZE = 4096;
+
+    // Data before and after
+    private final DataMatrix original;
+    private final DataMatrix reduced;
+    // How the data was reduced, projection or pca
+    private final String method;
+    // Share of the total variance kept, NaN when not known
+    private final double retainedVariance;
+
+
+    /*******************************************************************************************************************
+     * Constructor                                                                                                     *
+     *******************************************************************************************************************/
+
+    private Reduction(DataMatrix original, DataMatrix reduced, String method, double retainedVariance) {
+        this.original = original;
+        this.reduced = reduced;
+        this.method = method;
+        this.retainedVariance = retainedVariance;
+    }
+
+
+    /*******************************************************************************************************************
+     * Methods                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Reduces a data set
+     *
+     * @param method     projection for a sparse random projection, pca for the top principal components
+     * @param data       Normalized rows, any storage
+     * @param dimensions Dimensions to keep, 0 to keep a share of the variance instead, which needs pca
+     * @param variance   Share of the total variance to keep, in (0, 1], used when dimensions is 0
+     * @param random     Source of the projection or the starting basis
+     * @param threads    Parallelism
+     * @return Reduced data with its original
+     * @throws IllegalArgumentException When the method is unknown or the target does not fit the data
+     */
+    public static Reduction create(String method, DataMatrix data, int dimensions, double variance,
+                                   SplittableRandom random, int threads) {
+        switch (method) {
+            case "projection":
+                if (dimensions < 1 || dimensions >= data.getColumns())
+                    throw new IllegalArgumentException("Cannot project " + data.getColumns() + " attributes to " +
+                            dimensions + " dimensions");
+                Projection projection = RandomProjection.create(data.getColumns(), dimensions, random);
+                return new Reduction(data, projection.apply(data, threads), method, Double.NaN);
+            case "pca":
+                PrincipalComponents components = PrincipalComponents.fit(data, dimensions, variance, random, threads);
+                return new Reduction(data, components.getProjection().apply(data, threads), method,
+                        components.getRetainedVariance());
+            default:
+                throw new IllegalArgumentException("Unknown reduction: " + method);
+        }
+    }
+
+    /**
+     * SSE of a clustering in the original space, against the mean of each cluster's rows there
+     *
+     * @param assignments  Cluster index of each row
+     * @param clusterCount Number of clusters
+     * @param threads      Parallelism
+     * @return Sum of squared distances from each row to its cluster's mean
+     */
+    public double sumSquaredError(int[] assignments, int clusterCount, int threads) {
+        double[][] means = means(assignments, clusterCount);
+
+        // Empty clusters hold no rows, any point does for their norm
+        for (int c = 0; c < clusterCount; c++)
+            if (means[c] == null) means[c] = new double[original.getColumns()];
+        double[] meanNorms = original.squaredNorms(means, null);
+        int rows = original.getRows();
+        double[] partials = new double[(rows + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        BlockTask.run(threads, partials.length, b -> {
+            double sum = 0;
+            for (int row = b * BLOCK_SIZE; row < Math.min(rows, (b + 1) * BLOCK_SIZE); row++) {
+                int c = assignments[row];
+                sum += original.distanceSquared(row, means[c], meanNorms == null ? 0 : meanNorms[c]);
+            }
+            partials[b] = sum;
+        });
+
+        // Blocks merged in order
+        double sumSquaredError = 0;
+        for (double partial : partials)
+            sumSquaredError += partial;
+        return sumSquaredError;
+    }
+
+    /**
+     * One exact assignment pass in the original space, every row moves to the closest cluster mean there. Empty
+     * clusters have no mean and take no rows
+     *
+     * @param assignments  Cluster index of each row, updated in place
+     * @param clusterCount Number of clusters
+     * @param threads      Parallelism
+     * @return Rows that changed cluster
+     */
+    public int exactPass(int[] assignments, int clusterCount, int threads) {
+        double[][] means = means(assignments, clusterCount);
+
+        // Only clusters with a mean compete, each knows its own index
+        int present = 0;
+        for (double[] mean : means)
+            if (mean != null) present++;
+        double[][] centroids = new double[present][];
+        int[] clusters = new int[present];
+        present = 0;
+        for (int c = 0; c < clusterCount; c++) {
+            if (means[c] == null) continue;
+            centroids[present] = means[c];
+            clusters[present++] = c;
+        }
+        double[] centroidNorms = original.squaredNorms(centroids, null);
+
+        // Blocks write disjoint rows, moves are exact in any order
+        int rows = original.getRows();
+        int[] moves = new int[(rows + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        BlockTask.run(threads, moves.length, b -> {
+            double[] distances = new double[centroids.length];
+            for (int row = b * BLOCK_SIZE; row < Math.min(rows, (b + 1) * BLOCK_SIZE); row++) {
+                int closest = clusters[original.closest(row, centroids, centroidNorms, distances)];
+                if (closest != assignments[row]) {
+                    assignments[row] = closest;
+                    moves[b]++;
+                }
+            }
+        });
+        int moved = 0;
+        for (int move : moves)
+            moved += move;
+        return moved;
+    }
+
+    /**
+     * Per cluster statistics of a clustering in the original space, each cluster centred on its mean there
+     *
+     * @param membership   Cluster of every row
+     * @param clusterCount Number of clusters
+     * @return Statistics over the original rows
+     */
+    public ClusterStatistics calculateStatistics(Membership membership, int clusterCount) {
+        double[][] means = means(membership.getAssignments(), clusterCount);
+        List<Cluster> clusters = new ArrayList<>(clusterCount);
+        for (int c = 0; c < clusterCount; c++)
+            clusters.add(new Cluster(original, membership, means[c] != null ? means[c] :
+                    new double[original.getColumns()], c));
+        return new ClusterStatistics(original, clusters);
+    }
+
+    /**
+     * Mean of each cluster's rows in the original space, summed in row order
+     *
+     * @param assignments  Cluster index of each row
+     * @param clusterCount Number of clusters
+     * @return Mean of each cluster, null for an empty one
+     */
+    private double[][] means(int[] assignments, int clusterCount) {
+        int columns = original.getColumns();
+        double[] sums = new double[clusterCount * columns];
+        int[] counts = new int[clusterCount];
+        for (int row = 0; row < original.getRows(); row++) {
+            original.addRow(row, sums, assignments[row] * columns);
+            counts[assignments[row]]++;
+        }
+        double[][] means = new double[clusterCount][];
+        for (int c = 0; c < clusterCount; c++) {
+            if (counts[c] == 0) continue;
+            means[c] = new double[columns];
+            for (int i = 0; i < columns; i++)
+                means[c][i] = sums[c * columns + i] / counts[c];
+        }
+        return means;
+    }
+
+
+    /*******************************************************************************************************************
+     * Accessors/Mutators                                                                                              *
+     *******************************************************************************************************************/
+
+    public DataMatrix getOriginal() {
+        return original;
+    }
+
+    public DataMatrix getReduced() {
+        return reduced;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return Share of the total variance kept, from 0 to 1, NaN for a random projection
+     */
+    public double getRetainedVariance() {
+        return retainedVariance;
+    }
+}
@@ -0,0 +1,272 @@
+package com.pauldavis.data.distributed;
+
+import com.pauldavis.Worker;
+import com.pauldavis.data.DataMatrix;
+import com.pauldavis.data.database.AbstractClusteredDatabase;
+import com.pauldavis.data.database.AccumulatingIterationEngine;
+import com.pauldavis.data.database.DistributedIterationEngine;
+import com.pauldavis.data.database.FusedIterationEngine;
+import com.pauldavis.data.database.RandomCentroidClusteredDatabase;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the distributed engine against workers on this machine and checks every iteration is bit for bit the fused
+ * engine's, for each way a shard can be stored. Most cases run the workers as threads of this JVM, one starts them as
+ * separate Worker processes
+ */
+class WorkerGroupTest {
+
+    /*******************************************************************************************************************
+     * Variables                                                                                                       *
+     *******************************************************************************************************************/
+
+    // Enough rows for uneven shards, the last block is partial
+    private static final int ROWS = 3 * AccumulatingIterationEngine.BLOCK_SIZE + 1234;
+    private static final int COLUMNS = 12;
+    private static final int SPARSE_COLUMNS = 60;
+    private static final int CLUSTERS = 6;
+    private static final int WORKERS = 3;
+    private static final int ITERATIONS = 8;
+    private static final long SEED = 42;
+
+    // What a worker process prints once it listens, followed by the port
+    private static final String LISTENING = "Worker listening on port";
+    // Longest wait for a worker process to report its port
+    private static final long START_TIMEOUT_SECONDS = 30;
+
+    // Workers listening on free ports of this machine
+    private final List<WorkerServer> servers = new ArrayList<>();
+    private final List<InetSocketAddress> addresses = new ArrayList<>();
+
+
+    /*******************************************************************************************************************
+     * Setup                                                                                                           *
+     *******************************************************************************************************************/
+
+    @BeforeEach
+    void startWorkers() throws IOException {
+        for (int w = 0; w < WORKERS; w++) {
+            WorkerServer server = new WorkerServer(0, 2);
+            int port = server.open();
+            Thread thread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "test-worker-" + port);
+            thread.setDaemon(true);
+            thread.start();
+            servers.add(server);
+            addresses.add(new InetSocketAddress("localhost", port));
+        }
+    }
+
+    @AfterEach
+    void stopWorkers() {
+        for (WorkerServer server : servers)
+            server.close();
+    }
+
+
+    /*******************************************************************************************************************
+     * Tests                                                                                                           *
+     *******************************************************************************************************************/
+
+    @Test
+    void doubleRowsMatchFused() throws IOException {
+        assertMatchesFused(dense(false));
+    }
+
+    @Test
+    void floatRowsMatchFused() throws IOException {
+        assertMatchesFused(dense(true));
+    }
+
+    @Test
+    void sparseRowsMatchFused() throws IOException {
+        assertMatchesFused(sparse());
+    }
+
+    @Test
+    void workerProcessesMatchFused() throws Exception {
+        List<Process> processes = new ArrayList<>();
+        try {
+            List<InetSocketAddress> processAddresses = new ArrayList<>();
+            for (int w = 0; w < WORKERS; w++) {
+                Process process = startWorkerProcess();
+                processes.add(process);
+                processAddresses.add(new InetSocketAddress("localhost", readPort(process)));
+            }
+            assertMatchesFused(dense(false), processAddresses);
+        } finally {
+            for (Process process : processes)
+                process.destroy();
+            for (Process process : processes)
+                process.waitFor(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+
+    /*******************************************************************************************************************
+     * Helpers                                                                                                         *
+     *******************************************************************************************************************/
+
+    /**
+     * Iterates the same start in this process and on the in process workers
+     *
+     * @param data Points to cluster
+     * @throws IOException When a worker cannot be reached
+     */
+    private void assertMatchesFused(DataMatrix data) throws IOException {
+        assertMatchesFused(data, addresses);
+    }
+
+    /**
+     * Iterates the same start in this process and on the workers, comparing moves, SSE, assignments and centroids
+     *
+     * @param data      Points to cluster
+     * @param addresses Where the workers listen
+     * @throws IOException When a worker cannot be reached
+     */
+    private static void assertMatchesFused(DataMatrix data, List<InetSocketAddress> addresses) throws IOException {
+        AbstractClusteredDatabase local = new RandomCentroidClusteredDatabase(data, CLUSTERS, 2,
+                new SplittableRandom(SEED));
+        AbstractClusteredDatabase remote = new RandomCentroidClusteredDatabase(data, CLUSTERS, 1,
+                new SplittableRandom(SEED));
+        assertArrayEquals(local.getMembership().getAssignments(), remote.getMembership().getAssignments());
+
+        try (WorkerGroup workers = new WorkerGroup(addresses, data, "scalar", AccumulatingIterationEngine.BLOCK_SIZE)) {
+            assertEquals(WORKERS, workers.getWorkerCount());
+            local.setEngine(new FusedIterationEngine(local));
+            remote.setEngine(new DistributedIterationEngine(remote, workers));
+
+            for (int iteration = 1; iteration <= ITERATIONS; iteration++) {
+                assertEquals(local.iterate(), remote.iterate(), "Moves of iteration " + iteration);
+                assertEquals(Double.doubleToLongBits(local.getEngine().getSumSquaredError()),
+                        Double.doubleToLongBits(remote.getEngine().getSumSquaredError()),
+                        "SSE of iteration " + iteration);
+            }
+            local.getEngine().finish();
+            remote.getEngine().finish();
+        }
+
+        assertArrayEquals(local.getMembership().getAssignments(), remote.getMembership().getAssignments());
+        for (int c = 0; c < CLUSTERS; c++)
+            assertArrayEquals(local.getClusters().get(c).getCentroid(), remote.getClusters().get(c).getCentroid(),
+                    "Centroid " + c);
+    }
+
+    /**
+     * Starts a Worker process on a free port, with this JVM and class path
+     *
+     * @return The running process, its output merged into one stream
+     * @throws IOException When the process cannot start
+     */
+    private static Process startWorkerProcess() throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Worker.class.getName(), "0",
+                "-threads=2").redirectErrorStream(true).start();
+    }
+
+    /**
+     * Waits for a worker process to say which port it listens on, the rest of its output is drained in the background
+     *
+     * @param process Worker process
+     * @return Port listened on
+     * @throws Exception When the process ends, fails or takes too long first
+     */
+    private static int readPort(Process process) throws Exception {
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8));
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> line = reader.submit(output::readLine);
+            String first = line.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (first == null || !first.startsWith(LISTENING))
+                throw new IllegalStateException("Worker did not start: " + first);
+            Thread drain = new Thread(() -> {
+                try {
+                    while (output.readLine() != null) {
+                        // Loads and sessions, nothing to check
+                    }
+                } catch (IOException ignored) {
+                    // Process ended
+                }
+            });
+            drain.setDaemon(true);
+            drain.start();
+            return Integer.parseInt(first.substring(LISTENING.length()).trim());
+        } finally {
+            reader.shutdown();
+        }
+    }
+
+    /**
+     * Points scattered around a few random centres
+     *
+     * @param singlePrecision Whether to store floats
+     * @return Dense matrix
+     */
+    private static DataMatrix dense(boolean singlePrecision) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        double[][] centres = new double[CLUSTERS][COLUMNS];
+        for (double[] centre : centres)
+            for (int i = 0; i < COLUMNS; i++)
+                centre[i] = random.nextDouble();
+        DataMatrix data = new DataMatrix(ROWS, COLUMNS, singlePrecision);
+        for (int row = 0; row < ROWS; row++) {
+            double[] centre = centres[random.nextInt(CLUSTERS)];
+            for (int i = 0; i < COLUMNS; i++)
+                data.set(row, i, centre[i] + random.nextDouble(-0.2, 0.2));
+        }
+        return data;
+    }
+
+    /**
+     * Mostly zero points, each row sets a few columns from one of a few groups
+     *
+     * @return Sparse matrix
+     */
+    private static DataMatrix sparse() {
+        SplittableRandom random = new SplittableRandom(SEED);
+        int[] rowStarts = new int[ROWS + 1];
+        int[] indices = new int[ROWS * SPARSE_COLUMNS];
+        double[] nonzeros = new double[ROWS * SPARSE_COLUMNS];
+        int stored = 0;
+        int groupWidth = SPARSE_COLUMNS / CLUSTERS;
+        for (int row = 0; row < ROWS; row++) {
+            int group = random.nextInt(CLUSTERS);
+            for (int i = 0; i < SPARSE_COLUMNS; i++) {
+                boolean inGroup = i / groupWidth == group;
+                if (random.nextDouble() < (inGroup ? 0.6 : 0.03)) {
+                    indices[stored] = i;
+                    nonzeros[stored++] = random.nextDouble();
+                }
+            }
+            rowStarts[row + 1] = stored;
+        }
+        return new DataMatrix(SPARSE_COLUMNS, rowStarts, Arrays.copyOf(indices, stored),
+                Arrays.copyOf(nonzeros, stored));
+    }
+}